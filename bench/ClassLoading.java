@@ -0,0 +1,75 @@
+import corvoid.NestedLauncher;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Measures the cost of loading every class of an application from a flattened uberjar
+ * through URLClassLoader versus from a nested uberjar through NestedLauncher. Each
+ * round uses a fresh classloader; the nested figure includes indexing the jars.
+ * <p>
+ * Usage: java -cp target/classes bench/ClassLoading.java flat.jar nested.jar [rounds]
+ * <p>
+ * See bench/nested.sh to build both jars for a project and run this.
+ */
+public class ClassLoading {
+    public static void main(String[] args) throws Exception {
+        Path flat = Path.of(args[0]);
+        Path nested = Path.of(args[1]);
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        List<String> classes = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(flat.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                String name = entry.getName();
+                if (name.endsWith(".class") && !name.endsWith("module-info.class") && !name.startsWith("META-INF/")) {
+                    classes.add(name.substring(0, name.length() - 6).replace('/', '.'));
+                }
+            }
+        }
+
+        ClassLoader platform = ClassLoader.getPlatformClassLoader();
+        long[] flatTimes = new long[rounds];
+        long[] nestedTimes = new long[rounds];
+        int loaded = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            try (URLClassLoader loader = new URLClassLoader(new URL[]{flat.toUri().toURL()}, platform)) {
+                loaded = loadAll(loader, classes);
+            }
+            flatTimes[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            loadAll(new NestedLauncher(nested, platform), classes);
+            nestedTimes[i] = System.nanoTime() - start;
+        }
+        System.out.printf("%d of %d classes, median of %d rounds: flat %.1f ms, nested %.1f ms%n",
+                loaded, classes.size(), rounds, median(flatTimes), median(nestedTimes));
+    }
+
+    private static int loadAll(ClassLoader loader, List<String> classes) {
+        int loaded = 0;
+        for (String name : classes) {
+            try {
+                Class.forName(name, false, loader);
+                loaded++;
+            } catch (ClassNotFoundException | LinkageError e) {
+                // optional dependencies that aren't on the classpath
+            }
+        }
+        return loaded;
+    }
+
+    private static double median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1e6;
+    }
+}
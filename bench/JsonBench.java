@@ -0,0 +1,360 @@
+package corvoid;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Compares corvoid.Json with the previous char-at-a-time parser, kept here as
+ * {@link Legacy}, on multi-megabyte documents shaped like a search response and a
+ * large version index. Reports the median time of each operation after warming up and
+ * the bytes allocated per operation.
+ * <p>
+ * Usage: bench/json.sh [rounds] [megabytes]
+ * <p>
+ * This lives in package corvoid so it can reach the package-private Json class, so
+ * it's compiled against target/classes by bench/json.sh rather than run as a source file.
+ */
+public class JsonBench {
+    record VersionInfo(String version, long timestampUnixWithMS) {}
+
+    record Component(String namespace, String name, String description, VersionInfo latestVersionInfo,
+                     List<String> tags, int rank) {}
+
+    record Response(List<Component> components, long totalResultCount) {}
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        String search = searchDocument(megabytes << 20);
+        String versions = versionsDocument(megabytes << 20);
+        Object searchTree = Json.read(new StringReader(search));
+        Object versionsTree = Json.read(new StringReader(versions));
+        if (!searchTree.equals(Legacy.read(new StringReader(search)))) {
+            throw new AssertionError("parsers disagree");
+        }
+
+        System.out.printf("%-34s %10s %10s %12s%n", "operation", "ms", "MB/s", "alloc MB");
+        for (var doc : List.of(Map.entry("search", search), Map.entry("versions", versions))) {
+            String text = doc.getValue();
+            run(doc.getKey() + " read tree (legacy)", text.length(), rounds, () -> Legacy.read(new StringReader(text)));
+            run(doc.getKey() + " read tree", text.length(), rounds, () -> Json.read(new StringReader(text)));
+            run(doc.getKey() + " skip", text.length(), rounds, () -> {
+                Json.Parser parser = new Json.Parser(new StringReader(text));
+                parser.skipValue();
+                parser.end();
+                return parser;
+            });
+            if (doc.getKey().equals("search")) {
+                run("search bind records", text.length(), rounds, () -> Json.read(new StringReader(text), Response.class));
+            }
+        }
+        Response response = Json.read(new StringReader(search), Response.class);
+        run("search write tree (legacy)", search.length(), rounds, () -> {
+            StringBuilder sb = new StringBuilder(search.length());
+            Legacy.write(sb, searchTree);
+            return sb;
+        });
+        run("search write tree", search.length(), rounds, () -> {
+            StringBuilder sb = new StringBuilder(search.length());
+            Json.write(sb, searchTree);
+            return sb;
+        });
+        run("search write records", search.length(), rounds, () -> {
+            StringBuilder sb = new StringBuilder(search.length());
+            Json.write(sb, response);
+            return sb;
+        });
+        run("versions write tree (legacy)", versions.length(), rounds, () -> {
+            StringBuilder sb = new StringBuilder(versions.length());
+            Legacy.write(sb, versionsTree);
+            return sb;
+        });
+        run("versions write tree", versions.length(), rounds, () -> {
+            StringBuilder sb = new StringBuilder(versions.length());
+            Json.write(sb, versionsTree);
+            return sb;
+        });
+    }
+
+    interface Operation {
+        Object run() throws IOException;
+    }
+
+    private static void run(String name, long chars, int rounds, Operation operation) throws IOException {
+        for (int i = 0; i < Math.max(5, rounds / 2); i++) {
+            sink = operation.run();
+        }
+        long[] times = new long[rounds];
+        long allocated = 0;
+        for (int i = 0; i < rounds; i++) {
+            long bytes = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            sink = operation.run();
+            times[i] = System.nanoTime() - start;
+            allocated += THREADS.getCurrentThreadAllocatedBytes() - bytes;
+        }
+        Arrays.sort(times);
+        double ms = times[rounds / 2] / 1e6;
+        System.out.printf("%-34s %10.1f %10.1f %12.1f%n", name, ms, chars / 1e6 / (ms / 1000),
+                allocated / (double) rounds / (1 << 20));
+    }
+
+    private static String searchDocument(int size) throws IOException {
+        Random random = new Random(42);
+        List<Object> components = new ArrayList<>();
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("components", components);
+        int length = 0;
+        while (length < size) {
+            Map<String, Object> component = new LinkedHashMap<>();
+            String name = "artifact-" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            component.put("id", "pkg:maven/org.example/" + name);
+            component.put("namespace", "org.example.group" + random.nextInt(1000));
+            component.put("name", name);
+            component.put("description", "A \"library\" for " + name + " with\nsome escapes\tand unicode é ".repeat(1 + random.nextInt(4)));
+            component.put("latestVersionInfo", Map.of("version", random.nextInt(10) + "." + random.nextInt(30) + ".0",
+                    "timestampUnixWithMS", 1_600_000_000_000L + random.nextInt(Integer.MAX_VALUE)));
+            component.put("tags", List.of("java", "maven", name));
+            component.put("rank", random.nextInt(100));
+            component.put("score", random.nextDouble());
+            component.put("dependencyOf", random.nextInt(5000));
+            components.add(component);
+            length += 420;
+        }
+        response.put("totalResultCount", components.size());
+        StringBuilder sb = new StringBuilder(size + size / 4);
+        Json.write(sb, response);
+        return sb.toString();
+    }
+
+    private static String versionsDocument(int size) throws IOException {
+        Map<String, Object> index = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder stable = new StringBuilder();
+        int length = 0;
+        for (int i = 0; length < size; i++) {
+            String version = (i / 10000) + "." + (i / 100 % 100) + "." + (i % 100) + (i % 7 == 0 ? "-rc1" : "");
+            names.add(version);
+            stable.append(i % 7 == 0 ? 'n' : 'y');
+            length += version.length() + 4;
+        }
+        index.put("source", "123:456");
+        index.put("versions", names);
+        index.put("stable", stable.toString());
+        StringBuilder sb = new StringBuilder(size + size / 4);
+        Json.write(sb, index);
+        return sb.toString();
+    }
+
+    /**
+     * The parser and writer corvoid.Json had before the streaming parser replaced them.
+     */
+    static class Legacy {
+        static Object read(Reader reader) throws IOException {
+            return new Parser(reader).value();
+        }
+
+        static void write(Appendable out, Object value) throws IOException {
+            switch (value) {
+                case null -> out.append("null");
+                case Boolean b -> out.append(b.toString());
+                case String s -> {
+                    out.append('"');
+                    for (int i = 0; i < s.length(); i++) {
+                        char c = s.charAt(i);
+                        char escape = switch (c) {
+                            case '"' -> '"';
+                            case '\\' -> '\\';
+                            case '\b' -> 'b';
+                            case '\f' -> 'f';
+                            case '\n' -> 'n';
+                            case '\r' -> 'r';
+                            case '\t' -> 't';
+                            default -> 0;
+                        };
+                        if (escape != 0) {
+                            out.append('\\');
+                            out.append(escape);
+                        } else if (c <= 0x1f) {
+                            out.append("\\u00");
+                            out.append(Character.forDigit((c & 0xf0) >>> 4, 16));
+                            out.append(Character.forDigit(c & 0xf, 16));
+                        } else {
+                            out.append(c);
+                        }
+                    }
+                    out.append('"');
+                }
+                case Number number -> out.append(number.toString());
+                case Map<?, ?> map -> {
+                    out.append('{');
+                    boolean first = true;
+                    for (var entry : map.entrySet()) {
+                        if (!first) out.append(',');
+                        first = false;
+                        write(out, entry.getKey());
+                        out.append(':');
+                        write(out, entry.getValue());
+                    }
+                    out.append('}');
+                }
+                case Collection<?> coll -> {
+                    out.append('[');
+                    boolean first = true;
+                    for (Object o : coll) {
+                        if (!first) out.append(',');
+                        first = false;
+                        write(out, o);
+                    }
+                    out.append(']');
+                }
+                default -> throw new IllegalArgumentException("unsupported JSON type: " + value.getClass());
+            }
+        }
+
+        private static class Parser {
+            private final Reader reader;
+            private int peek = -2;
+
+            Parser(Reader reader) {
+                this.reader = reader;
+            }
+
+            private int peek() throws IOException {
+                if (peek == -2) peek = reader.read();
+                return peek;
+            }
+
+            private int next() throws IOException {
+                int c = peek();
+                peek = -2;
+                return c;
+            }
+
+            private int look() throws IOException {
+                int c = peek();
+                while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    c = reader.read();
+                }
+                peek = c;
+                return c;
+            }
+
+            private void consume(int c) throws IOException {
+                if (next() != c) throw new IOException("Expected '" + (char) c + "'");
+            }
+
+            Object value() throws IOException {
+                return switch (look()) {
+                    case '"' -> string();
+                    case '{' -> object();
+                    case '[' -> array();
+                    case 't' -> literal("true", true);
+                    case 'f' -> literal("false", false);
+                    case 'n' -> literal("null", null);
+                    case '-', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> number();
+                    case -1 -> throw new EOFException();
+                    default -> throw new IOException("Unexpected character");
+                };
+            }
+
+            private Object number() throws IOException {
+                StringBuilder buffer = new StringBuilder();
+                boolean dbl = false;
+                while (true) {
+                    int c = peek();
+                    if (c == 'e' || c == 'E' || c == '.') {
+                        dbl = true;
+                    } else if ((c < '0' || c > '9') && c != '-' && c != '+') {
+                        try {
+                            if (dbl) return Double.parseDouble(buffer.toString());
+                            return Long.parseLong(buffer.toString());
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Invalid number: " + buffer);
+                        }
+                    }
+                    buffer.append((char) next());
+                }
+            }
+
+            private Object literal(String s, Boolean value) throws IOException {
+                for (int i = 0; i < s.length(); i++) {
+                    if (next() != s.charAt(i)) throw new IOException("Expected '" + s + "'");
+                }
+                return value;
+            }
+
+            private Object array() throws IOException {
+                consume('[');
+                Collection<Object> list = new ArrayList<>();
+                if (look() != ']') {
+                    while (true) {
+                        list.add(value());
+                        if (look() == ']') break;
+                        consume(',');
+                    }
+                }
+                consume(']');
+                return list;
+            }
+
+            private Object object() throws IOException {
+                consume('{');
+                Map<String, Object> map = new LinkedHashMap<>();
+                if (look() != '}') {
+                    while (true) {
+                        String key = string();
+                        consume(':');
+                        map.put(key, value());
+                        if (look() == '}') break;
+                        consume(',');
+                        look();
+                    }
+                }
+                consume('}');
+                return map;
+            }
+
+            private String string() throws IOException {
+                consume('"');
+                StringBuilder sb = new StringBuilder();
+                while (true) {
+                    int c = next();
+                    if (c < 0) throw new EOFException("Unterminated JSON string");
+                    if (c == '"') return sb.toString();
+                    if (c != '\\') {
+                        sb.append((char) c);
+                        continue;
+                    }
+                    c = next();
+                    sb.append(switch (c) {
+                        case '"', '\\', '/' -> (char) c;
+                        case 'b' -> '\b';
+                        case 'f' -> '\f';
+                        case 'n' -> '\n';
+                        case 'r' -> '\r';
+                        case 't' -> '\t';
+                        case 'u' -> {
+                            int x = 0;
+                            for (int i = 0; i < 4; i++) {
+                                c = next();
+                                int digit = Character.digit(c, 16);
+                                if (digit < 0) throw new IOException("Invalid hex digit in unicode escape: " + (char) c);
+                                x = (x << 4) + digit;
+                            }
+                            yield (char) x;
+                        }
+                        default -> throw new IOException("Invalid escape character: \\" + (char) c);
+                    });
+                }
+            }
+        }
+    }
+}
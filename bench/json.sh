@@ -0,0 +1,14 @@
+#!/bin/sh
+#
+# Compares the streaming JSON parser and writer with the previous implementation.
+#
+# Usage: bench/json.sh [rounds] [megabytes]
+# Run from the corvoid checkout after building target/classes.
+
+set -eu
+BASE="$(dirname "$(dirname "$(realpath "$0")")")"
+TMP="$(mktemp -d)"
+trap 'rm -rf "$TMP"' EXIT
+
+javac -d "$TMP" -cp "$BASE/target/classes" "$BASE/bench/JsonBench.java"
+java -Xmx2g -cp "$BASE/target/classes:$TMP" corvoid.JsonBench "$@"
@@ -0,0 +1,34 @@
+#!/bin/sh
+#
+# Compares packaging time and class loading cost of flattened and nested uberjars.
+#
+# Usage: bench/nested.sh [rounds]
+# Runs in the current directory, which should be a project with a main class whose
+# dependencies are already cached.
+
+set -eu
+BASE="$(dirname "$(dirname "$(realpath "$0")")")"
+ROUNDS="${1:-20}"
+TMP="$(mktemp -d)"
+trap 'rm -rf "$TMP"' EXIT
+
+now() {
+    date +%s%N
+}
+
+"$BASE/bin/corvoid" compile > /dev/null
+rm -f target/*-standalone.jar target/*-standalone.jar.layout
+
+start=$(now)
+"$BASE/bin/corvoid" uberjar > /dev/null
+flat_ms=$(( ($(now) - start) / 1000000 ))
+mv target/*-standalone.jar "$TMP/flat.jar"
+rm -f target/*-standalone.jar.layout
+
+start=$(now)
+"$BASE/bin/corvoid" uberjar --nested > /dev/null
+nested_ms=$(( ($(now) - start) / 1000000 ))
+mv target/*-standalone.jar "$TMP/nested.jar"
+
+echo "packaging: flat ${flat_ms} ms, nested ${nested_ms} ms"
+java -cp "$BASE/target/classes" "$BASE/bench/ClassLoading.java" "$TMP/flat.jar" "$TMP/nested.jar" "$ROUNDS"
@@ -0,0 +1,33 @@
+#!/bin/sh
+#
+# Compares bin/corvoid startup with and without its class data sharing archive.
+#
+# Usage: bench/startup.sh [runs] [command...]
+# Runs in the current directory, e.g. from a project whose dependencies are
+# already cached. Defaults to 20 runs of "corvoid classpath".
+
+set -eu
+BASE="$(dirname "$(dirname "$(realpath "$0")")")"
+RUNS="${1:-20}"
+[ $# -gt 0 ] && shift
+[ $# -eq 0 ] && set -- classpath
+
+now() {
+    date +%s%N
+}
+
+measure() {
+    # warm up the page cache and create the archive if needed
+    "$BASE/bin/corvoid" "$@" > /dev/null
+    start=$(now)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        "$BASE/bin/corvoid" "$@" > /dev/null
+        i=$((i + 1))
+    done
+    echo $(( ($(now) - start) / RUNS / 1000000 ))
+}
+
+without=$(CORVOID_NO_CDS=1 measure "$@")
+with=$(measure "$@")
+echo "corvoid $*: ${without} ms without archive, ${with} ms with archive (mean of $RUNS runs)"
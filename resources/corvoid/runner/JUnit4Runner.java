@@ -0,0 +1,124 @@
+package corvoid.runner;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs JUnit 4 tests with JUnitCore, recording each test with {@link Results}.
+ * <p>
+ * Usage: JUnit4Runner [--results file] [--reports-dir dir] (--select-class name)...
+ */
+public class JUnit4Runner {
+	public static void main(String[] args) throws Exception {
+		System.exit(run(System.out, args));
+	}
+
+	public static int run(PrintStream console, String[] args) throws Exception {
+		Results.Options options = Results.Options.parse(args);
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		List<Class<?>> classes = new ArrayList<>();
+		for (String className : options.classes) {
+			Class<?> c = Class.forName(className, false, loader);
+			if (isTestClass(c)) {
+				classes.add(c);
+			}
+		}
+
+		Results results = new Results(console);
+		JUnitCore core = new JUnitCore();
+		core.addListener(new Listener(results));
+		results.captureOutput();
+		try {
+			core.run(classes.toArray(new Class<?>[0]));
+		} finally {
+			results.restoreOutput();
+		}
+		return results.finish(options);
+	}
+
+	/**
+	 * Corvoid passes every class in the test output directory, so skip helpers that
+	 * JUnitCore would otherwise report as having no runnable methods.
+	 */
+	private static boolean isTestClass(Class<?> c) {
+		if (Modifier.isAbstract(c.getModifiers()) || c.isInterface()) {
+			return false;
+		}
+		if (c.isAnnotationPresent(RunWith.class)) {
+			return true;
+		}
+		for (Method method : c.getMethods()) {
+			if (method.isAnnotationPresent(Test.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class Listener extends RunListener {
+		private final Results results;
+		private final Map<Description, Results.Test> running = new ConcurrentHashMap<>();
+
+		Listener(Results results) {
+			this.results = results;
+		}
+
+		@Override
+		public void testStarted(Description description) {
+			running.put(description, results.start(className(description), name(description)));
+		}
+
+		@Override
+		public void testFailure(Failure failure) {
+			Results.Test test = running.get(failure.getDescription());
+			if (test != null) {
+				results.fail(test, failure.getException());
+			} else {
+				// a failure outside of any test, e.g. in a @BeforeClass method
+				results.failedOutsideTest(className(failure.getDescription()), name(failure.getDescription()),
+						failure.getException());
+			}
+		}
+
+		@Override
+		public void testAssumptionFailure(Failure failure) {
+			Results.Test test = running.get(failure.getDescription());
+			if (test != null) {
+				results.skip(test, failure.getMessage());
+			}
+		}
+
+		@Override
+		public void testIgnored(Description description) {
+			results.skipped(className(description), name(description), "ignored");
+		}
+
+		@Override
+		public void testFinished(Description description) {
+			Results.Test test = running.remove(description);
+			if (test != null) {
+				results.finish(test);
+			}
+		}
+
+		private static String className(Description description) {
+			return description.getClassName() != null ? description.getClassName() : description.getDisplayName();
+		}
+
+		private static String name(Description description) {
+			return description.getMethodName() != null ? description.getMethodName() : description.getDisplayName();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package corvoid.runner;
+
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.discovery.ClassNameFilter;
+import org.junit.platform.engine.discovery.DiscoverySelectors;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs JUnit Platform tests through the Launcher API, recording each test with
+ * {@link Results}.
+ * <p>
+ * Usage: PlatformRunner [--results file] [--reports-dir dir] (--select-class name | --scan dir)...
+ */
+public class PlatformRunner {
+	public static void main(String[] args) throws Exception {
+		System.exit(run(System.out, args));
+	}
+
+	public static int run(PrintStream console, String[] args) throws Exception {
+		Results.Options options = Results.Options.parse(args);
+		LauncherDiscoveryRequestBuilder request = LauncherDiscoveryRequestBuilder.request();
+		if (options.scanRoots.isEmpty()) {
+			for (String className : options.classes) {
+				request.selectors(DiscoverySelectors.selectClass(className));
+			}
+		} else {
+			request.selectors(DiscoverySelectors.selectClasspathRoots(new HashSet<>(options.scanRoots)));
+			request.filters(ClassNameFilter.includeClassNamePatterns(ClassNameFilter.STANDARD_INCLUDE_PATTERN));
+		}
+		LauncherDiscoveryRequest discovery = request.build();
+
+		Results results = new Results(console);
+		Launcher launcher = LauncherFactory.create();
+		results.captureOutput();
+		try {
+			launcher.execute(discovery, new Listener(results));
+		} finally {
+			results.restoreOutput();
+		}
+		return results.finish(options);
+	}
+
+	private static class Listener implements TestExecutionListener {
+		private final Results results;
+		private final Map<TestIdentifier, Results.Test> running = new ConcurrentHashMap<>();
+		private TestPlan plan;
+
+		Listener(Results results) {
+			this.results = results;
+		}
+
+		@Override
+		public void testPlanExecutionStarted(TestPlan plan) {
+			this.plan = plan;
+		}
+
+		@Override
+		public void executionStarted(TestIdentifier id) {
+			if (id.isTest()) {
+				running.put(id, results.start(className(id), name(id)));
+			}
+		}
+
+		@Override
+		public void executionSkipped(TestIdentifier id, String reason) {
+			if (id.isTest()) {
+				results.skipped(className(id), name(id), reason);
+			} else {
+				for (TestIdentifier descendant : plan.getDescendants(id)) {
+					if (descendant.isTest()) {
+						results.skipped(className(descendant), name(descendant), reason);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void executionFinished(TestIdentifier id, TestExecutionResult result) {
+			Results.Test test = running.remove(id);
+			if (test != null) {
+				switch (result.getStatus()) {
+					case FAILED -> results.fail(test, result.getThrowable().orElseGet(AssertionError::new));
+					case ABORTED -> results.skip(test, result.getThrowable().map(Throwable::getMessage).orElse("aborted"));
+					default -> {}
+				}
+				results.finish(test);
+			} else if (result.getStatus() == TestExecutionResult.Status.FAILED && result.getThrowable().isPresent()) {
+				// a class or engine failed outside of any test, e.g. in a @BeforeAll method
+				String className = className(id);
+				results.failedOutsideTest(className != null ? className : id.getDisplayName(),
+						id.getDisplayName(), result.getThrowable().get());
+			}
+		}
+
+		/**
+		 * The name of the class that declares the test, or of the nearest enclosing class
+		 * for tests that aren't methods such as dynamic tests.
+		 */
+		private String className(TestIdentifier id) {
+			for (TestIdentifier current = id; current != null; current = plan.getParent(current).orElse(null)) {
+				TestSource source = current.getSource().orElse(null);
+				if (source instanceof MethodSource method) {
+					return method.getClassName();
+				} else if (source instanceof ClassSource c) {
+					return c.getClassName();
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * The test's display name, qualified by its parent's when the parent is a method
+		 * such as a parameterized or repeated test.
+		 */
+		private String name(TestIdentifier id) {
+			TestIdentifier parent = plan.getParent(id).orElse(null);
+			if (parent != null && parent.getSource().orElse(null) instanceof MethodSource) {
+				return parent.getDisplayName() + " " + id.getDisplayName();
+			}
+			return id.getDisplayName();
+		}
+	}
+}
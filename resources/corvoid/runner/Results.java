@@ -0,0 +1,368 @@
+package corvoid.runner;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Collects the outcome, duration and output of each test for corvoid's test runners,
+ * prints them as they happen and writes them as JSON and JUnit XML reports.
+ * <p>
+ * Corvoid compiles this against the project's test classpath, so it must only depend
+ * on the JDK.
+ */
+final class Results {
+	static final int MAX_OUTPUT = 64 * 1024;
+
+	static final class Test {
+		final String className;
+		final String name;
+		final long start = System.nanoTime();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		String status = "passed";
+		String message;
+		String type;
+		String trace;
+		long millis;
+
+		Test(String className, String name) {
+			this.className = className;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Command line options shared by the runners.
+	 */
+	static final class Options {
+		Path results;
+		Path reportsDir;
+		final List<String> classes = new ArrayList<>();
+		final List<Path> scanRoots = new ArrayList<>();
+
+		static Options parse(String[] args) {
+			Options options = new Options();
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "--results" -> options.results = Path.of(args[++i]);
+					case "--reports-dir" -> options.reportsDir = Path.of(args[++i]);
+					case "--select-class" -> options.classes.add(args[++i]);
+					case "--scan" -> options.scanRoots.add(Path.of(args[++i]));
+					default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+				}
+			}
+			return options;
+		}
+	}
+
+	private final PrintStream console;
+	private final long start = System.nanoTime();
+	private final Instant started = Instant.now();
+	private final List<Test> tests = new ArrayList<>();
+	private PrintStream originalOut;
+	private PrintStream originalErr;
+	private Test current;
+	private String lastClass;
+
+	Results(PrintStream console) {
+		this.console = console;
+	}
+
+	/**
+	 * Replaces System.out and System.err so that whatever is printed during a test is
+	 * recorded against it as well as shown.
+	 */
+	void captureOutput() {
+		originalOut = System.out;
+		originalErr = System.err;
+		PrintStream capture = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				write(new byte[]{(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				synchronized (Results.this) {
+					console.write(b, off, len);
+					if (current != null && current.output.size() < MAX_OUTPUT) {
+						current.output.write(b, off, Math.min(len, MAX_OUTPUT - current.output.size()));
+					}
+				}
+			}
+
+			@Override
+			public void flush() {
+				console.flush();
+			}
+		}, true);
+		System.setOut(capture);
+		System.setErr(capture);
+	}
+
+	void restoreOutput() {
+		System.setOut(originalOut);
+		System.setErr(originalErr);
+	}
+
+	synchronized Test start(String className, String name) {
+		if (!className.equals(lastClass)) {
+			console.println(className);
+			lastClass = className;
+		}
+		current = new Test(className, name);
+		return current;
+	}
+
+	synchronized void fail(Test test, Throwable t) {
+		test.status = t instanceof AssertionError ? "failed" : "error";
+		test.type = t.getClass().getName();
+		test.message = t.getMessage();
+		StringWriter trace = new StringWriter();
+		t.printStackTrace(new PrintWriter(trace));
+		test.trace = trace.toString();
+	}
+
+	synchronized void skip(Test test, String reason) {
+		test.status = "skipped";
+		test.message = reason;
+	}
+
+	synchronized void finish(Test test) {
+		test.millis = (System.nanoTime() - test.start) / 1_000_000;
+		tests.add(test);
+		if (current == test) {
+			current = null;
+		}
+		String outcome = switch (test.status) {
+			case "passed" -> test.millis + " ms";
+			case "skipped" -> "SKIPPED" + (test.message != null ? " (" + test.message + ")" : "");
+			default -> test.status.toUpperCase(Locale.ROOT) + " " + test.millis + " ms";
+		};
+		console.println("  " + test.name + " " + outcome);
+		if (test.trace != null) {
+			for (String line : trimTrace(test.trace)) {
+				console.println("      " + line);
+			}
+		}
+	}
+
+	void skipped(String className, String name, String reason) {
+		Test test = start(className, name);
+		skip(test, reason);
+		finish(test);
+	}
+
+	/**
+	 * Records a failure outside of any test, such as in a static initializer or a
+	 * before-all method, as an error.
+	 */
+	void failedOutsideTest(String className, String name, Throwable t) {
+		Test test = start(className, name);
+		fail(test, t);
+		finish(test);
+	}
+
+	/**
+	 * Prints the summary, writes the reports and returns the exit code.
+	 */
+	synchronized int finish(Options options) throws IOException {
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		int failed = 0;
+		int skipped = 0;
+		for (Test test : tests) {
+			if (test.status.equals("skipped")) {
+				skipped++;
+			} else if (!test.status.equals("passed")) {
+				failed++;
+			}
+		}
+		console.println();
+		console.println("Tests: " + tests.size() + " run, " + failed + " failed, " + skipped + " skipped in "
+				+ String.format("%.1f s", millis / 1000.0));
+		List<Test> slowest = new ArrayList<>(tests);
+		slowest.sort(Comparator.comparingLong((Test t) -> t.millis).reversed());
+		StringJoiner joiner = new StringJoiner(", ", "Slowest: ", "");
+		for (Test test : slowest.subList(0, Math.min(3, slowest.size()))) {
+			joiner.add(simpleName(test.className) + "." + test.name + " " + test.millis + " ms");
+		}
+		if (!slowest.isEmpty()) {
+			console.println(joiner);
+		}
+		for (Test test : tests) {
+			if (test.trace != null) {
+				console.println("Failed: " + test.className + " " + test.name);
+			}
+		}
+		console.flush();
+		if (options.results != null) {
+			writeJson(options.results, millis);
+		}
+		if (options.reportsDir != null) {
+			writeXml(options.reportsDir);
+		}
+		return failed > 0 ? 1 : 0;
+	}
+
+	private void writeJson(Path file, long millis) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		try (Writer out = Files.newBufferedWriter(file, UTF_8)) {
+			out.write("{\"started\":" + quote(started.toString()) + ",\"millis\":" + millis + ",\"tests\":[");
+			for (int i = 0; i < tests.size(); i++) {
+				Test test = tests.get(i);
+				out.write(i == 0 ? "\n" : ",\n");
+				out.write("{\"class\":" + quote(test.className) + ",\"name\":" + quote(test.name)
+						+ ",\"status\":" + quote(test.status) + ",\"millis\":" + test.millis);
+				if (test.message != null) {
+					out.write(",\"message\":" + quote(test.message));
+				}
+				if (test.trace != null) {
+					out.write(",\"trace\":" + quote(test.trace));
+				}
+				if (test.output.size() > 0) {
+					out.write(",\"output\":" + quote(test.output.toString(UTF_8)));
+				}
+				out.write("}");
+			}
+			out.write("]}\n");
+		}
+	}
+
+	/**
+	 * Writes one report per test class in the format popularised by Ant and Surefire.
+	 */
+	private void writeXml(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		Map<String, List<Test>> byClass = new TreeMap<>();
+		for (Test test : tests) {
+			byClass.computeIfAbsent(test.className, k -> new ArrayList<>()).add(test);
+		}
+		for (var entry : byClass.entrySet()) {
+			List<Test> classTests = entry.getValue();
+			long failures = classTests.stream().filter(t -> t.status.equals("failed")).count();
+			long errors = classTests.stream().filter(t -> t.status.equals("error")).count();
+			long skipped = classTests.stream().filter(t -> t.status.equals("skipped")).count();
+			long millis = classTests.stream().mapToLong(t -> t.millis).sum();
+			try (OutputStream out = Files.newOutputStream(dir.resolve("TEST-" + entry.getKey() + ".xml"))) {
+				XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+				xml.writeStartDocument("UTF-8", "1.0");
+				xml.writeCharacters("\n");
+				xml.writeStartElement("testsuite");
+				xml.writeAttribute("name", entry.getKey());
+				xml.writeAttribute("tests", Integer.toString(classTests.size()));
+				xml.writeAttribute("failures", Long.toString(failures));
+				xml.writeAttribute("errors", Long.toString(errors));
+				xml.writeAttribute("skipped", Long.toString(skipped));
+				xml.writeAttribute("time", seconds(millis));
+				xml.writeAttribute("timestamp", started.toString());
+				xml.writeCharacters("\n");
+				for (Test test : classTests) {
+					xml.writeCharacters("  ");
+					xml.writeStartElement("testcase");
+					xml.writeAttribute("name", test.name);
+					xml.writeAttribute("classname", test.className);
+					xml.writeAttribute("time", seconds(test.millis));
+					switch (test.status) {
+						case "failed", "error" -> {
+							xml.writeStartElement(test.status.equals("failed") ? "failure" : "error");
+							if (test.message != null) {
+								xml.writeAttribute("message", clean(test.message));
+							}
+							xml.writeAttribute("type", test.type);
+							xml.writeCharacters(clean(test.trace));
+							xml.writeEndElement();
+						}
+						case "skipped" -> {
+							xml.writeStartElement("skipped");
+							if (test.message != null) {
+								xml.writeAttribute("message", clean(test.message));
+							}
+							xml.writeEndElement();
+						}
+						default -> {}
+					}
+					if (test.output.size() > 0) {
+						xml.writeStartElement("system-out");
+						xml.writeCharacters(clean(test.output.toString(UTF_8)));
+						xml.writeEndElement();
+					}
+					xml.writeEndElement();
+					xml.writeCharacters("\n");
+				}
+				xml.writeEndElement();
+				xml.writeEndDocument();
+				xml.close();
+			} catch (XMLStreamException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Collapses each run of the test framework's and reflection's stack frames to "...".
+	 */
+	private static List<String> trimTrace(String trace) {
+		List<String> lines = new ArrayList<>();
+		for (String line : trace.split("\n")) {
+			String trimmed = line.trim();
+			if (trimmed.startsWith("at org.junit.") || trimmed.startsWith("at java.base/jdk.internal.reflect.")
+					|| trimmed.startsWith("at java.base/java.lang.reflect.")) {
+				if (!lines.isEmpty() && !lines.get(lines.size() - 1).equals("...")) {
+					lines.add("...");
+				}
+				continue;
+			}
+			lines.add(trimmed.startsWith("at ") ? "  " + trimmed : trimmed);
+		}
+		return lines;
+	}
+
+	private static String simpleName(String className) {
+		return className.substring(className.lastIndexOf('.') + 1);
+	}
+
+	private static String seconds(long millis) {
+		return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+	}
+
+	/**
+	 * Removes characters XML can't represent.
+	 */
+	private static String clean(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			sb.append(c < 0x20 && c != '\t' && c != '\n' && c != '\r' ? '?' : c);
+		}
+		return sb.toString();
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"' -> sb.append("\\\"");
+				case '\\' -> sb.append("\\\\");
+				case '\n' -> sb.append("\\n");
+				case '\r' -> sb.append("\\r");
+				case '\t' -> sb.append("\\t");
+				default -> {
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
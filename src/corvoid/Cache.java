@@ -2,10 +2,7 @@ package corvoid;
 
 import corvoid.pom.Model;
 
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
-import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.io.UncheckedIOException;
 import java.net.URI;
@@ -16,6 +13,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
@@ -25,6 +24,11 @@ import java.util.concurrent.atomic.AtomicReference;
  * Cache for storing and retrieving artifacts from remote repositories.
  */
 class Cache {
+	/** How long downloaded metadata is used before it's fetched again. */
+	static final long METADATA_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+	/** Limits how many metadata requests {@link #prefetchMetadata} has in flight at once. */
+	static final int MAX_CONCURRENT_FETCHES = 32;
+
 	private final Path root;
 	private volatile HttpClient httpClient;
 	private final Map<Path, CompletableFuture<Path>> pendingDownloads = new ConcurrentHashMap<>();
@@ -36,6 +40,10 @@ class Cache {
 		this.root = root;
     }
 
+	Path root() {
+		return root;
+	}
+
 	private HttpClient httpClient() {
 		if (httpClient == null) {
 			synchronized (this) {
@@ -80,11 +88,42 @@ class Cache {
 
 	public Path fetchMetadata(Coord coord) throws IOException {
 		Path path = metadataPath(coord);
-		if (!Files.exists(path) || System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis() > 24 * 60 * 60 * 1000) {
+		if (!isFresh(path)) {
 			return downloadIfMissing(path, metadataUri(coord), true);
 		}
 		return path;
 	}
+
+	/**
+	 * Fetches the metadata of all the given artifacts that isn't already cached and
+	 * fresh, concurrently, so that later calls such as {@link #latestVersion} read it
+	 * from disk. Failures are left for those calls to report.
+	 */
+	void prefetchMetadata(Collection<Coord> coords) throws IOException {
+		Semaphore permits = new Semaphore(MAX_CONCURRENT_FETCHES);
+		List<CompletableFuture<Path>> futures = new ArrayList<>();
+		try {
+			for (Coord coord : new LinkedHashSet<>(coords)) {
+				Path path = metadataPath(coord);
+				if (isFresh(path)) {
+					continue;
+				}
+				permits.acquire();
+				futures.add(download(path, metadataUri(coord), true).whenComplete((p, e) -> permits.release()));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted fetching metadata");
+		} catch (ExecutionException e) {
+			// unreachable as failures are ignored
+		}
+	}
+
+	private static boolean isFresh(Path metadata) throws IOException {
+		return Files.exists(metadata) && System.currentTimeMillis()
+				- Files.getLastModifiedTime(metadata).toMillis() <= METADATA_MAX_AGE_MILLIS;
+	}
 	
 	public Path fetch(Coord coord, String version, String classifier, String type) throws IOException {
 		return downloadIfMissing(artifactPath(coord, version, classifier, type), artifactUri(coord, version, type), false);
@@ -94,7 +133,18 @@ class Cache {
 		if (Files.exists(path) && !isMetadata) {
 			return path;
 		}
-		CompletableFuture<Path> future = pendingDownloads.computeIfAbsent(path, p -> {
+		try {
+			return download(path, uri, isMetadata).get();
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Starts downloading uri to path, or joins a download of it already in progress.
+	 */
+	private CompletableFuture<Path> download(Path path, URI uri, boolean isMetadata) {
+		return pendingDownloads.computeIfAbsent(path, p -> {
 			try {
 				Files.createDirectories(path.getParent());
 			} catch (IOException e) {
@@ -126,38 +176,23 @@ class Cache {
 						}
 					});
 		});
-		try {
-			return future.get();
-		} catch (Exception e) {
-			throw new IOException(e);
-		}
 	}
 	
-	String latestVersion(Coord coord) throws IOException, XMLStreamException {
+	/**
+	 * Returns the index of the versions in an artifact's metadata, fetching the metadata
+	 * if it isn't cached and fresh, or null if the artifact has no metadata.
+	 */
+	VersionIndex versionIndex(Coord coord) throws IOException {
 		Path path = fetchMetadata(coord);
 		if (!Files.exists(path)) {
 			return null;
 		}
-		List<String> versions = new ArrayList<>();
-		try (InputStream in = Files.newInputStream(path)) {
-			XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(new StreamSource(in));
-			while (xml.hasNext()) {
-				int event = xml.next();
-				if (event == XMLStreamReader.START_ELEMENT && "version".equals(xml.getLocalName())) {
-					versions.add(xml.getElementText());
-				}
-			}
-		}
-		Version latest = null;
-		for (String v : versions) {
-			Version version = new Version(v);
-			if (version.isStable()) {
-				if (latest == null || version.compareTo(latest) > 0) {
-					latest = version;
-				}
-			}
-		}
-		return latest == null ? null : latest.toString();
+		return VersionIndex.load(path);
+	}
+
+	String latestVersion(Coord coord) throws IOException {
+		VersionIndex index = versionIndex(coord);
+		return index == null ? null : index.latestStable();
 	}
 
 	Model readProject(Coord coord, String version) throws XMLStreamException, IOException {
@@ -0,0 +1,273 @@
+package corvoid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Maintains AppCDS archives of dependency classes for the JVMs we launch.
+ * <p>
+ * The first launch over a given classpath records the classes it loads, the next one
+ * dumps them into an archive which every launch after that maps in. Archives are
+ * keyed by a hash of the dependency jars (including their sizes and timestamps) so
+ * they're regenerated whenever the resolved classpath changes.
+ * <p>
+ * The JVM can't archive classes from non-empty directories and only uses an archive
+ * when its classpath starts with the one the archive was dumped with, so dependency
+ * jars are placed ahead of class directories while an archive is in use. That's only
+ * done when no class directory has a class or resource that's also in a jar, so the
+ * reordering never changes which copy wins; otherwise the launch goes without an
+ * archive. Set CORVOID_NO_CDS to turn this off.
+ * <p>
+ * The options for each archive are worked out once per instance, so JVMs started
+ * together (such as test forks) should share one: only the first records a class list
+ * and the rest go without, rather than dumping a list that's still being written.
+ * <p>
+ * Finding the java runtime and checking for shadowed entries are only done again when
+ * the jars, the PATH or the times of the class directories change, which corvoid
+ * updates whenever it compiles into them; the results are kept in name.launch.
+ */
+class ClassDataSharing {
+	private final Path dir;
+	private final boolean enabled = System.getenv("CORVOID_NO_CDS") == null;
+	private final Map<String, List<String>> decided = new HashMap<>();
+
+	ClassDataSharing(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Builds the start of a java command line (everything before the main class) for the
+	 * given classpath.
+	 *
+	 * @param name         separates archives for different uses, e.g. "run" and "test"
+	 * @param directories  class directories that take precedence over the dependencies
+	 * @param dependencies resolved dependency classpath
+	 */
+	List<String> javaCommand(String name, List<Path> directories, List<Path> dependencies) throws IOException {
+		List<Path> jars = new ArrayList<>();
+		List<Path> rest = new ArrayList<>();
+		for (Path dependency : dependencies) {
+			(Files.isRegularFile(dependency) ? jars : rest).add(dependency);
+		}
+
+		List<String> command = new ArrayList<>();
+		command.add("java");
+		List<Path> classpath = new ArrayList<>();
+		List<Path> shadowing = new ArrayList<>(directories);
+		shadowing.addAll(rest);
+		List<String> options = List.of();
+		if (enabled && !jars.isEmpty()) {
+			String jarStamps = stamps(jars);
+			Launch launch = launch(name, jarStamps, jars, shadowing);
+			if (!launch.shadows()) {
+				options = options(name, name + "-" + hash(launch.runtime() + jarStamps), jars);
+			}
+		}
+		if (!options.isEmpty()) {
+			command.addAll(options);
+			classpath.addAll(jars);
+			classpath.addAll(directories);
+			classpath.addAll(rest);
+		} else {
+			classpath.addAll(directories);
+			classpath.addAll(dependencies);
+		}
+		command.add("-cp");
+		command.add(join(classpath));
+		return command;
+	}
+
+	/**
+	 * What's costly to find out about a launch: the runtime "java" on the PATH is, and
+	 * whether the class directories shadow any jar entry.
+	 */
+	private record Launch(String runtime, boolean shadows) {}
+
+	private Launch launch(String name, String jarStamps, List<Path> jars, List<Path> directories) throws IOException {
+		StringBuilder stamp = new StringBuilder(System.getenv().getOrDefault("PATH", "")).append(jarStamps);
+		for (Path directory : directories) {
+			stamp.append('\n').append(directory).append(' ')
+					.append(Files.exists(directory) ? Files.getLastModifiedTime(directory).toMillis() : -1);
+		}
+		String key = hash(stamp.toString());
+		Path file = dir.resolve(name + ".launch");
+		Properties saved = new Properties();
+		if (Files.exists(file)) {
+			try (Reader in = Files.newBufferedReader(file)) {
+				saved.load(in);
+			} catch (IOException | IllegalArgumentException e) {
+				saved.clear();
+			}
+		}
+		if (key.equals(saved.getProperty("key")) && saved.getProperty("runtime") != null) {
+			return new Launch(saved.getProperty("runtime"), Boolean.parseBoolean(saved.getProperty("shadows")));
+		}
+
+		Launch launch = new Launch(hash(javaRuntime()), shadows(directories, jars));
+		saved.setProperty("key", key);
+		saved.setProperty("runtime", launch.runtime());
+		saved.setProperty("shadows", String.valueOf(launch.shadows()));
+		Files.createDirectories(dir);
+		try (Writer out = Files.newBufferedWriter(file)) {
+			saved.store(out, null);
+		}
+		return launch;
+	}
+
+	private List<String> options(String name, String key, List<Path> jars) throws IOException {
+		List<String> options = decided.get(key);
+		if (options == null) {
+			options = decide(name, key, jars);
+			// only the first JVM records a class list, the archive is dumped from it next time
+			boolean recording = options.stream().anyMatch(option -> option.startsWith("-XX:DumpLoadedClassList="));
+			decided.put(key, recording ? List.of() : options);
+		}
+		return options;
+	}
+
+	private List<String> decide(String name, String key, List<Path> jars) throws IOException {
+		Path archive = dir.resolve(key + ".jsa");
+		Path classList = dir.resolve(key + ".classlist");
+		Path disabled = dir.resolve(key + ".disabled");
+
+		if (Files.exists(disabled)) {
+			return List.of();
+		}
+		if (!Files.exists(archive) && Files.exists(classList)) {
+			dump(classList, archive, jars, disabled);
+		}
+		if (Files.exists(archive)) {
+			return List.of("-XX:SharedArchiveFile=" + archive, "-Xshare:auto", "-Xlog:cds=off", "-Xlog:class+path=off");
+		}
+
+		// first launch for this classpath: throw away stale archives and record a class list
+		Files.createDirectories(dir);
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, name + "-*")) {
+			for (Path file : stream) {
+				Files.delete(file);
+			}
+		}
+		return List.of("-XX:DumpLoadedClassList=" + classList);
+	}
+
+	/**
+	 * Whether any of the directories has an entry that's also in one of the jars, in
+	 * which case putting the jars first would change which of them is loaded.
+	 */
+	static boolean shadows(List<Path> directories, List<Path> jars) throws IOException {
+		Set<String> names = new HashSet<>();
+		for (Path directory : directories) {
+			if (!Files.isDirectory(directory)) continue;
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.filter(Files::isRegularFile)
+						.forEach(file -> names.add(directory.relativize(file).toString().replace('\\', '/')));
+			}
+		}
+		if (names.isEmpty()) return false;
+		for (Path jar : jars) {
+			try (ZipFile zip = new ZipFile(jar.toFile())) {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (!entry.isDirectory() && names.contains(entry.getName())) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void dump(Path classList, Path archive, List<Path> jars, Path disabled) throws IOException {
+		System.out.println("Generating class data sharing archive");
+		List<String> command = List.of("java", "-Xshare:dump", "-Xlog:cds=off",
+				"-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + archive,
+				"-cp", join(jars));
+		int status;
+		try {
+			status = new ProcessBuilder(command)
+					.redirectOutput(Redirect.DISCARD)
+					.redirectError(Redirect.DISCARD)
+					.start().waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			status = -1;
+		}
+		Corvoid.clearLine();
+		if (status != 0 || !Files.exists(archive)) {
+			// don't pay for a failed dump on every launch
+			Files.deleteIfExists(archive);
+			Files.writeString(disabled, "dump failed: " + status + "\n");
+		}
+	}
+
+	static String join(List<Path> paths) {
+		List<String> strings = new ArrayList<>(paths.size());
+		for (Path path : paths) {
+			strings.add(path.toString());
+		}
+		return String.join(":", strings);
+	}
+
+	/**
+	 * The jars with their sizes and timestamps, which archives are keyed by.
+	 */
+	static String stamps(List<Path> jars) throws IOException {
+		StringBuilder stamps = new StringBuilder();
+		for (Path jar : jars) {
+			stamps.append('\n').append(jar).append('\n').append(Files.size(jar))
+					.append('\n').append(Files.getLastModifiedTime(jar).toMillis());
+		}
+		return stamps.toString();
+	}
+
+	static String hash(String text) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(UTF_8));
+			return HexFormat.of().formatHex(digest, 0, 8);
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Identifies the JVM that "java" on the PATH runs, which dumps and maps the archives,
+	 * by its installation and the runtime version in its release file.
+	 */
+	static String javaRuntime() throws IOException {
+		String path = System.getenv("PATH");
+		if (path != null) {
+			for (String entry : path.split(File.pathSeparator)) {
+				if (entry.isEmpty()) continue;
+				Path java = Path.of(entry, "java");
+				if (Files.isRegularFile(java) && Files.isExecutable(java)) {
+					Path home = java.toRealPath().getParent().getParent();
+					Path release = home.resolve("release");
+					return home + "\n" + (Files.exists(release) ? Files.readString(release)
+							: Files.getLastModifiedTime(java.toRealPath()).toMillis());
+				}
+			}
+		}
+		return "";
+	}
+}
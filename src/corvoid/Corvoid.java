@@ -21,10 +21,11 @@ import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -32,13 +33,15 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.StandardWatchEventKinds.*;
 import static java.util.Objects.requireNonNull;
 
 public class Corvoid {
-	
+	/** How long the local search index is used before the repository is checked for changes. */
+	static final long SEARCH_INDEX_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
 	final Path projectRoot;
 	private final Workspace workspace;
+	private BuildSession session;
 
 	public Corvoid() {
 		this(Path.of(System.getProperty("user.dir")), null);
@@ -239,22 +242,93 @@ public class Corvoid {
 		}
 	}
 	
+	/**
+	 * The project's resolved dependencies, resolved at most once per command.
+	 */
 	public DependencyTree tree() throws XMLStreamException, IOException {
-		Model project = parseModel();
-		Path currentRoot = projectRoot;
-		if (project.getParent() != null && project.getParent().getArtifactId() != null) {
-			String relativePath = project.getParent().getRelativePath();
-			if (relativePath == null) relativePath = "../pom.xml";
-			Path parentPom = projectRoot.resolve(relativePath).normalize();
-			Model parent = Model.read(parentPom);
-			project = new Model(parent, project);
-			currentRoot = parentPom.getParent();
-		}
-		workspace.scanModules(currentRoot);
-		Interpolator.interpolate(project);
-		DependencyTree tree = new DependencyTree(workspace);
-		tree.resolve(project);
-		return tree;
+		return session().tree();
+	}
+
+	private BuildSession session() {
+		if (session == null) {
+			session = new BuildSession(false);
+		}
+		return session;
+	}
+
+	/**
+	 * The state of one command invocation: the effective project model, its resolved
+	 * dependencies and the compiler options derived from them. Each is worked out on
+	 * first use and shared by every step of the command, so a command that compiles,
+	 * packages and lists the classpath still only resolves the graph once.
+	 */
+	private class BuildSession {
+		private final boolean tests;
+		private Model project;
+		private DependencyTree tree;
+		private boolean fetched;
+		private CompilerOptions main, test;
+
+		/**
+		 * @param tests whether the command runs tests, so the JUnit console launcher
+		 *              needs to be resolved along with everything else
+		 */
+		BuildSession(boolean tests) {
+			this.tests = tests;
+		}
+
+		/**
+		 * pom.xml merged with its parent and the super POM, and interpolated.
+		 */
+		Model project() throws XMLStreamException, IOException {
+			if (project == null) {
+				Model model = parseModel();
+				Path currentRoot = projectRoot;
+				if (model.getParent() != null && model.getParent().getArtifactId() != null) {
+					String relativePath = model.getParent().getRelativePath();
+					if (relativePath == null) relativePath = "../pom.xml";
+					Path parentPom = projectRoot.resolve(relativePath).normalize();
+					model = new Model(Model.read(parentPom), model);
+					currentRoot = parentPom.getParent();
+				}
+				workspace.scanModules(currentRoot);
+				model = new Model(superPom(), model);
+				Interpolator.interpolate(model);
+				if (tests) {
+					injectJUnit5ConsoleRunner(model);
+				}
+				project = model;
+			}
+			return project;
+		}
+
+		DependencyTree tree() throws XMLStreamException, IOException {
+			if (tree == null) {
+				tree = new DependencyTree(workspace);
+				tree.resolve(project());
+			}
+			return tree;
+		}
+
+		/**
+		 * The resolved dependencies with all their artifacts fetched.
+		 */
+		DependencyTree fetchedTree() throws XMLStreamException, IOException {
+			if (!fetched) {
+				tree().fetchDependencies();
+				fetched = true;
+			}
+			return tree;
+		}
+
+		CompilerOptions compilerOptions(boolean forTests) throws XMLStreamException, IOException {
+			if (forTests) {
+				if (test == null) test = buildCompilerOptions(fetchedTree(), true);
+				return test;
+			}
+			if (main == null) main = buildCompilerOptions(fetchedTree(), false);
+			return main;
+		}
 	}
 
 	public Model parseModel() throws XMLStreamException, FactoryConfigurationError, IOException {
@@ -266,75 +340,188 @@ public class Corvoid {
 		System.out.println("Fetch dependencies and build Java projects");
 		System.out.println("\nCommands:");
 		System.out.println("  add        - add a dependency to pom.xml");
-		System.out.println("  classpath  - print the project's classpath");
+		System.out.println("  classpath  - print the project's classpath (--scope, --json)");
 		System.out.println("  clean      - delete the build target directory");
 		System.out.println("  compile    - compile the project");
 		System.out.println("  deps       - fetch dependencies");
+		System.out.println("  image      - export an OCI container image with layered dependencies");
 		System.out.println("  jar        - build a jar file of classes and resources");
 		System.out.println("  lint       - check for common problems");
 		System.out.println("  new        - create a new project");
-		System.out.println("  outdated   - check for newer versions of dependencies");
-		System.out.println("  run        - run a class");
-		System.out.println("  search     - search Maven Central for artifacts");
-		System.out.println("  test       - run unit tests");
-		System.out.println("  tree [-s]  - print a dependency tree");
-		System.out.println("  uberjar    - build a standalone jar file");
+		System.out.println("  outdated   - check for newer versions of dependencies (--all for transitives)");
+		System.out.println("  run        - run a class (--watch to hot reload on changes)");
+		System.out.println("  search     - search the local repository or Maven Central for artifacts");
+		System.out.println("  test       - run unit tests (-j N forks, --affected, --keep-warm)");
+		System.out.println("  tree [-s]  - print a dependency tree (--json for tooling)");
+		System.out.println("  uberjar    - build a standalone jar file (--nested to keep jars intact)");
 		System.out.println("  update     - update dependencies to latest stable versions");
-		System.out.println("  watch      - watch for changes and recompile when seen");
+		System.out.println("  watch [-t] - watch for changes and recompile when seen");
 		System.exit(1);
 	}
 	
 	public void command(String[] args) throws XMLStreamException, IOException, InterruptedException {
 		if (args.length == 0)
 			usage();
+		session = new BuildSession(args[0].equals("test"));
 		switch (args[0]) {
 			case "add": add(args[1], args[2]); break;
 			case "new": newProject(args[1]); break;
 			case "clean": clean(); break;
-			case "classpath": System.out.println(tree().classpath()); break;
-			case "deps": tree().fetchDependencies(); break;
-			case "search": search(args[1]); break;
+			case "classpath": classpath(args); break;
+			case "deps": session().fetchedTree(); break;
+			case "search": search(args); break;
 			case "tree": printTree(args); break;
 			case "compile": compile(); break;
 			case "test": test(args); break;
 			case "run": run(args); break;
 			case "jar": jar(); break;
-			case "uberjar": uberjar(); break;
-			case "watch": watch(); break;
+			case "image": image(args); break;
+			case "uberjar": uberjar(args); break;
+			case "watch": watch(args); break;
 			case "lint": lint(); break;
-			case "outdated": outdated(); break;
+			case "outdated": outdated(args); break;
 			case "update": update(args); break;
 			default: usage();
 		}
 	}
 
 	private void printTree(String[] args) throws XMLStreamException, IOException {
-		boolean sort = false, showGroupId = false;
+		boolean sort = false, showGroupId = false, json = false;
 		for (int i = 1; i < args.length; i++) {
             switch (args[i]) {
                 case "-s" -> sort = true;
 				case "-g" -> showGroupId = true;
+				case "--json" -> json = true;
                 default -> {
 					System.err.println("Unknown option: " + args[i]);
 					System.err.println("""
-							Usage: corvoid tree [-s] [-g]
+							Usage: corvoid tree [-s] [-g] [--json]
 							Print a dependency tree
 							
-							-s Sort by size
-							-g Show group IDs
+							-s     Sort by size
+							-g     Show group IDs
+							--json Print the resolved graph as JSON
 							""");
                     System.exit(1);
                 }
             }
 		}
-		tree().print(System.out, sort, showGroupId);
+		if (json) {
+			writeJson(tree()::writeJson);
+		} else {
+			tree().print(System.out, sort, showGroupId);
+		}
+	}
+
+	private void classpath(String[] args) throws XMLStreamException, IOException {
+		boolean json = false;
+		DependencyTree.Classpath classpath = DependencyTree.Classpath.TEST_RUNTIME;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--json")) {
+				json = true;
+			} else if (args[i].equals("--scope") && i + 1 < args.length) {
+				switch (args[++i]) {
+					case "compile" -> classpath = DependencyTree.Classpath.COMPILE;
+					case "runtime" -> classpath = DependencyTree.Classpath.RUNTIME;
+					case "test" -> classpath = DependencyTree.Classpath.TEST_RUNTIME;
+					default -> classpathUsage();
+				}
+			} else {
+				classpathUsage();
+			}
+		}
+		DependencyTree tree = tree();
+		if (json) {
+			DependencyTree.Classpath finalClasspath = classpath;
+			writeJson(out -> tree.writeClasspathJson(out, finalClasspath));
+		} else {
+			System.out.println(tree.classpath(classpath));
+		}
+	}
+
+	private static void classpathUsage() {
+		System.err.println("Usage: corvoid classpath [--scope compile|runtime|test] [--json]");
+		System.exit(1);
+	}
+
+	private interface JsonSource {
+		void writeJson(Appendable out) throws IOException;
+	}
+
+	private static void writeJson(JsonSource source) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, UTF_8), 65536);
+		source.writeJson(out);
+		out.write('\n');
+		out.flush();
+	}
+
+	private void search(String[] args) throws IOException {
+		boolean local = false;
+		boolean remote = false;
+		boolean reindex = false;
+		List<String> words = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "--local" -> local = true;
+				case "--remote" -> remote = true;
+				case "--reindex" -> reindex = true;
+				default -> words.add(args[i]);
+			}
+		}
+		if (local && remote || words.isEmpty() && !reindex) {
+			System.err.println("Usage: corvoid search [--local | --remote] [--reindex] <query>");
+			System.exit(1);
+		}
+		String query = String.join(" ", words);
+		if (!remote) {
+			Path repository = workspace.getCache().root();
+			SearchIndex index = SearchIndex.open(repository, SEARCH_INDEX_MAX_AGE_MILLIS, reindex);
+			if (words.isEmpty()) {
+				System.out.println(index.artifacts().size() + " artifacts indexed");
+				return;
+			}
+			List<SearchIndex.Artifact> results = index.search(query, 10);
+			for (SearchIndex.Artifact artifact : results) {
+				printSearchResult(artifact.groupId(), artifact.artifactId(), artifact.version(), null,
+						artifact.description());
+			}
+			if (!results.isEmpty() || local) {
+				return;
+			}
+		}
+		search(query);
+	}
+
+	private static void printSearchResult(String groupId, String artifactId, String version, LocalDate date,
+										  String description) {
+		var id = String.format("\033[90m%s:\033[1;36m%s\033[0m \033[1;33m%s\033[0m", groupId, artifactId, version);
+		if (date != null) {
+			id += String.format(" \033[90m%s\033[0m", date);
+		}
+		if (description == null) {
+			System.out.println(id);
+		} else {
+			description = description.replaceAll("\\s+", " ");
+			System.out.printf("%-100s # %s%n", id, description);
+		}
 	}
 
-	@SuppressWarnings("unchecked")
+	private record SearchRequest(int size, String searchTerm, List<String> filter) {}
+
+	private record SearchResponse(List<SearchComponent> components) {}
+
+	private record SearchComponent(String namespace, String name, String description,
+								   SearchVersionInfo latestVersionInfo) {}
+
+	private record SearchVersionInfo(String version, long timestampUnixWithMS) {}
+
+	/**
+	 * Searches Maven Central.
+	 */
 	public void search(String query) throws IOException {
 		HttpClient client = HttpClient.newHttpClient();
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		Json.write(out, Map.of("size", 10, "searchTerm", query, "filter", List.of()));
+		Json.write(out, new SearchRequest(10, query, List.of()));
 		HttpRequest request = HttpRequest.newBuilder()
 				.uri(URI.create("https://central.sonatype.com/api/internal/browse/components"))
 				.header("Content-Type", "application/json")
@@ -346,20 +533,19 @@ public class Corvoid {
 				throw new IOException("Unexpected status code: " + response.statusCode());
 			}
 			try (InputStream in = response.body()) {
-				var results = (Map<String, Object>) Json.read(in);
-				var components = (List<Map<String, Object>>) results.get("components");
-				for (var r : components) {
-					var versionInfo = (Map<String, Object>) r.get("latestVersionInfo");
-					var timestamp = Instant.ofEpochMilli((long) versionInfo.get("timestampUnixWithMS"));
-					var id = String.format("\033[90m%s:\033[1;36m%s\033[0m \033[1;33m%s\033[0m \033[90m%s\033[0m", r.get("namespace"), r.get("name"),
-							versionInfo.get("version"), timestamp.atZone(ZoneId.systemDefault()).toLocalDate());
-					String description = (String) r.get("description");
-					if (description == null) {
-						System.out.println(id);
-					} else {
-						description = description.replaceAll("\\s+", " ");
-						System.out.printf("%-100s # %s%n", id, description);
+				SearchResponse results = Json.read(in, SearchResponse.class);
+				if (results.components() == null) {
+					return;
+				}
+				for (SearchComponent r : results.components()) {
+					SearchVersionInfo versionInfo = r.latestVersionInfo();
+					if (versionInfo == null) {
+						printSearchResult(r.namespace(), r.name(), null, null, r.description());
+						continue;
 					}
+					var timestamp = Instant.ofEpochMilli(versionInfo.timestampUnixWithMS());
+					printSearchResult(r.namespace(), r.name(), versionInfo.version(),
+							timestamp.atZone(ZoneId.systemDefault()).toLocalDate(), r.description());
 				}
 			}
 		} catch (InterruptedException e) {
@@ -368,12 +554,34 @@ public class Corvoid {
 		}
 	}
 
+	private void outdated(String[] args) throws XMLStreamException, IOException {
+		boolean all = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--all")) {
+				all = true;
+			} else {
+				System.err.println("Usage: corvoid outdated [--all]");
+				System.exit(1);
+			}
+		}
+		if (all) {
+			outdatedAll();
+		} else {
+			outdated();
+		}
+	}
+
 	public void outdated() throws XMLStreamException, IOException {
 		Model model = parseModel();
 		Interpolator.interpolate(model);
 		workspace.resolveImports(model);
-		List<String> results = Collections.synchronizedList(new ArrayList<>());
-		model.getDependencies().parallelStream().forEach(dep -> {
+		List<Coord> coords = new ArrayList<>();
+		for (Dependency dep : model.getDependencies()) {
+			coords.add(new Coord(dep.getGroupId(), dep.getArtifactId()));
+		}
+		workspace.getCache().prefetchMetadata(coords);
+		List<String> results = new ArrayList<>();
+		for (Dependency dep : model.getDependencies()) {
 			try {
 				Coord coord = new Coord(dep.getGroupId(), dep.getArtifactId());
 				String version = dep.getVersion();
@@ -387,78 +595,177 @@ public class Corvoid {
 			} catch (Exception e) {
 				System.err.println("Error checking " + dep.getGroupId() + ":" + dep.getArtifactId() + ": " + e.getMessage());
 			}
-		});
+		}
 		Collections.sort(results);
 		for (String res : results) {
 			System.out.println(res);
 		}
 	}
 
+	/**
+	 * Checks every artifact in the resolved dependency graph and this pom's
+	 * dependencyManagement. Stale transitive dependencies are listed under the direct
+	 * dependency that pulls them in, and marked when their version is pinned by
+	 * dependencyManagement, as then upgrading the direct dependency won't change it.
+	 */
+	private void outdatedAll() throws XMLStreamException, IOException {
+		Model model = parseModel();
+		Interpolator.interpolate(model);
+		List<Dependency> managed = new ArrayList<>();
+		if (model.getDependencyManagement() != null) {
+			managed.addAll(model.getDependencyManagement().getDependencies());
+		}
+		DependencyTree tree = tree();
+		Model project = tree.root().getModel();
+
+		List<Coord> coords = new ArrayList<>();
+		for (Dependency dep : managed) {
+			coords.add(new Coord(dep.getGroupId(), dep.getArtifactId()));
+		}
+		Deque<DependencyTree.Node> stack = new ArrayDeque<>(tree.root().children());
+		while (!stack.isEmpty()) {
+			DependencyTree.Node node = stack.pop();
+			if (!workspace.isLocalModule(node.coord())) {
+				coords.add(node.coord());
+			}
+			stack.addAll(node.children());
+		}
+		workspace.getCache().prefetchMetadata(coords);
+
+		int stale = 0;
+		for (Dependency dep : managed) {
+			String latest = outdatedVersion(new Coord(dep.getGroupId(), dep.getArtifactId()), dep.getVersion());
+			if (latest != null) {
+				System.out.println(dep.getGroupId() + ":" + dep.getArtifactId() + " " + dep.getVersion() + " -> "
+						+ latest + " (dependencyManagement)");
+				stale++;
+			}
+		}
+		List<DependencyTree.Node> direct = new ArrayList<>(tree.root().children());
+		direct.sort(Comparator.comparing(node -> node.coord().toString()));
+		for (DependencyTree.Node node : direct) {
+			if (workspace.isLocalModule(node.coord())) {
+				continue;
+			}
+			List<String> transitives = new ArrayList<>();
+			stack.addAll(node.children());
+			while (!stack.isEmpty()) {
+				DependencyTree.Node child = stack.pop();
+				stack.addAll(child.children());
+				if (workspace.isLocalModule(child.coord())) {
+					continue;
+				}
+				String latest = outdatedVersion(child.coord(), child.version());
+				if (latest != null) {
+					transitives.add(child.coord() + " " + child.version() + " -> " + latest
+							+ (project.findManagedVersion(child.source) != null ? " (managed)" : ""));
+				}
+			}
+			String latest = outdatedVersion(node.coord(), node.version());
+			if (latest == null && transitives.isEmpty()) {
+				continue;
+			}
+			System.out.println(node.coord() + " " + node.version() + (latest != null ? " -> " + latest : ""));
+			Collections.sort(transitives);
+			for (String transitive : transitives) {
+				System.out.println("    " + transitive);
+			}
+			stale += transitives.size() + (latest != null ? 1 : 0);
+		}
+		if (stale == 0) {
+			System.out.println("All dependencies are up to date");
+		}
+	}
+
+	/**
+	 * Returns the latest stable version if it's newer than the given one, or null.
+	 */
+	private String outdatedVersion(Coord coord, String version) {
+		try {
+			String latest = workspace.getCache().latestVersion(coord);
+			if (latest != null && version != null && new Version(latest).compareTo(new Version(version)) > 0) {
+				return latest;
+			}
+		} catch (Exception e) {
+			System.err.println("Error checking " + coord + ": " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Updates the versions in dependencyManagement and dependencies to the latest
+	 * releases. The metadata for every candidate is fetched at once up front. Versions
+	 * managed by an updated bom are checked against the new bom, then the edits are
+	 * applied from the end of the file backwards so each one's offsets are still valid
+	 * when it's made.
+	 */
 	public void update(String[] args) throws XMLStreamException, IOException {
 		Set<String> toUpdate = new HashSet<>(Arrays.asList(args).subList(1, args.length));
-
-		// Pass 1: Update dependencyManagement
 		Model model = parseModel();
 		Interpolator.interpolate(model);
+		List<Dependency> managed = new ArrayList<>();
 		if (model.getDependencyManagement() != null) {
-			record Update(Dependency dep, String version) {}
-			List<Update> updates = new ArrayList<>();
 			for (Dependency dep : model.getDependencyManagement().getDependencies()) {
-				String coordStr = dep.getGroupId() + ":" + dep.getArtifactId();
-				if (toUpdate.isEmpty() || toUpdate.contains(coordStr)) {
-					try {
-						Coord coord = new Coord(dep.getGroupId(), dep.getArtifactId());
-						String version = dep.getVersion();
-						String latest = workspace.getCache().latestVersion(coord);
-						if (latest != null && !latest.equals(version)) {
-							updates.add(new Update(dep, latest));
-						}
-					} catch (Exception e) {
-						System.err.println("Error updating " + coordStr + ": " + e.getMessage());
-					}
+				if (toUpdate.isEmpty() || toUpdate.contains(dep.getGroupId() + ":" + dep.getArtifactId())) {
+					managed.add(dep);
 				}
 			}
-			if (!updates.isEmpty()) {
-				updates.sort(Comparator.comparingInt((Update u) -> u.dep.startOffset).reversed());
-				for (Update u : updates) {
-					updateDependency(u.dep, u.version);
-				}
+		}
+		List<Dependency> dependencies = new ArrayList<>();
+		for (Dependency dep : model.getDependencies()) {
+			if (toUpdate.isEmpty() || toUpdate.contains(dep.getGroupId() + ":" + dep.getArtifactId())) {
+				dependencies.add(dep);
 			}
 		}
-
-		// Pass 2: Update dependencies
-		model = parseModel();
-		Interpolator.interpolate(model);
-		workspace.resolveImports(model);
+		List<Coord> coords = new ArrayList<>();
+		for (Dependency dep : managed) {
+			coords.add(new Coord(dep.getGroupId(), dep.getArtifactId()));
+		}
+		for (Dependency dep : dependencies) {
+			coords.add(new Coord(dep.getGroupId(), dep.getArtifactId()));
+		}
+		workspace.getCache().prefetchMetadata(coords);
 
 		record Update(Dependency dep, String version) {}
 		List<Update> updates = new ArrayList<>();
-
-		for (Dependency dep : model.getDependencies()) {
-			String coordStr = dep.getGroupId() + ":" + dep.getArtifactId();
-			if (toUpdate.isEmpty() || toUpdate.contains(coordStr)) {
-				try {
-					Coord coord = new Coord(dep.getGroupId(), dep.getArtifactId());
-					String version = dep.getVersion();
-					if (version == null) {
-						version = model.findManagedVersion(dep);
-					}
-					String latest = workspace.getCache().latestVersion(coord);
-					if (latest != null && !latest.equals(version)) {
-						updates.add(new Update(dep, latest));
-					}
-				} catch (Exception e) {
-					System.err.println("Error updating " + coordStr + ": " + e.getMessage());
-				}
+		for (Dependency dep : managed) {
+			String latest = latestVersion(dep);
+			if (latest != null && !latest.equals(dep.getVersion())) {
+				updates.add(new Update(dep, latest));
 			}
 		}
-
-		if (!updates.isEmpty()) {
-			updates.sort(Comparator.comparingInt((Update u) -> u.dep.startOffset).reversed());
-			for (Update u : updates) {
-				updateDependency(u.dep, u.version);
+		// resolve imports as if the managed versions, including boms, were already updated
+		Map<Dependency, String> original = new IdentityHashMap<>();
+		for (Update u : updates) {
+			original.put(u.dep(), u.dep().getVersion());
+			u.dep().setVersion(u.version());
+		}
+		workspace.resolveImports(model);
+		for (Dependency dep : dependencies) {
+			String version = dep.getVersion();
+			if (version == null) {
+				version = model.findManagedVersion(dep);
+			}
+			String latest = latestVersion(dep);
+			if (latest != null && !latest.equals(version)) {
+				updates.add(new Update(dep, latest));
 			}
 		}
+		original.forEach(Dependency::setVersion);
+
+		updates.sort(Comparator.comparingInt((Update u) -> u.dep.startOffset).reversed());
+		for (Update u : updates) {
+			updateDependency(u.dep, u.version);
+		}
+	}
+
+	private String latestVersion(Dependency dep) {
+		try {
+			return workspace.getCache().latestVersion(new Coord(dep.getGroupId(), dep.getArtifactId()));
+		} catch (Exception e) {
+			System.err.println("Error updating " + dep.getGroupId() + ":" + dep.getArtifactId() + ": " + e.getMessage());
+			return null;
+		}
 	}
 
 	private void clean() throws IOException {
@@ -485,7 +792,7 @@ public class Corvoid {
 	private boolean lintDuplicateClasses() throws XMLStreamException, IOException {
 		boolean problems = false;
 		Map<String,String> classes = new HashMap<>();
-		for (Path jarPath : tree().classpathFiles()) {
+		for (Path jarPath : tree().classpathFiles(DependencyTree.Classpath.RUNTIME)) {
 			try (ZipFile zip = new ZipFile(jarPath.toFile())) {
 				Enumeration<? extends ZipEntry> entries = zip.entries();
 				while (entries.hasMoreElements()) {
@@ -523,7 +830,11 @@ public class Corvoid {
 		return sb.toString();
 	}
 
-	private static void clearLine() {
+	private ClassDataSharing classDataSharing() {
+		return new ClassDataSharing(target().resolve("cds"));
+	}
+
+	static void clearLine() {
 		System.out.print("\033[F\033[J");
 	}
 
@@ -538,22 +849,260 @@ public class Corvoid {
 		return dirs;
 	}
 
-	void uberjar() throws IOException, XMLStreamException {
-		Model model = parseModel();
-		tree().fetchDependencies();
+	/**
+	 * Builds the standalone jar as the manifest and dependency jars followed by the
+	 * project's own classes. The first part is kept from the previous build when the
+	 * main class and dependency jars haven't changed, so usually only the project
+	 * classes and central directory are rewritten.
+	 */
+	void uberjar(String[] args) throws IOException, XMLStreamException {
+		boolean nested = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--nested")) {
+				nested = true;
+			} else {
+				System.err.println("Unknown option: " + args[i]);
+				System.err.println("Usage: corvoid uberjar [--nested]");
+				System.exit(1);
+			}
+		}
+		Model model = session().project();
+		DependencyTree tree = session().fetchedTree();
+		compile();
 		Path uberjarFile = target().resolve(model.getArtifactId() + "-" + model.getVersion() + "-standalone.jar");
+		Path layoutFile = target().resolve(uberjarFile.getFileName() + ".layout");
 		ensureTargetExists();
-		try (JarWriter uberjar = new JarWriter(Files.newOutputStream(uberjarFile))) {
-			writeJarContents(model, uberjar);
-			int progress = 0;
-			List<Path> files = tree().classpathFiles();
-			for (Path f : files) {
-				System.out.println("Merging jars " + progressBar(progress++, files.size()) + " " + f.getFileName().toString());
-				try (ZipFile zf = new ZipFile(f.toFile())) {
-					uberjar.putJarContents(zf);
+		if (nested) {
+			Files.deleteIfExists(layoutFile);
+			nestedUberjar(model, tree.classpathFiles(DependencyTree.Classpath.RUNTIME), uberjarFile);
+			return;
+		}
+
+		List<Path> jars = new ArrayList<>();
+		List<Path> dirs = new ArrayList<>();
+		List<String> stamps = new ArrayList<>();
+		for (Path f : tree.classpathFiles(DependencyTree.Classpath.RUNTIME)) {
+			if (Files.isDirectory(f)) {
+				// sibling modules' class directories change like our own
+				dirs.add(f);
+			} else {
+				jars.add(f);
+				stamps.add(f + " " + Files.size(f) + " " + Files.getLastModifiedTime(f).toMillis());
+			}
+		}
+		Instant timestamp = outputTimestamp(model);
+		Map<String, Object> layout = new LinkedHashMap<>();
+		layout.put("mainClass", model.getBuild().getMainClass());
+		layout.put("timestamp", timestamp.toString());
+		layout.put("dependencies", stamps);
+
+		JarWriter resumed = resumeUberjar(uberjarFile, layoutFile, layout);
+		if (resumed == null) {
+			Files.deleteIfExists(layoutFile);
+		}
+		try (JarWriter uberjar = resumed != null ? resumed : new JarWriter(uberjarFile)) {
+			uberjar.setTimestamp(timestamp);
+			EntryTransformer.defaults().forEach(uberjar::addTransformer);
+			if (resumed != null) {
+				// merged files span both segments so they're always rebuilt
+				for (Path f : jars) {
+					uberjar.transformJarContents(f);
 				}
-				clearLine();
+			} else {
+				uberjar.writeManifest(model.getBuild().getMainClass());
+				int progress = 0;
+				for (Path f : jars) {
+					System.out.println("Merging jars " + progressBar(progress++, jars.size()) + " " + f.getFileName().toString());
+					uberjar.putJarContents(f);
+					clearLine();
+				}
+				layout.put("dependencyEnd", uberjar.position());
+			}
+			uberjar.startSegment();
+			for (Path dir : dirsToIncludeInJar()) {
+				uberjar.putDirContents(dir);
+			}
+			for (Path dir : dirs) {
+				uberjar.putDirContents(dir);
+			}
+		}
+		try (OutputStream out = Files.newOutputStream(layoutFile)) {
+			Json.write(out, layout);
+		}
+	}
+
+	/**
+	 * Builds a standalone jar that stores the dependency jars intact under lib/ and
+	 * loads them through {@link NestedLauncher}, so packaging is little more than a copy.
+	 */
+	private void nestedUberjar(Model model, List<Path> classpath, Path uberjarFile) throws IOException {
+		String mainClass = model.getBuild().getMainClass();
+		if (mainClass == null) {
+			System.err.println("No main class specified in pom.xml");
+			System.exit(1);
+		}
+		Map<String, String> manifest = new LinkedHashMap<>();
+		manifest.put("Main-Class", NestedLauncher.class.getName());
+		manifest.put(NestedLauncher.START_CLASS, mainClass);
+		try (JarWriter uberjar = new JarWriter(uberjarFile)) {
+			uberjar.setTimestamp(outputTimestamp(model));
+			uberjar.writeManifest(manifest);
+			SortedSet<String> launcherClasses = new TreeSet<>();
+			for (Class<?> c : NestedLauncher.class.getNestMembers()) {
+				launcherClasses.add(c.getName().replace('.', '/') + ".class");
+			}
+			for (String name : launcherClasses) {
+				uberjar.put(name, requireNonNull(NestedLauncher.class.getResourceAsStream("/" + name), name));
+			}
+			for (Path dir : dirsToIncludeInJar()) {
+				uberjar.putDirContents(dir);
+			}
+			Set<String> names = new HashSet<>();
+			for (Path f : classpath) {
+				if (Files.isDirectory(f)) {
+					uberjar.putDirContents(f);
+					continue;
+				}
+				String name = f.getFileName().toString();
+				for (int i = 2; !names.add(name); i++) {
+					name = i + "-" + f.getFileName();
+				}
+				uberjar.putStored(NestedLauncher.LIB + name, f);
+			}
+		}
+	}
+
+	/**
+	 * Exports the project as an OCI image tarball with dependencies, snapshot
+	 * dependencies, resources and classes in separate layers, ordered from least to
+	 * most frequently changing.
+	 */
+	void image(String[] args) throws IOException, XMLStreamException {
+		Path base = null;
+		String tag = null;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--base") && i + 1 < args.length) {
+				base = projectRoot.resolve(args[++i]);
+			} else if (args[i].equals("--tag") && i + 1 < args.length) {
+				tag = args[++i];
+			} else {
+				System.err.println("Unknown option: " + args[i]);
+				System.err.println("Usage: corvoid image [--base <oci-layout-dir>] [--tag <name>]");
+				System.exit(1);
+			}
+		}
+		Model model = session().project();
+		String mainClass = model.getBuild().getMainClass();
+		if (mainClass == null) {
+			System.err.println("No main class specified in pom.xml");
+			System.exit(1);
+		}
+		DependencyTree tree = session().fetchedTree();
+		compile();
+		ensureTargetExists();
+
+		SortedMap<String, Path> releases = new TreeMap<>();
+		SortedMap<String, Path> snapshots = new TreeMap<>();
+		SortedMap<String, Path> resources = new TreeMap<>();
+		SortedMap<String, Path> classes = new TreeMap<>();
+		List<String> classpath = new ArrayList<>();
+		classpath.add("/app/classes");
+		for (Path dir : dirsToIncludeInJar()) {
+			addImageFiles(dir, "app/classes/", classes, resources);
+		}
+		Set<String> names = new HashSet<>();
+		int modules = 0;
+		for (Path f : tree.classpathFiles(DependencyTree.Classpath.RUNTIME)) {
+			if (Files.isDirectory(f)) {
+				String prefix = "app/modules/" + ++modules + "/";
+				addImageFiles(f, prefix, classes, resources);
+				classpath.add("/" + prefix.substring(0, prefix.length() - 1));
+				continue;
+			}
+			String name = f.getFileName().toString();
+			for (int i = 2; !names.add(name); i++) {
+				name = i + "-" + f.getFileName();
+			}
+			String path = "app/lib/" + name;
+			boolean snapshot = name.contains("-SNAPSHOT") || f.getParent().getFileName().toString().endsWith("-SNAPSHOT");
+			(snapshot ? snapshots : releases).put(path, f);
+			classpath.add("/" + path);
+		}
+
+		ImageBuilder image = new ImageBuilder(target().resolve("image"), outputTimestamp(model));
+		image.addLayer("dependencies", releases);
+		image.addLayer("snapshot dependencies", snapshots);
+		image.addLayer("resources", resources);
+		image.addLayer("classes", classes);
+		Path tarball = target().resolve(model.getArtifactId() + "-" + model.getVersion() + "-image.tar");
+		if (tag == null) {
+			tag = model.getArtifactId() + ":" + model.getVersion();
+		}
+		List<String> entrypoint = List.of("java", "-cp", String.join(":", classpath), mainClass);
+		for (ImageBuilder.BuiltLayer layer : image.write(base, tag, entrypoint, tarball)) {
+			System.out.println(String.format("%-22s %s %s", layer.name(), layer.digest().substring(0, 19),
+					layer.cached() ? "(unchanged)" : DependencyTree.Node.formatBytes(layer.size()).trim()));
+		}
+		System.out.println("Wrote " + projectRoot.relativize(tarball));
+	}
+
+	/**
+	 * Adds the files under dir to the image at prefix, putting class files and
+	 * everything else in separate layers.
+	 */
+	private static void addImageFiles(Path dir, String prefix, Map<String, Path> classes, Map<String, Path> resources) throws IOException {
+		try (Stream<Path> stream = Files.walk(dir)) {
+			for (Path f : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+				String name = prefix + dir.relativize(f).toString().replace(File.separatorChar, '/');
+				(name.endsWith(".class") ? classes : resources).put(name, f);
+			}
+		}
+	}
+
+	private static JarWriter resumeUberjar(Path jar, Path layoutFile, Map<String, Object> layout) {
+		if (!Files.exists(jar) || !Files.exists(layoutFile)) {
+			return null;
+		}
+		try {
+			Map<?, ?> previous;
+			try (InputStream in = Files.newInputStream(layoutFile)) {
+				previous = (Map<?, ?>) Json.read(in);
+			}
+			if (!Objects.equals(previous.get("mainClass"), layout.get("mainClass"))
+					|| !Objects.equals(previous.get("timestamp"), layout.get("timestamp"))
+					|| !Objects.equals(previous.get("dependencies"), layout.get("dependencies"))
+					|| !(previous.get("dependencyEnd") instanceof Number end)) {
+				return null;
 			}
+			JarWriter writer = JarWriter.resume(jar, end.longValue());
+			layout.put("dependencyEnd", end.longValue());
+			return writer;
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parses project.build.outputTimestamp, which like Maven's may be ISO-8601 or
+	 * seconds since the epoch. Jars are always reproducible so without it (or when
+	 * Maven would treat it as disabled) entries get a fixed default.
+	 */
+	static Instant outputTimestamp(Model model) {
+		String value = model.getProperties().get("project.build.outputTimestamp");
+		if (value == null || value.trim().length() < 2) {
+			return JarWriter.DEFAULT_TIMESTAMP;
+		}
+		value = value.trim();
+		try {
+			if (value.chars().allMatch(Character::isDigit)) {
+				return Instant.ofEpochSecond(Long.parseLong(value));
+			}
+			return OffsetDateTime.parse(value).toInstant();
+		} catch (DateTimeParseException | NumberFormatException e) {
+			System.err.println("Invalid project.build.outputTimestamp: " + value);
+			System.err.println("Expected an ISO-8601 date and time such as 2024-01-01T00:00:00Z or seconds since the epoch");
+			System.exit(1);
+			return null;
 		}
 	}
 
@@ -562,42 +1111,50 @@ public class Corvoid {
 	}
 
 	void jar() throws IOException, XMLStreamException {
-		Model model = parseModel();
+		Model model = session().project();
 		Path outFile = target().resolve(model.getArtifactId() + "-" + model.getVersion() + ".jar");
 		ensureTargetExists();
-		try (JarWriter jar = new JarWriter(Files.newOutputStream(outFile))) {
+		try (JarWriter jar = new JarWriter(outFile)) {
 			writeJarContents(model, jar);
 		}
 	}
 
 	private void writeJarContents(Model model, JarWriter jar) throws IOException, XMLStreamException {
 		compile();
+		jar.setTimestamp(outputTimestamp(model));
 		jar.writeManifest(model.getBuild().getMainClass());
 		for (Path dir : dirsToIncludeInJar()) {
 			jar.putDirContents(dir);
 		}
 	}
 
-	private void run(String[] args) throws XMLStreamException, IOException {
-		DependencyTree tree = tree();
-		String classpath = tree.classpath();
-		List<String> command = new ArrayList<>();
-		command.add("java");
-		command.add("-cp");
-		command.add("target/classes:" + classpath);
-		if (args.length > 1 && !args[1].equals("--")) {
-			command.addAll(Arrays.asList(args).subList(1, args.length));
+	private void run(String[] args) throws XMLStreamException, IOException, InterruptedException {
+		boolean watch = args.length > 1 && args[1].equals("--watch");
+		List<String> rest = Arrays.asList(args).subList(watch ? 2 : 1, args.length);
+		List<String> appArgs = new ArrayList<>();
+		if (!rest.isEmpty() && !rest.get(0).equals("--")) {
+			appArgs.addAll(rest);
 		} else {
-			Model model = parseModel();
+			Model model = session().project();
 			String mainClass = model.getBuild().getMainClass();
 			if (mainClass == null) {
 				System.err.println("No main class specified in pom.xml");
-				System.err.println("Use: corvoid run <main-class> args...");
+				System.err.println("Use: corvoid run [--watch] <main-class> args...");
 				System.exit(1);
 			}
-			command.add(mainClass);
-			if (args.length > 1) command.addAll(Arrays.asList(args).subList(2, args.length));
+			appArgs.add(mainClass);
+			if (!rest.isEmpty()) appArgs.addAll(rest.subList(1, rest.size()));
+		}
+
+		if (watch) {
+			runWatching(appArgs);
+			return;
 		}
+
+		DependencyTree tree = tree();
+		List<String> command = classDataSharing().javaCommand("run", List.of(Path.of("target/classes")),
+				tree.classpathFiles(DependencyTree.Classpath.RUNTIME));
+		command.addAll(appArgs);
 		try {
 			new ProcessBuilder().command(command)
 			.redirectError(Redirect.INHERIT)
@@ -609,12 +1166,42 @@ public class Corvoid {
 		}
 	}
 
+	/**
+	 * Keeps the application running, hot-swapping classes after each successful compile.
+	 */
+	private void runWatching(List<String> appArgs) throws IOException, XMLStreamException, InterruptedException {
+		ReloadingRunner runner = null;
+		try (IncrementalBuild build = new IncrementalBuild()) {
+			for (;;) {
+				Rebuild rebuild = build.next();
+				if (rebuild.resolved()) {
+					// the classpath may have changed so start from scratch
+					if (runner != null) runner.close();
+					List<String> java = classDataSharing().javaCommand("run", List.of(), build.main.dependencies);
+					runner = new ReloadingRunner(absolute(target()), absolute(build.main.outDir), java, appArgs);
+					runner.start();
+				} else if (!rebuild.ok()) {
+					System.out.println("Not reloading until compile errors are fixed");
+				} else if (rebuild.mainResources()) {
+					runner.restart();
+				} else if (!rebuild.mainSources().isEmpty()) {
+					runner.reload(rebuild.changedClasses());
+				}
+			}
+		} finally {
+			if (runner != null) runner.close();
+		}
+	}
+
 	private static class CompilerOptions {
 		Path srcDir, outDir;
 		String classpath;
+		List<Path> dependencies;
+		List<Path> classDirs;
 		boolean verbose = false;
 		boolean junit5 = false;
 		List<Resource> resources;
+		Model project;
 
 		List<Path> walkSources(Path srcDir) throws IOException {
 			List<Path> list = new ArrayList<>();
@@ -631,6 +1218,18 @@ public class Corvoid {
 
 
 		List<String> buildCommandLine() throws IOException {
+			return buildCommandLine(walkSources(srcDir), classpath);
+		}
+
+		/**
+		 * Compiles just the given sources against the existing output directory so
+		 * that unchanged classes don't need to be rebuilt.
+		 */
+		List<String> buildIncrementalCommandLine(List<Path> sources) {
+			return buildCommandLine(sources, outDir + ":" + classpath);
+		}
+
+		private List<String> buildCommandLine(List<Path> sources, String classpath) {
 			List<String> cmd = new ArrayList<>();
 			cmd.add("javac");
 			if (verbose) {
@@ -642,28 +1241,29 @@ public class Corvoid {
 			cmd.add(classpath);
 			cmd.add("-d");
 			cmd.add(outDir.toString());
-			for (Path f : walkSources(srcDir)) {
+			for (Path f : sources) {
 				cmd.add(f.toString());
 			}
 			return cmd;
 		}
 	}
 
-	private CompilerOptions buildCompilerOptions() throws IOException, XMLStreamException {
-		return buildCompilerOptions(false);
-	}
-
-	private CompilerOptions buildCompilerOptions(boolean test) throws IOException, XMLStreamException {
+	/**
+	 * Derives the options for compiling the main or test sources from a resolution.
+	 * Use {@link BuildSession#compilerOptions(boolean)} rather than calling this directly.
+	 */
+	private CompilerOptions buildCompilerOptions(DependencyTree tree, boolean test) {
 		CompilerOptions options = new CompilerOptions();
-		Model project = new Model(superPom(), parseModel());
-		Interpolator.interpolate(project);
+		Model project = tree.root().getModel();
+		options.project = project;
 		if (test) {
-			options.junit5 = injectJUnit5ConsoleRunner(project);
+			options.junit5 = usesJUnit5(project);
+			options.classpath = tree.classpath(DependencyTree.Classpath.TEST_COMPILE);
+			options.dependencies = tree.classpathFiles(DependencyTree.Classpath.TEST_RUNTIME);
+		} else {
+			options.classpath = tree.classpath(DependencyTree.Classpath.COMPILE);
+			options.dependencies = tree.classpathFiles(DependencyTree.Classpath.RUNTIME);
 		}
-		DependencyTree tree = new DependencyTree(workspace);
-		tree.resolve(project);
-		tree.fetchDependencies();
-		options.classpath = tree.classpath();
 		if (test) {
 			String srcDir = project.getBuild().getTestSourceDirectory();
 			options.srcDir = Path.of(srcDir != null ? srcDir : "test");
@@ -671,12 +1271,14 @@ public class Corvoid {
 			options.outDir = Path.of(outDir != null ? outDir : "target/test-classes");
 			String mainOutDir = project.getBuild().getOutputDirectory();
 			options.classpath = (mainOutDir != null ? mainOutDir : "target/classes") + ":" + options.classpath;
+			options.classDirs = List.of(options.outDir, Path.of(mainOutDir != null ? mainOutDir : "target/classes"));
 			options.resources = project.getBuild().getTestResources();
 		} else {
 			String srcDir = project.getBuild().getSourceDirectory();
 			options.srcDir = Path.of(srcDir != null ? srcDir : "src");
 			String outDir = project.getBuild().getOutputDirectory();
 			options.outDir = Path.of(outDir != null ? outDir : "target/classes");
+			options.classDirs = List.of(options.outDir);
 			options.resources = project.getBuild().getResources();
 		}
 		return options;
@@ -705,15 +1307,15 @@ public class Corvoid {
 		for (Resource res : options.resources) {
 			Path resDir = projectRoot.resolve(res.getDirectory() != null ? res.getDirectory() : "src/main/resources");
 			if (Files.exists(resDir)) {
+				// directories too, whose times change when a resource is deleted
 				try (Stream<Path> stream = Files.walk(resDir)) {
-					boolean changed = stream.filter(Files::isRegularFile)
-							.anyMatch(p -> {
-								try {
-									return Files.getLastModifiedTime(p).toMillis() > lastModified;
-								} catch (IOException e) {
-									return true;
-								}
-							});
+					boolean changed = stream.anyMatch(p -> {
+						try {
+							return Files.getLastModifiedTime(p).toMillis() > lastModified;
+						} catch (IOException e) {
+							return true;
+						}
+					});
 					if (changed) return true;
 				}
 			}
@@ -722,26 +1324,15 @@ public class Corvoid {
 	}
 
 	private void compile() throws XMLStreamException, IOException {
-		CompilerOptions options = buildCompilerOptions();
-		if (isChanged(options)) {
-			if (!Files.exists(options.outDir)) {
-				Files.createDirectories(options.outDir);
-			}
-			System.out.println("Compiling");
-			compileViaToolApi(options);
-			copyResources(options);
-			Files.setLastModifiedTime(options.outDir, FileTime.from(Instant.now()));
-			clearLine();
-		}
+		compile(session().compilerOptions(false), "Compiling");
 	}
 
-	private void compileTests() throws XMLStreamException, IOException {
-		CompilerOptions options = buildCompilerOptions(true);
+	private void compile(CompilerOptions options, String message) throws IOException {
 		if (isChanged(options)) {
 			if (!Files.exists(options.outDir)) {
 				Files.createDirectories(options.outDir);
 			}
-			System.out.println("Compiling tests");
+			System.out.println(message);
 			compileViaToolApi(options);
 			copyResources(options);
 			Files.setLastModifiedTime(options.outDir, FileTime.from(Instant.now()));
@@ -750,76 +1341,231 @@ public class Corvoid {
 	}
 
 	private void copyResources(CompilerOptions options) throws IOException {
-		for (Resource res : options.resources) {
-			Path resDir = projectRoot.resolve(res.getDirectory() != null ? res.getDirectory() : "src/main/resources");
-			if (Files.exists(resDir)) {
-				Path targetDir = options.outDir;
-				if (!targetDir.isAbsolute()) {
-					targetDir = projectRoot.resolve(targetDir);
-				}
-				if (res.getTargetPath() != null) {
-					targetDir = targetDir.resolve(res.getTargetPath());
-				}
-				if (!Files.exists(targetDir)) {
-					Files.createDirectories(targetDir);
+		Path pom = projectRoot.resolve("pom.xml");
+		FileTime pomTime = Files.exists(pom) ? Files.getLastModifiedTime(pom) : null;
+		new ResourceCopier(projectRoot, options.project, pomTime).sync(options.resources, options.outDir);
+	}
+
+	private void test(String[] args) throws XMLStreamException, IOException {
+		int forks = 1;
+		boolean affectedOnly = false;
+		boolean keepWarm = false;
+		List<String> extraArgs = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--affected")) {
+				affectedOnly = true;
+			} else if (args[i].equals("--keep-warm")) {
+				keepWarm = true;
+			} else if (args[i].equals("-j") && i + 1 < args.length || args[i].matches("-j\\d+")) {
+				String value = args[i].length() > 2 ? args[i].substring(2) : args[++i];
+				try {
+					forks = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					forks = 0;
 				}
-				Path finalTargetDir = targetDir;
-				try (Stream<Path> stream = Files.walk(resDir)) {
-					stream.filter(Files::isRegularFile).forEach(p -> {
-						try {
-							Path relative = resDir.relativize(p);
-							Path dest = finalTargetDir.resolve(relative);
-							Files.createDirectories(dest.getParent());
-							Files.copy(p, dest, StandardCopyOption.REPLACE_EXISTING);
-						} catch (IOException e) {
-							throw new UncheckedIOException(e);
-						}
-					});
-				} catch (UncheckedIOException e) {
-					throw e.getCause();
+				if (forks < 1) {
+					System.err.println("Invalid number of forks: " + value);
+					System.err.println("Usage: corvoid test [-j <forks> | --keep-warm] [--affected] [junit options...]");
+					System.exit(1);
 				}
+			} else {
+				extraArgs.add(args[i]);
 			}
 		}
+		if (keepWarm && forks > 1) {
+			System.err.println("--keep-warm runs tests in a single JVM and can't be combined with -j");
+			System.exit(1);
+		}
+		compile();
+		CompilerOptions options = session().compilerOptions(true);
+		compile(options, "Compiling tests");
+		// only --affected pays for reading every class file; its baseline is the last
+		// successful --affected run, which never misses a change made since
+		TestImpact impact = null;
+		TestImpact.Snapshot snapshot = null;
+		List<String> selected = null;
+		if (affectedOnly) {
+			impact = new TestImpact(target().resolve("test-impact.json"));
+			List<Path> classDirs = new ArrayList<>();
+			for (Path dir : options.classDirs) {
+				classDirs.add(projectRoot.resolve(dir));
+			}
+			snapshot = TestImpact.scan(classDirs, options.dependencies);
+			List<String> testClasses = findTestClasses(options.outDir);
+			selected = impact.affected(snapshot, testClasses);
+			if (selected == null) {
+				System.out.println("Running all tests (no previous successful run to compare with, or resources or dependencies changed)");
+			} else if (selected.isEmpty()) {
+				System.out.println("No tests affected by changes since the last successful run");
+				return;
+			} else {
+				System.out.println("Running " + selected.size() + " of " + testClasses.size() + " test classes affected by changes");
+			}
+		}
+		int exitCode;
+		if (forks > 1) {
+			List<String> testClasses = selected != null ? selected : findTestClasses(options.outDir);
+			if (testClasses.isEmpty()) {
+				System.out.println("No tests found");
+				return;
+			}
+			Path runnerClasses = testRunner(options, extraArgs);
+			// shared so only the first fork records a class list for the archive
+			ClassDataSharing classDataSharing = classDataSharing();
+			exitCode = new ShardedTestRun(target(), forks, options.junit5).run(testClasses,
+					(shard, reportsDir) -> testCommand(options, classDataSharing, runnerClasses, shard,
+							ShardedTestRun.resultsFile(reportsDir), reportsDir, extraArgs));
+		} else {
+			exitCode = runTests(options, selected, extraArgs, keepWarm);
+		}
+		if (exitCode != 0) {
+			System.exit(exitCode);
+		}
+		if (impact != null) {
+			impact.save(snapshot);
+		}
 	}
 
-	private void test(String[] args) throws XMLStreamException, IOException {
-		compile();
-		compileTests();
-		CompilerOptions options = buildCompilerOptions(true);
-		String classpath = options.outDir + ":" + options.classpath;
-		List<String> testClasses = findTestClasses(options.outDir);
+	/**
+	 * Runs the given test classes, or every test class found when selected is null.
+	 */
+	private int runTests(CompilerOptions options, Collection<String> selected, List<String> extraArgs,
+						 boolean keepWarm) throws IOException {
+		List<String> testClasses = selected != null ? new ArrayList<>(selected) : findTestClasses(options.outDir);
 		if (testClasses.isEmpty()) {
 			System.out.println("No tests found");
-			return;
+			return 0;
+		}
+		// JUnit 5 finds the tests itself unless we're running a selection
+		List<String> toRun = options.junit5 && selected == null ? null : testClasses;
+		Path runnerClasses = testRunner(options, extraArgs);
+		Path results = target().resolve("test-results.json");
+		Path reportsDir = target().resolve("test-reports");
+		Files.deleteIfExists(results);
+		ShardedTestRun.deleteReports(reportsDir);
+
+		int exitCode;
+		if (keepWarm) {
+			List<Path> jars = new ArrayList<>();
+			List<Path> classDirs = new ArrayList<>();
+			for (Path dir : options.classDirs) {
+				classDirs.add(projectRoot.resolve(dir));
+			}
+			for (Path dependency : options.dependencies) {
+				(Files.isDirectory(dependency) ? classDirs : jars).add(dependency);
+			}
+			Path scanRoot = projectRoot.resolve(options.outDir).toAbsolutePath();
+			TestServerClient client = new TestServerClient(target().resolve("test-server"), classDataSharing());
+			if (runnerClasses != null) {
+				exitCode = client.run(jars, runnerClasses, classDirs, TestRunner.mainClass(options.junit5),
+						TestRunner.arguments(toRun, scanRoot, results, reportsDir));
+			} else {
+				exitCode = client.run(jars, null, classDirs,
+						options.junit5 ? TestServer.CONSOLE_LAUNCHER : TestServer.JUNIT_CORE,
+						testArguments(options, toRun, null, extraArgs, scanRoot));
+			}
+		} else {
+			List<String> command = testCommand(options, classDataSharing(), runnerClasses, toRun, results, reportsDir,
+					extraArgs);
+			try {
+				exitCode = new ProcessBuilder().command(command)
+						.redirectError(Redirect.INHERIT)
+						.redirectOutput(Redirect.INHERIT)
+						.start().waitFor();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		if (Files.exists(results)) {
+			TestHistory.Run run = TestHistory.read(results);
+			new TestHistory(target().resolve("test-history.json")).add(run);
+			ShardedTestRun.mergeTimings(target(), run.classMillis());
+		}
+		return exitCode;
+	}
+
+	/**
+	 * Compiles corvoid's test runner and returns its classes, or null to run the JUnit
+	 * console launcher or JUnitCore directly because there are options only they
+	 * understand or the runner doesn't compile against this version of JUnit.
+	 */
+	private Path testRunner(CompilerOptions options, List<String> extraArgs) throws IOException {
+		if (!extraArgs.isEmpty()) {
+			return null;
 		}
+		Path dir = target().resolve("test-runner");
+		Path classes = new TestRunner(dir, options.junit5).compile(options.dependencies);
+		if (classes == null) {
+			System.out.println("Unable to compile the test runner, falling back to JUnit's (see "
+					+ projectRoot.relativize(dir.resolve("compile.log")) + ")");
+		}
+		return classes;
+	}
 
-		List<String> command = new ArrayList<>();
-		command.add("java");
-		command.add("-cp");
-		command.add(classpath);
+	/**
+	 * Builds the command line that runs the given test classes, or scans for all of them
+	 * when testClasses is null. Corvoid's test runner, if given, writes the results file
+	 * and XML reports to reportsDir; otherwise only JUnit 5 writes reports.
+	 */
+	private List<String> testCommand(CompilerOptions options, ClassDataSharing classDataSharing, Path runnerClasses,
+									 List<String> testClasses, Path results, Path reportsDir,
+									 List<String> extraArgs) throws IOException {
+		if (runnerClasses == null) {
+			List<String> command = classDataSharing.javaCommand("test", options.classDirs, options.dependencies);
+			command.add(options.junit5 ? TestServer.CONSOLE_LAUNCHER : TestServer.JUNIT_CORE);
+			command.addAll(testArguments(options, testClasses, reportsDir, extraArgs, null));
+			return command;
+		}
+		List<Path> classDirs = new ArrayList<>();
+		classDirs.add(runnerClasses);
+		classDirs.addAll(options.classDirs);
+		List<String> command = classDataSharing.javaCommand("test", classDirs, options.dependencies);
+		command.add(TestRunner.mainClass(options.junit5));
+		command.addAll(TestRunner.arguments(testClasses, projectRoot.resolve(options.outDir), results, reportsDir));
+		return command;
+	}
 
-		if (options.junit5) {
-			command.add("org.junit.platform.console.ConsoleLauncher");
-			command.add("execute");
-			command.add("--scan-class-path");
-			command.add("--disable-banner");
-            command.addAll(Arrays.asList(args).subList(1, args.length));
+	/**
+	 * Builds the arguments for the JUnit 5 console launcher or JUnitCore.
+	 *
+	 * @param scanRoot where to look for tests when testClasses is null, or null for the whole classpath
+	 */
+	private static List<String> testArguments(CompilerOptions options, List<String> testClasses, Path reportsDir,
+											  List<String> extraArgs, Path scanRoot) {
+		List<String> args = new ArrayList<>();
+		if (!options.junit5) {
+			args.addAll(testClasses);
+			return args;
+		}
+		args.add("execute");
+		if (testClasses == null) {
+			args.add(scanRoot == null ? "--scan-class-path" : "--scan-class-path=" + scanRoot);
 		} else {
-			command.add("org.junit.runner.JUnitCore");
-			command.addAll(testClasses);
+			for (String testClass : testClasses) {
+				args.add("--select-class");
+				args.add(testClass);
+			}
 		}
+		args.add("--disable-banner");
+		if (reportsDir != null) {
+			args.add("--reports-dir");
+			args.add(reportsDir.toString());
+		}
+		args.addAll(extraArgs);
+		return args;
+	}
 
-		try {
-			new ProcessBuilder().command(command)
-					.redirectError(Redirect.INHERIT)
-					.redirectOutput(Redirect.INHERIT)
-					.start().waitFor();
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+	private static boolean usesJUnit5(Model project) {
+		for (Dependency dep : project.getDependencies()) {
+			String gid = dep.getGroupId();
+			if (gid != null && (gid.equals("org.junit.jupiter") || gid.equals("org.junit.platform"))) {
+				return true;
+			}
 		}
+		return false;
 	}
 
-	private boolean injectJUnit5ConsoleRunner(Model project) {
+	private void injectJUnit5ConsoleRunner(Model project) {
 		boolean hasJUnit5 = false;
 		boolean hasConsoleRunner = false;
 		String junitPlatformVersion = "1.10.0"; // Default
@@ -846,7 +1592,6 @@ public class Corvoid {
 			console.setScope("test");
 			project.getDependencies().add(console);
 		}
-		return hasJUnit5;
 	}
 
 	private List<String> findTestClasses(Path testOutDir) throws IOException {
@@ -875,10 +1620,13 @@ public class Corvoid {
 		if (sources.isEmpty()) {
 			return;
 		}
+		runCompiler(options.buildCommandLine());
+	}
+
+	private boolean runCompiler(List<String> cmd) {
 		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		List<String> cmd = options.buildCommandLine();
 		cmd.remove(0); // drop javac
-		compiler.run(null, null, null, cmd.toArray(new String[0]));
+		return compiler.run(null, null, null, cmd.toArray(new String[0])) == 0;
 	}
 
 	private void compileExternal(CompilerOptions options) throws IOException {
@@ -898,55 +1646,207 @@ public class Corvoid {
 		}
 	}
 
-	private void watch() throws IOException, XMLStreamException, InterruptedException {
-		CompilerOptions options = buildCompilerOptions();
-		final WatchService watcher = FileSystems.getDefault().newWatchService();
-		final AtomicLong dirCount = new AtomicLong(0);
-		Files.walk(options.srcDir).forEach(new Consumer<Path>() {
-			@Override
-			public void accept(Path path) {
-				try {
-					if (!Files.isDirectory(path))
-						return;
-					path.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
-					dirCount.incrementAndGet();
-				} catch (IOException e) {
-					throw new UncheckedIOException(e);
+	private Path resourceDir(Resource res) {
+		return projectRoot.resolve(res.getDirectory() != null ? res.getDirectory() : "src/main/resources");
+	}
+
+	private Path absolute(Path path) {
+		return projectRoot.resolve(path).toAbsolutePath().normalize();
+	}
+
+	private void watch(String[] args) throws IOException, XMLStreamException, InterruptedException {
+		boolean runTests = false;
+		boolean keepWarm = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-t")) {
+				runTests = true;
+			} else if (args[i].equals("--keep-warm")) {
+				keepWarm = true;
+			} else {
+				System.err.println("Unknown option: " + args[i]);
+				System.err.println("""
+						Usage: corvoid watch [-t [--keep-warm]]
+						Watch for changes and recompile when seen
+
+						-t          Run affected tests after each successful compile
+						--keep-warm Run the tests in a JVM that's kept running between runs
+						""");
+				System.exit(1);
+			}
+		}
+
+		try (IncrementalBuild build = new IncrementalBuild()) {
+			for (;;) {
+				Rebuild rebuild = build.next();
+				if (rebuild.resolved()) {
+					System.out.println("Watching " + build.watcher.directoryCount() + " directories");
+					continue;
+				}
+				if (!rebuild.ok() || !runTests) {
+					continue;
+				}
+				if (!rebuild.mainSources().isEmpty() || rebuild.mainResources()) {
+					runTests(build.tests, null, List.of(), keepWarm);
+				} else if (!rebuild.testSources().isEmpty() || rebuild.testResources()) {
+					runTests(build.tests, rebuild.testResources() ? null
+							: testClassNames(build.tests, rebuild.testSources()), List.of(), keepWarm);
 				}
 			}
-		});
+		}
+	}
 
-		System.out.println("Watching " + dirCount.get() + " directories");
+	/**
+	 * What changed in one round of {@link IncrementalBuild#next()}.
+	 *
+	 * @param resolved       dependencies were (re-)resolved and everything was compiled
+	 * @param changedClasses binary names of the main classes written by this round's compile
+	 */
+	private record Rebuild(boolean resolved, boolean ok, Set<Path> mainSources, Set<Path> testSources,
+						   boolean mainResources, boolean testResources, List<String> changedClasses) {
+	}
 
-		for (;;) {
-			WatchKey key = watcher.take();
-			Path dir = (Path) key.watchable();
+	/**
+	 * Watches the project and recompiles just what changed each time something does.
+	 */
+	private class IncrementalBuild implements Closeable {
+		final SourceWatcher watcher = new SourceWatcher();
+		final Path pom = absolute(Path.of("pom.xml"));
+		CompilerOptions main, tests;
 
-			boolean recompile = false;
+		IncrementalBuild() throws IOException {
+		}
 
-			for (WatchEvent<?> event : key.pollEvents()) {
-				WatchEvent.Kind<?> kind = event.kind();
-				if (kind == OVERFLOW) {
-					recompile = true;
-					break;
+		/**
+		 * Resolves and fully compiles the first time it's called or after pom.xml
+		 * changes, otherwise blocks until the next batch of changes and rebuilds them.
+		 */
+		Rebuild next() throws IOException, XMLStreamException, InterruptedException {
+			if (main == null) {
+				// a fresh session, as this is the start or pom.xml has changed
+				session = new BuildSession(true);
+				main = session.compilerOptions(false);
+				tests = session.compilerOptions(true);
+				watcher.watchFile(pom);
+				for (CompilerOptions options : List.of(main, tests)) {
+					watcher.watchTree(absolute(options.srcDir));
+					for (Resource res : options.resources) {
+						watcher.watchTree(resourceDir(res));
+					}
 				}
-				Path filename = dir.resolve((Path) event.context());
-				if (filename.toString().endsWith(".java")) {
-					recompile = true;
-				} else if (kind == ENTRY_CREATE && Files.isDirectory(filename)) {
-					filename.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				compile(main, "Compiling");
+				compile(tests, "Compiling tests");
+				return new Rebuild(true, true, Set.of(), Set.of(), false, false, List.of());
+			}
+
+			SourceWatcher.Changes changes = watcher.take();
+			if (changes.overflow() || changes.contains(pom)) {
+				main = null;
+				return next();
+			}
+
+			Set<Path> mainSources = changes.under(absolute(main.srcDir), ".java");
+			Set<Path> testSources = changes.under(absolute(tests.srcDir), ".java");
+			boolean mainResources = syncChangedResources(main, changes);
+			boolean testResources = syncChangedResources(tests, changes);
+
+			FileTime start = FileTime.from(Instant.now().minusSeconds(1));
+			boolean ok = recompile(main, mainSources) && recompile(tests, testSources);
+			List<String> changedClasses = mainSources.isEmpty() ? List.of() : classesWrittenSince(main.outDir, start);
+			return new Rebuild(false, ok, mainSources, testSources, mainResources, testResources, changedClasses);
+		}
+
+		@Override
+		public void close() throws IOException {
+			watcher.close();
+		}
+	}
+
+	private List<String> classesWrittenSince(Path outDir, FileTime since) throws IOException {
+		List<String> classes = new ArrayList<>();
+		Path dir = absolute(outDir);
+		try (Stream<Path> stream = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) stream::iterator) {
+				if (file.toString().endsWith(".class") && Files.getLastModifiedTime(file).compareTo(since) >= 0) {
+					String name = dir.relativize(file).toString().replace(File.separatorChar, '.');
+					classes.add(name.substring(0, name.length() - ".class".length()));
 				}
 			}
+		}
+		return classes;
+	}
 
-			if (recompile) {
-				compileViaToolApi(options);
+	private boolean syncChangedResources(CompilerOptions options, SourceWatcher.Changes changes) throws IOException {
+		for (Resource res : options.resources) {
+			if (!changes.under(resourceDir(res), null).isEmpty()) {
+				copyResources(options);
+				return true;
 			}
+		}
+		return false;
+	}
 
-			key.reset();
+	/**
+	 * Compiles only the changed sources, removing the classes of any that were deleted.
+	 */
+	private boolean recompile(CompilerOptions options, Set<Path> changed) throws IOException {
+		List<Path> sources = new ArrayList<>();
+		for (Path source : changed) {
+			if (Files.exists(source)) {
+				sources.add(source);
+			} else {
+				deleteClasses(options, source);
+			}
 		}
+		if (sources.isEmpty()) {
+			return true;
+		}
+		Files.createDirectories(options.outDir);
+		long start = System.nanoTime();
+		boolean ok = runCompiler(options.buildIncrementalCommandLine(sources));
+		System.out.printf("%s %d file%s in %d ms%n", ok ? "Compiled" : "Failed compiling", sources.size(),
+				sources.size() == 1 ? "" : "s", (System.nanoTime() - start) / 1000000);
+		return ok;
+	}
+
+	private void deleteClasses(CompilerOptions options, Path source) throws IOException {
+		Path relative = absolute(options.srcDir).relativize(source);
+		String name = relative.getFileName().toString().replaceFirst("\\.java$", "");
+		Path dir = options.outDir.resolve(relative).getParent();
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, name + "{.class,$*.class}")) {
+			for (Path file : stream) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private List<String> testClassNames(CompilerOptions options, Set<Path> sources) {
+		List<String> names = new ArrayList<>();
+		Path srcDir = absolute(options.srcDir);
+		for (Path source : sources) {
+			if (Files.exists(source)) {
+				String name = srcDir.relativize(source).toString().replace(File.separatorChar, '.');
+				names.add(name.substring(0, name.length() - ".java".length()));
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Loads the XML and HTTP classes most commands need so that the class data sharing
+	 * archive bin/corvoid creates includes them whichever command happens to create it.
+	 */
+	private static void preload() {
+		new Corvoid().superPom();
+		HttpClient.newBuilder().build();
 	}
 
 	public static void main(String[] args) throws Exception {
+		if (Boolean.getBoolean("corvoid.preload")) {
+			preload();
+		}
 		new Corvoid().command(args);
 	}
 
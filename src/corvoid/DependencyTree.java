@@ -10,28 +10,96 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
 
+/**
+ * The resolved dependency graph. Each artifact has a single node, interned by its
+ * coordinates, and every dependency request is an edge carrying the requested version,
+ * scope and exclusions. The first request to reach an artifact in breadth-first order
+ * selects its version; those nodes form a spanning tree through {@link Node#children}
+ * that printing and the classpath order follow.
+ * <p>
+ * Dependencies of every scope are resolved in the one pass. Afterwards each node is
+ * tagged with the scopes it's reachable in, following Maven's rules for transitive
+ * scopes, and each {@link Classpath} is the nodes in one of its scopes.
+ */
 public class DependencyTree {
 	Workspace workspace;
-	Map<Coord,String> versions = new ConcurrentHashMap<>();
+	/**
+	 * Every node but the root, in the order they were selected.
+	 */
+	Map<Coord, Node> nodes = new LinkedHashMap<>();
 	Set<Coord> unconstrained = Collections.newSetFromMap(new ConcurrentHashMap<>());
 	Node root;
+	/**
+	 * Jars of system-scoped dependencies of the project, which aren't in any repository.
+	 */
+	List<Path> systemPaths = new ArrayList<>();
+	private final Map<Classpath, List<Node>> classpaths = new EnumMap<>(Classpath.class);
+
+	/**
+	 * The classpaths of a build and the dependency scopes each includes. As in Maven the
+	 * tests compile and run against everything.
+	 */
+	enum Classpath {
+		COMPILE("compile", "provided", "system"),
+		RUNTIME("compile", "runtime"),
+		TEST_COMPILE("compile", "provided", "system", "runtime", "test"),
+		TEST_RUNTIME("compile", "provided", "system", "runtime", "test");
+
+		final Set<String> scopes;
+
+		Classpath(String... scopes) {
+			this.scopes = Set.of(scopes);
+		}
+	}
+
+	/**
+	 * A dependency request, from the node that declared it to the node for the artifact
+	 * it asked for. The version is null if the request didn't constrain it.
+	 */
+	record Edge(Node parent, Node child, String version, String scope, Set<Coord> exclusions) {}
 
 	public DependencyTree(Workspace workspace) {
 		this.workspace = workspace;
 	}
 	
 	public class Node {
+		Coord coord;
+		String version;
+		/**
+		 * Exclusions accumulated along the path that selected this node.
+		 */
 		Set<Coord> exclusions;
 		int depth;
 		Model model;
 		Future<Model> future;
+		/**
+		 * The dependency that selected this node.
+		 */
 		Dependency source;
-		List<Node> children;
+		/**
+		 * The nodes this node selected, which form the spanning tree.
+		 */
+		List<Node> children = new ArrayList<>();
+		/**
+		 * Every request this node makes, including for artifacts selected elsewhere.
+		 */
+		List<Edge> edges = new ArrayList<>();
+		/**
+		 * Every request for this node. The first is the one that selected it.
+		 */
+		List<Edge> incoming = new ArrayList<>();
+		/**
+		 * The scopes this node is reachable in.
+		 */
+		Set<String> scopes = new TreeSet<>();
+		private long size = -1;
 		private long totalSize = -1;
+		private long uniqueSize = -1;
+		private int index;
 		
 		public Model getModel() {
 			return model;
@@ -47,7 +115,7 @@ public class DependencyTree {
 		
 
 		/* based on aioobe's http://stackoverflow.com/a/3758880 */
-		public String formatBytes(long bytes) {
+		public static String formatBytes(long bytes) {
 			int unit = 1024;
 			if (bytes < unit) return String.format("%3d   B", bytes);
 			int exp = (int) (Math.log(bytes) / Math.log(unit));
@@ -60,17 +128,19 @@ public class DependencyTree {
 			}
 		}
 
+		/**
+		 * The size of this node's artifact, or 0 if it hasn't been fetched.
+		 */
+		long size() {
+			if (size < 0) {
+				size = stat(artifactPath());
+			}
+			return size;
+		}
+
 		long totalSize() {
 			if (totalSize < 0) {
-				long total = 0;
-				Path path = artifactPath();
-				if (path != null && Files.exists(path)) {
-					try {
-						total += Files.size(path);
-					} catch (IOException e) {
-						// ignore
-					}
-				}
+				long total = size();
 				for (Node child : children) {
 					total += child.totalSize();
 				}
@@ -78,6 +148,14 @@ public class DependencyTree {
 			}
 			return totalSize;
 		}
+
+		/**
+		 * The space removing this node's dependency would save: the sizes of this node and
+		 * every node that's only reachable through it. Set by {@link #computeSizes()}.
+		 */
+		long uniqueSize() {
+			return uniqueSize;
+		}
 		
 		void print(PrintStream out, String prefix, boolean isLast, long rootTotal, boolean sort, boolean showGroupId) {
 			String cs;
@@ -95,27 +173,24 @@ public class DependencyTree {
 			}
 			long nodeTotal = totalSize();
 			String totalSizeStr = formatBytes(nodeTotal);
-			if (children.isEmpty() || nodeTotal == 0) totalSizeStr = "";
-			double percentValue = 100.0 * nodeTotal / rootTotal;
+			String uniqueSizeStr = formatBytes(uniqueSize);
+			if (children.isEmpty() || nodeTotal == 0) {
+				totalSizeStr = "";
+				uniqueSizeStr = "";
+			}
+			// the percentage is of the unique size, so the share of the total actually attributable to this node
+			double percentValue = 100.0 * uniqueSize / rootTotal;
 			String percent = rootTotal > 0 ? String.format(percentValue < 10.0 ? "%.1f%%" : "%.0f%%", percentValue) : (rootTotal == 0 && nodeTotal == 0 && depth == 0 ? "100.0%" : "");
 
 			Path path = artifactPath();
 			String license = license();
 
-			String format = "%-60s %8s %8s %6s   %s\n";
 			int ansiLength = cs.length() - cs.replaceAll("\033\\[[0-9;]*m", "").length();
 			String padding = " ".repeat(Math.max(0, 60 + ansiLength - cs.length()));
 			String paddedCs = cs + padding;
 
-			if (path != null && Files.exists(path)) {
-				try {
-					out.format("%s %8s %8s %6s   %s\n", paddedCs, formatBytes(Files.size(path)), totalSizeStr, percent, license);
-				} catch (IOException e) {
-					out.format("%s %8s %8s %6s   %s\n", paddedCs, "", totalSizeStr, percent, license);
-				}
-			} else {
-				out.format("%s %8s %8s %6s   %s\n", paddedCs, "", totalSizeStr, percent, license);
-			}
+			String sizeStr = path != null && size() > 0 ? formatBytes(size()) : "";
+			out.format("%s %8s %8s %8s %6s   %s\n", paddedCs, sizeStr, totalSizeStr, uniqueSizeStr, percent, license);
 
 			if (sort) children.sort(Comparator.comparing(Node::totalSize).reversed());
 
@@ -125,13 +200,17 @@ public class DependencyTree {
 		}
 
         private String license() {
-			if (model.getLicenses() == null || model.getLicenses().isEmpty()) return "";
+			return String.join(", ", licenses());
+		}
+
+		List<String> licenses() {
+			if (model.getLicenses() == null || model.getLicenses().isEmpty()) return List.of();
 			return model.getLicenses().stream().map(License::getName)
 					.filter(Objects::nonNull)
 					.map(Node::normalizeLicenseName)
 					.distinct()
 					.sorted()
-					.collect(Collectors.joining(", "));
+					.toList();
 		}
 
 		private static String normalizeLicenseName(String name) {
@@ -154,14 +233,27 @@ public class DependencyTree {
 		}
 
 		Coord coord() {
-			return new Coord(model.getGroupId(), model.getArtifactId());
+			if (coord == null) return new Coord(model.getGroupId(), model.getArtifactId());
+			return coord;
 		}
 
 		String version() {
-			if (model == null) return null;
-			String v = versions.get(coord());
-			if (v == null) return model.getVersion();
-			return v;
+			if (version == null) return model == null ? null : model.getVersion();
+			return version;
+		}
+
+		/**
+		 * The scope of the request that selected this node.
+		 */
+		String scope() {
+			return incoming.isEmpty() ? null : incoming.get(0).scope();
+		}
+
+		boolean isOn(Classpath classpath) {
+			for (String scope : scopes) {
+				if (classpath.scopes.contains(scope)) return true;
+			}
+			return false;
 		}
 
 		Path artifactPath() {
@@ -178,9 +270,13 @@ public class DependencyTree {
 
 	public void resolve(Model project) throws XMLStreamException, IOException {
 		workspace.resolveImports(project);
+		nodes.clear();
+		unconstrained.clear();
+		systemPaths.clear();
+		classpaths.clear();
 		root = new Node();
 		root.depth = 0;
-		root.exclusions = new HashSet<>();
+		root.exclusions = Set.of();
 		root.model = project;
 
 		Queue<Node> queue = new LinkedList<>();
@@ -192,49 +288,73 @@ public class DependencyTree {
 
 			for (int i = 0; i < levelSize; i++) {
 				Node parent = queue.poll();
-				parent.children = new ArrayList<>();
 				for (Dependency dep : parent.model.getDependencies()) {
 					Coord coord = new Coord(dep.getGroupId(), dep.getArtifactId());
-					String scope = dep.getScope();
-					boolean scopeOk = scope == null || scope.equals("compile") || scope.equals("runtime")
-							|| (parent == root && scope.equals("test"));
-					if (!parent.exclusions.contains(coord) && scopeOk
-							&& (dep.getOptional() == null || !dep.getOptional())) {
+					String scope = dep.getScope() == null ? "compile" : dep.getScope();
+					// provided and test dependencies aren't transitive
+					boolean scopeOk = scope.equals("compile") || scope.equals("runtime")
+							|| (parent == root && (scope.equals("test") || scope.equals("provided")));
+					if (parent == root && scope.equals("system") && dep.getSystemPath() != null) {
+						systemPaths.add(Path.of(dep.getSystemPath()));
+						continue;
+					}
+					if (parent.exclusions.contains(coord) || !scopeOk
+							|| (dep.getOptional() != null && dep.getOptional())) {
+						continue;
+					}
 
-						String version = root.model.findManagedVersion(dep);
-						if (version == null) {
-							version = dep.getVersion();
+					String version = root.model.findManagedVersion(dep);
+					if (version == null) {
+						version = dep.getVersion();
+					}
+					if (version == null) {
+						version = parent.model.findManagedVersion(dep);
+					}
+					if (version != null && (version.startsWith("[") || version.startsWith("("))) {
+						version = null;
+					}
+
+					Set<Coord> exclusions = Set.of();
+					if (!dep.getExclusions().isEmpty()) {
+						exclusions = new HashSet<>();
+						for (Exclusion exclusion : dep.getExclusions()) {
+							exclusions.add(new Coord(exclusion.getGroupId(), exclusion.getArtifactId()));
 						}
+					}
+
+					Node node = nodes.get(coord);
+					if (node == null) {
 						if (version == null) {
-							version = parent.model.findManagedVersion(dep);
+							unconstrained.add(coord);
+							continue;
 						}
-
-						if (version == null || version.startsWith("[") || version.startsWith("(")) {
-							if (!versions.containsKey(coord)) {
-								unconstrained.add(coord);
-							}
+						unconstrained.remove(coord);
+						node = new Node();
+						node.coord = coord;
+						node.version = version;
+						node.depth = parent.depth + 1;
+						if (exclusions.isEmpty()) {
+							// share the parent's set rather than copying it
+							node.exclusions = parent.exclusions;
 						} else {
-							if (versions.putIfAbsent(coord, version) == null) {
-								unconstrained.remove(coord);
-								Node node = new Node();
-								node.depth = parent.depth + 1;
-								node.exclusions = new HashSet<>(parent.exclusions);
-								for (Exclusion exclusion : dep.getExclusions()) {
-									node.exclusions.add(new Coord(exclusion.getGroupId(), exclusion.getArtifactId()));
-								}
-								node.source = dep;
-								String finalVersion = version;
-								Node finalNode = node;
-								node.future = workspace.executor.submit(() -> {
-									Model m = workspace.resolveProject(coord, finalVersion);
-									finalNode.model = m;
-									return m;
-								});
-								parent.children.add(node);
-								currentLevelNodes.add(node);
-							}
+							node.exclusions = new HashSet<>(parent.exclusions);
+							node.exclusions.addAll(exclusions);
 						}
+						node.source = dep;
+						String finalVersion = version;
+						Node finalNode = node;
+						node.future = workspace.executor.submit(() -> {
+							Model m = workspace.resolveProject(coord, finalVersion);
+							finalNode.model = m;
+							return m;
+						});
+						nodes.put(coord, node);
+						parent.children.add(node);
+						currentLevelNodes.add(node);
 					}
+					Edge edge = new Edge(parent, node, version, scope, exclusions);
+					parent.edges.add(edge);
+					node.incoming.add(edge);
 				}
 			}
 
@@ -247,29 +367,96 @@ public class DependencyTree {
 			}
 			queue.addAll(currentLevelNodes);
 		}
+		propagateScopes();
 	}
-	
-	private void buildClasspath(Node node, List<Path> out, Set<Coord> seen) {
-		if (node.source != null) {
-			Coord coord = node.coord();
-			if (seen.add(coord)) {
-				out.add(node.artifactPath());
+
+	/**
+	 * Tags each node with every scope it's reachable in, revisiting a node's requests
+	 * whenever it gains a scope. As in Maven the nearest declaration wins, so a dependency
+	 * the project declares directly keeps only its declared scope and isn't widened by
+	 * transitive requests for it.
+	 */
+	private void propagateScopes() {
+		Deque<Node> work = new ArrayDeque<>();
+		work.add(root);
+		while (!work.isEmpty()) {
+			Node parent = work.poll();
+			for (Edge edge : parent.edges) {
+				boolean changed = false;
+				if (parent == root) {
+					changed = edge.child().scopes.add(edge.scope());
+				} else if (!isDirect(edge.child())) {
+					for (String parentScope : parent.scopes) {
+						String scope = transitiveScope(parentScope, edge.scope());
+						if (scope != null) {
+							changed |= edge.child().scopes.add(scope);
+						}
+					}
+				}
+				if (changed) {
+					work.add(edge.child());
+				}
 			}
 		}
+	}
+
+	private boolean isDirect(Node node) {
+		for (Edge edge : node.incoming) {
+			if (edge.parent() == root) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The scope a dependency with the given scope has when reached through a dependency
+	 * with the parent's scope, following Maven's table, or null if it isn't included.
+	 */
+	static String transitiveScope(String parentScope, String scope) {
+		if (!scope.equals("compile") && !scope.equals("runtime")) return null;
+		return switch (parentScope) {
+			case "compile" -> scope;
+			case "provided", "runtime", "test" -> parentScope;
+			default -> null;
+		};
+	}
+
+	private void buildClasspath(Node node, List<Node> out) {
 		for (Node child : node.children) {
-			buildClasspath(child, out, seen);
+			out.add(child);
+			buildClasspath(child, out);
 		}
 	}
 
-	public List<Path> classpathFiles() {
-		List<Path> files = new ArrayList<>();
-		Set<Coord> seen = new HashSet<>();
-		buildClasspath(root, files, seen);
+	/**
+	 * The nodes on a classpath, in the order of a preorder walk of the spanning tree.
+	 * Each classpath is computed once.
+	 */
+	List<Node> classpathNodes(Classpath classpath) {
+		List<Node> cached = classpaths.get(classpath);
+		if (cached == null) {
+			List<Node> order = new ArrayList<>(nodes.size());
+			buildClasspath(root, order);
+			order.removeIf(node -> !node.isOn(classpath));
+			cached = Collections.unmodifiableList(order);
+			classpaths.put(classpath, cached);
+		}
+		return cached;
+	}
+
+	public List<Path> classpathFiles(Classpath classpath) {
+		List<Node> nodes = classpathNodes(classpath);
+		List<Path> files = new ArrayList<>(nodes.size() + systemPaths.size());
+		for (Node node : nodes) {
+			files.add(node.artifactPath());
+		}
+		if (classpath != Classpath.RUNTIME) {
+			files.addAll(systemPaths);
+		}
 		return files;
 	}
 
-	public List<String> classpathStrings() {
-		List<Path> files = classpathFiles();
+	public List<String> classpathStrings(Classpath classpath) {
+		List<Path> files = classpathFiles(classpath);
 		List<String> strings = new ArrayList<>(files.size());
 		for (Path file : files) {
 			strings.add(file.toString());
@@ -277,13 +464,111 @@ public class DependencyTree {
 		return strings;
 	}
 
-	public String classpath() {
-		return String.join(":", classpathStrings());
+	public String classpath(Classpath classpath) {
+		return String.join(":", classpathStrings(classpath));
 	}
-	
+
+	/**
+	 * Returns the size of a regular file, or 0 if it's missing or a directory.
+	 */
+	private static long stat(Path path) {
+		if (path == null) return 0;
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			return attributes.isRegularFile() ? attributes.size() : 0;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Stats every artifact in parallel and computes each node's total and unique size.
+	 * <p>
+	 * A node's unique size is the size of the nodes it dominates in the graph of every
+	 * dependency request: those that can't be reached from the root without passing
+	 * through it. Dominators are found with the Cooper, Harvey and Kennedy iterative
+	 * algorithm over the request edges, after which the sizes are summed in one pass up
+	 * the dominator tree.
+	 */
+	void computeSizes() {
+		List<Node> nodes = new ArrayList<>(this.nodes.size() + 1);
+		nodes.add(root);
+		nodes.addAll(this.nodes.values());
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).index = i;
+		}
+		nodes.parallelStream().forEach(Node::size);
+		int n = nodes.size();
+
+		// reverse postorder from the root
+		int[] order = new int[n];
+		int[] postorder = new int[n];
+		int count = 0;
+		boolean[] visited = new boolean[n];
+		Deque<int[]> stack = new ArrayDeque<>();
+		stack.push(new int[]{0, 0});
+		visited[0] = true;
+		while (!stack.isEmpty()) {
+			int[] frame = stack.peek();
+			List<Edge> next = nodes.get(frame[0]).edges;
+			if (frame[1] < next.size()) {
+				int successor = next.get(frame[1]++).child().index;
+				if (!visited[successor]) {
+					visited[successor] = true;
+					stack.push(new int[]{successor, 0});
+				}
+			} else {
+				stack.pop();
+				postorder[frame[0]] = count;
+				order[n - 1 - count] = frame[0];
+				count++;
+			}
+		}
+
+		int[] idom = new int[n];
+		Arrays.fill(idom, -1);
+		idom[0] = 0;
+		for (boolean changed = true; changed; ) {
+			changed = false;
+			for (int i = 1; i < n; i++) {
+				int b = order[i];
+				int newIdom = -1;
+				for (Edge edge : nodes.get(b).incoming) {
+					int p = edge.parent().index;
+					if (idom[p] < 0) continue;
+					newIdom = newIdom < 0 ? p : intersect(p, newIdom, idom, postorder);
+				}
+				if (idom[b] != newIdom) {
+					idom[b] = newIdom;
+					changed = true;
+				}
+			}
+		}
+
+		long[] unique = new long[n];
+		for (int i = n - 1; i >= 0; i--) {
+			int b = order[i];
+			unique[b] += nodes.get(b).size();
+			nodes.get(b).uniqueSize = unique[b];
+			if (b != 0) {
+				unique[idom[b]] += unique[b];
+			}
+		}
+		root.totalSize();
+	}
+
+	private static int intersect(int a, int b, int[] idom, int[] postorder) {
+		while (a != b) {
+			while (postorder[a] < postorder[b]) a = idom[a];
+			while (postorder[b] < postorder[a]) b = idom[b];
+		}
+		return a;
+	}
+
 	public void print(PrintStream out, boolean sort, boolean showGroupId) {
-		out.format("\033[90m%-60s %8s %8s %6s   %s\033[0m\n", "Artifact", "Size", "Total", "%", "License");
+		out.format("\033[90m%-60s %8s %8s %8s %6s   %s\033[0m\n", "Artifact", "Size", "Total", "Unique", "%", "License");
 		if (root != null) {
+			computeSizes();
 			root.print(out, "", true, root.totalSize(), sort, showGroupId);
 		}
 		if (!unconstrained.isEmpty()) {
@@ -294,9 +579,125 @@ public class DependencyTree {
 		}
 	}
 
+	/**
+	 * Writes the resolved graph as JSON for tools to consume. Nodes are listed in tree
+	 * order, each naming the parent whose dependency selected its version and any other
+	 * parents that requested it with the versions they asked for.
+	 */
+	void writeJson(Appendable out) throws IOException {
+		computeSizes();
+		Json.Generator json = new Json.Generator(out);
+		json.beginObject();
+		json.name("root");
+		json.beginObject();
+		writeCoordinates(json, root);
+		json.endObject();
+		json.name("nodes");
+		json.beginArray();
+		for (Node child : root.children) {
+			writeNode(json, root, child);
+		}
+		json.endArray();
+		json.name("unconstrained");
+		json.beginArray();
+		for (Coord coord : unconstrained) {
+			json.value(coord.toString());
+		}
+		json.endArray();
+		json.endObject();
+	}
+
+	private void writeNode(Json.Generator json, Node parent, Node node) throws IOException {
+		json.beginObject();
+		writeCoordinates(json, node);
+		json.name("requested").value(node.source.getVersion());
+		json.name("scope").value(node.scope());
+		json.name("scopes").value(node.scopes);
+		json.name("depth").value(node.depth);
+		json.name("parent").value(parent.coord().toString());
+		if (node.incoming.size() > 1) {
+			json.name("otherParents");
+			json.beginArray();
+			for (Edge edge : node.incoming.subList(1, node.incoming.size())) {
+				json.beginObject();
+				json.name("parent").value(edge.parent().coord().toString());
+				json.name("requested").value(edge.version());
+				json.endObject();
+			}
+			json.endArray();
+		}
+		json.name("size").value(node.size());
+		json.name("totalSize").value(node.totalSize());
+		json.name("uniqueSize").value(node.uniqueSize());
+		json.name("licenses").value(node.licenses());
+		json.endObject();
+		for (Node child : node.children) {
+			writeNode(json, node, child);
+		}
+	}
+
+	/**
+	 * Writes the classpath as a JSON array of the artifacts on it, in classpath order.
+	 */
+	void writeClasspathJson(Appendable out, Classpath classpath) throws IOException {
+		Json.Generator json = new Json.Generator(out);
+		json.beginArray();
+		for (Node node : classpathNodes(classpath)) {
+			json.beginObject();
+			writeCoordinates(json, node);
+			json.name("scopes").value(node.scopes);
+			json.name("size").value(node.size());
+			json.endObject();
+		}
+		if (classpath != Classpath.RUNTIME) {
+			for (Path path : systemPaths) {
+				json.beginObject();
+				json.name("path").value(path.toString());
+				json.name("scopes").value(List.of("system"));
+				json.endObject();
+			}
+		}
+		json.endArray();
+	}
+
+	private static void writeCoordinates(Json.Generator json, Node node) throws IOException {
+		json.name("groupId").value(node.model.getGroupId());
+		json.name("artifactId").value(node.model.getArtifactId());
+		json.name("version").value(node.version());
+		if (node.source != null) {
+			if (node.source.getClassifier() != null) {
+				json.name("classifier").value(node.source.getClassifier());
+			}
+			if (node.source.getType() != null) {
+				json.name("type").value(node.source.getType());
+			}
+			Path path = node.artifactPath();
+			json.name("path").value(path == null ? null : path.toString());
+		}
+	}
+
 	public void fetchDependencies(Node node) throws IOException {
+		fetch(node == root ? nodes.values() : subtree(node));
+	}
+
+	private List<Node> subtree(Node node) {
+		List<Node> subtree = new ArrayList<>();
+		subtree.add(node);
+		buildClasspath(node, subtree);
+		return subtree;
+	}
+
+	private void fetch(Collection<Node> nodes) throws IOException {
 		List<Future<?>> futures = new ArrayList<>();
-		fetchDependenciesRecursive(node, futures);
+		for (Node node : nodes) {
+			if (node.source != null && !workspace.isLocalModule(node.coord())) {
+				futures.add(workspace.executor.submit(() -> {
+					workspace.getCache().fetch(node.coord(), node.version(), node.source.getClassifier(),
+							node.source.getType());
+					return null;
+				}));
+			}
+		}
 		for (Future<?> future : futures) {
 			try {
 				future.get();
@@ -306,19 +707,6 @@ public class DependencyTree {
 		}
 	}
 
-	private void fetchDependenciesRecursive(Node node, List<Future<?>> futures) {
-		if (node.source != null && !workspace.isLocalModule(node.coord())) {
-			Coord coord = node.coord();
-			futures.add(workspace.executor.submit(() -> {
-				workspace.getCache().fetch(coord, versions.get(coord), node.source.getClassifier(), node.source.getType());
-				return null;
-			}));
-		}
-		for (Node child : node.children) {
-			fetchDependenciesRecursive(child, futures);
-		}
-	}
-	
 	public void fetchDependencies() throws IOException {
 		fetchDependencies(root);
 	}
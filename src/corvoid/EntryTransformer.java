@@ -0,0 +1,212 @@
+package corvoid;
+
+import java.io.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Claims jar entries that can't simply be taken from the first jar that contains them.
+ * <p>
+ * {@link JarWriter} hands every occurrence of a claimed entry to {@link #add} instead
+ * of writing it, then calls {@link #finish} when the jar is closed so the transformer
+ * can write whatever it merged. Only claimed entries are ever held in memory.
+ */
+interface EntryTransformer {
+	boolean handles(String name);
+
+	/**
+	 * @param origin the file name of the jar or directory the entry came from
+	 */
+	void add(String name, String origin, InputStream in) throws IOException;
+
+	void finish(JarWriter writer) throws IOException;
+
+	/**
+	 * Transformers for building a standalone jar out of many dependency jars.
+	 */
+	static List<EntryTransformer> defaults() {
+		return List.of(new Discard(), new ConcatenateLines(), new MergeListProperties(), new AppendNotices());
+	}
+
+	private static String fileName(String name) {
+		return name.substring(name.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Drops module descriptors and jar signatures, which are invalid once classes from
+	 * many jars share one.
+	 */
+	class Discard implements EntryTransformer {
+		@Override
+		public boolean handles(String name) {
+			if (fileName(name).equals("module-info.class")) {
+				return true;
+			}
+			if (!name.startsWith("META-INF/") || name.indexOf('/', 9) >= 0) {
+				return false;
+			}
+			String file = name.substring(9).toUpperCase(Locale.ROOT);
+			return file.endsWith(".SF") || file.endsWith(".DSA") || file.endsWith(".RSA") || file.endsWith(".EC")
+					|| file.startsWith("SIG-") || file.equals("INDEX.LIST");
+		}
+
+		@Override
+		public void add(String name, String origin, InputStream in) {
+		}
+
+		@Override
+		public void finish(JarWriter writer) {
+		}
+	}
+
+	/**
+	 * Concatenates ServiceLoader registrations and similar one-entry-per-line files,
+	 * dropping comments and duplicate lines.
+	 */
+	class ConcatenateLines implements EntryTransformer {
+		private final Map<String, Set<String>> files = new TreeMap<>();
+
+		@Override
+		public boolean handles(String name) {
+			return (name.startsWith("META-INF/services/") && name.indexOf('/', 18) < 0)
+					|| (name.startsWith("META-INF/spring/") && name.endsWith(".imports"));
+		}
+
+		@Override
+		public void add(String name, String origin, InputStream in) throws IOException {
+			Set<String> lines = files.computeIfAbsent(name, k -> new LinkedHashSet<>());
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				int comment = line.indexOf('#');
+				String value = (comment >= 0 ? line.substring(0, comment) : line).trim();
+				if (!value.isEmpty()) {
+					lines.add(value);
+				}
+			}
+		}
+
+		@Override
+		public void finish(JarWriter writer) throws IOException {
+			for (var file : files.entrySet()) {
+				StringBuilder content = new StringBuilder();
+				for (String line : file.getValue()) {
+					content.append(line).append('\n');
+				}
+				writer.put(file.getKey(), new ByteArrayInputStream(content.toString().getBytes(UTF_8)));
+			}
+		}
+	}
+
+	/**
+	 * Merges properties files whose values are comma-separated lists, such as
+	 * META-INF/spring.factories, by joining the lists for each key.
+	 */
+	class MergeListProperties implements EntryTransformer {
+		private final Map<String, Map<String, Set<String>>> files = new TreeMap<>();
+
+		@Override
+		public boolean handles(String name) {
+			return name.equals("META-INF/spring.factories");
+		}
+
+		@Override
+		public void add(String name, String origin, InputStream in) throws IOException {
+			Properties properties = new Properties();
+			properties.load(new InputStreamReader(in, UTF_8));
+			Map<String, Set<String>> merged = files.computeIfAbsent(name, k -> new TreeMap<>());
+			for (String key : properties.stringPropertyNames()) {
+				Set<String> values = merged.computeIfAbsent(key, k -> new LinkedHashSet<>());
+				for (String value : properties.getProperty(key).split(",")) {
+					if (!value.isBlank()) {
+						values.add(value.trim());
+					}
+				}
+			}
+		}
+
+		@Override
+		public void finish(JarWriter writer) throws IOException {
+			for (var file : files.entrySet()) {
+				StringBuilder content = new StringBuilder();
+				for (var property : file.getValue().entrySet()) {
+					content.append(escape(property.getKey(), true)).append('=');
+					List<String> values = new ArrayList<>();
+					for (String value : property.getValue()) {
+						values.add(escape(value, false));
+					}
+					content.append(String.join(",\\\n", values)).append('\n');
+				}
+				writer.put(file.getKey(), new ByteArrayInputStream(content.toString().getBytes(UTF_8)));
+			}
+		}
+
+		/**
+		 * Escapes a key or value as Properties.store would, so it reads back unchanged
+		 * whichever encoding the file is loaded with.
+		 */
+		private static String escape(String text, boolean key) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				switch (c) {
+					case '\t' -> sb.append("\\t");
+					case '\n' -> sb.append("\\n");
+					case '\r' -> sb.append("\\r");
+					case '\f' -> sb.append("\\f");
+					default -> {
+						if (c < 0x20 || c > 0x7e) {
+							sb.append(String.format("\\u%04X", (int) c));
+						} else {
+							if (c == '\\' || c == ' ' && (key || i == 0)
+									|| key && (c == '=' || c == ':' || c == '#' || c == '!')) {
+								sb.append('\\');
+							}
+							sb.append(c);
+						}
+					}
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Appends every distinct LICENSE and NOTICE file into one, noting where each came from.
+	 */
+	class AppendNotices implements EntryTransformer {
+		private final Map<String, StringBuilder> files = new TreeMap<>();
+		private final Set<String> seen = new HashSet<>();
+
+		@Override
+		public boolean handles(String name) {
+			String dir = name.substring(0, name.lastIndexOf('/') + 1);
+			if (!dir.isEmpty() && !dir.equals("META-INF/")) {
+				return false;
+			}
+			String file = fileName(name).toUpperCase(Locale.ROOT);
+			return file.startsWith("LICENSE") || file.startsWith("NOTICE");
+		}
+
+		@Override
+		public void add(String name, String origin, InputStream in) throws IOException {
+			String text = new String(in.readAllBytes(), UTF_8).strip();
+			// most Apache-licensed jars ship the identical license text
+			if (text.isEmpty() || !seen.add(name + "\0" + text)) {
+				return;
+			}
+			StringBuilder content = files.computeIfAbsent(name, k -> new StringBuilder());
+			if (!content.isEmpty()) {
+				content.append("\n\n");
+			}
+			content.append("=== ").append(origin).append(" ===\n\n").append(text).append('\n');
+		}
+
+		@Override
+		public void finish(JarWriter writer) throws IOException {
+			for (var file : files.entrySet()) {
+				writer.put(file.getKey(), new ByteArrayInputStream(file.getValue().toString().getBytes(UTF_8)));
+			}
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package corvoid;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Builds OCI container images without a daemon. Each layer is a reproducible gzipped tar
+ * so its digest depends only on its contents. Blobs live in an OCI image layout directory
+ * which doubles as the cache: a layer whose input files haven't changed since the last
+ * build is reused without being archived again, and registries skip blobs they already
+ * have, so typically only the project's classes are rebuilt and pushed.
+ */
+class ImageBuilder {
+	static final String INDEX_TYPE = "application/vnd.oci.image.index.v1+json";
+	static final String MANIFEST_TYPE = "application/vnd.oci.image.manifest.v1+json";
+	static final String CONFIG_TYPE = "application/vnd.oci.image.config.v1+json";
+	static final String LAYER_TYPE = "application/vnd.oci.image.layer.v1.tar+gzip";
+	private static final String DOCKER_LIST_TYPE = "application/vnd.docker.distribution.manifest.list.v2+json";
+
+	private final Path layoutDir;
+	private final Path blobs;
+	private final Instant timestamp;
+	private final List<Layer> layers = new ArrayList<>();
+
+	private record Layer(String name, SortedMap<String, Path> files) {}
+
+	record BuiltLayer(String name, String digest, String diffId, long size, boolean cached) {}
+
+	/**
+	 * @param layoutDir OCI image layout directory holding the blobs of the last build
+	 * @param timestamp modification time of every file and the image creation time
+	 */
+	ImageBuilder(Path layoutDir, Instant timestamp) {
+		this.layoutDir = layoutDir;
+		this.blobs = layoutDir.resolve("blobs").resolve("sha256");
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Adds a layer containing the given files, keyed by their path inside the image
+	 * (without a leading slash). Empty layers are omitted.
+	 */
+	void addLayer(String name, SortedMap<String, Path> files) {
+		if (!files.isEmpty()) {
+			layers.add(new Layer(name, files));
+		}
+	}
+
+	/**
+	 * Writes the image to the layout directory and packs the layout into a tarball.
+	 *
+	 * @param base       OCI image layout directory of the image to build on, or null
+	 * @param tag        reference name recorded in index.json
+	 * @param entrypoint command the container runs
+	 */
+	List<BuiltLayer> write(Path base, String tag, List<String> entrypoint, Path tarball) throws IOException {
+		Files.createDirectories(blobs);
+		Path cacheFile = layoutDir.resolve("layers.json");
+		Map<String, Object> cache = readJson(cacheFile) instanceof Map<?, ?> map ? cast(map) : new LinkedHashMap<>();
+		Map<String, Object> newCache = new LinkedHashMap<>();
+
+		Map<String, Object> config;
+		List<Object> layerDescriptors = new ArrayList<>();
+		List<Object> diffIds = new ArrayList<>();
+		List<Object> history = new ArrayList<>();
+		if (base != null) {
+			Map<String, Object> manifest = baseManifest(base);
+			Map<String, Object> baseConfig = cast((Map<?, ?>) manifest.get("config"));
+			config = cast((Map<?, ?>) readJson(blob(base, (String) baseConfig.get("digest"))));
+			for (Object o : (List<?>) manifest.get("layers")) {
+				String digest = (String) ((Map<?, ?>) o).get("digest");
+				Path target = blobs.resolve(hex(digest));
+				if (!Files.exists(target)) {
+					Files.copy(blob(base, digest), target);
+				}
+				layerDescriptors.add(o);
+			}
+			if (config.get("rootfs") instanceof Map<?, ?> rootfs && rootfs.get("diff_ids") instanceof List<?> ids) {
+				diffIds.addAll(ids);
+			}
+			if (config.get("history") instanceof List<?> baseHistory) {
+				history.addAll(baseHistory);
+			}
+		} else {
+			config = new LinkedHashMap<>();
+			config.put("architecture", architecture());
+			config.put("os", "linux");
+		}
+
+		List<BuiltLayer> built = new ArrayList<>();
+		for (Layer layer : layers) {
+			BuiltLayer result = buildLayer(layer, cache, newCache);
+			built.add(result);
+			layerDescriptors.add(descriptor(LAYER_TYPE, result.digest(), result.size()));
+			diffIds.add(result.diffId());
+			Map<String, Object> event = new LinkedHashMap<>();
+			event.put("created", timestamp.toString());
+			event.put("created_by", "corvoid image: " + layer.name());
+			history.add(event);
+		}
+
+		Map<String, Object> runtime = config.get("config") instanceof Map<?, ?> map ? cast(map) : new LinkedHashMap<>();
+		runtime.put("Entrypoint", entrypoint);
+		runtime.remove("Cmd");
+		runtime.put("WorkingDir", "/app");
+		config.put("created", timestamp.toString());
+		config.put("config", runtime);
+		Map<String, Object> rootfs = new LinkedHashMap<>();
+		rootfs.put("type", "layers");
+		rootfs.put("diff_ids", diffIds);
+		config.put("rootfs", rootfs);
+		config.put("history", history);
+		byte[] configJson = jsonBytes(config);
+		String configDigest = putBlob(configJson);
+
+		Map<String, Object> manifest = new LinkedHashMap<>();
+		manifest.put("schemaVersion", 2);
+		manifest.put("mediaType", MANIFEST_TYPE);
+		manifest.put("config", descriptor(CONFIG_TYPE, configDigest, configJson.length));
+		manifest.put("layers", layerDescriptors);
+		byte[] manifestJson = jsonBytes(manifest);
+		Map<String, Object> manifestDescriptor = descriptor(MANIFEST_TYPE, putBlob(manifestJson), manifestJson.length);
+		manifestDescriptor.put("annotations", Map.of("org.opencontainers.image.ref.name", tag));
+
+		Map<String, Object> index = new LinkedHashMap<>();
+		index.put("schemaVersion", 2);
+		index.put("mediaType", INDEX_TYPE);
+		index.put("manifests", List.of(manifestDescriptor));
+		Files.write(layoutDir.resolve("oci-layout"), jsonBytes(Map.of("imageLayoutVersion", "1.0.0")));
+		Files.write(layoutDir.resolve("index.json"), jsonBytes(index));
+		try (OutputStream out = Files.newOutputStream(cacheFile)) {
+			Json.write(out, newCache);
+		}
+
+		SortedSet<String> referenced = new TreeSet<>();
+		referenced.add(hex(configDigest));
+		referenced.add(hex((String) manifestDescriptor.get("digest")));
+		for (Object o : layerDescriptors) {
+			referenced.add(hex((String) ((Map<?, ?>) o).get("digest")));
+		}
+		deleteUnreferencedBlobs(referenced);
+		writeTarball(tarball, referenced);
+		return built;
+	}
+
+	private BuiltLayer buildLayer(Layer layer, Map<String, Object> cache, Map<String, Object> newCache) throws IOException {
+		String key = layerKey(layer);
+		if (cache.get(key) instanceof Map<?, ?> entry
+				&& entry.get("digest") instanceof String digest
+				&& entry.get("diffId") instanceof String diffId
+				&& entry.get("size") instanceof Number size
+				&& Files.exists(blobs.resolve(hex(digest)))) {
+			newCache.put(key, entry);
+			return new BuiltLayer(layer.name(), digest, diffId, size.longValue(), true);
+		}
+
+		SortedMap<String, Path> entries = new TreeMap<>();
+		for (var file : layer.files().entrySet()) {
+			String path = file.getKey();
+			for (int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+				entries.put(path.substring(0, i + 1), null);
+			}
+			entries.put(path, file.getValue());
+		}
+
+		MessageDigest compressed = sha256();
+		MessageDigest uncompressed = sha256();
+		Path tmp = layoutDir.resolve("layer.tmp");
+		try {
+			try (OutputStream file = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), compressed);
+				 GZIPOutputStream gzip = new GZIPOutputStream(file, 65536);
+				 TarWriter tar = new TarWriter(new DigestOutputStream(gzip, uncompressed), timestamp)) {
+				for (var entry : entries.entrySet()) {
+					if (entry.getValue() == null) {
+						tar.directory(entry.getKey().substring(0, entry.getKey().length() - 1));
+					} else {
+						tar.file(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+			String digest = "sha256:" + HexFormat.of().formatHex(compressed.digest());
+			String diffId = "sha256:" + HexFormat.of().formatHex(uncompressed.digest());
+			long size = Files.size(tmp);
+			Files.move(tmp, blobs.resolve(hex(digest)), StandardCopyOption.REPLACE_EXISTING);
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("digest", digest);
+			entry.put("diffId", diffId);
+			entry.put("size", size);
+			newCache.put(key, entry);
+			return new BuiltLayer(layer.name(), digest, diffId, size, false);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Hashes the layer's file list with sizes and modification times, which is enough
+	 * to tell whether it needs to be archived again without reading the contents.
+	 */
+	private String layerKey(Layer layer) throws IOException {
+		MessageDigest digest = sha256();
+		digest.update((layer.name() + "\n" + timestamp + "\n").getBytes(UTF_8));
+		for (var file : layer.files().entrySet()) {
+			Path source = file.getValue();
+			String line = file.getKey() + "\0" + source + "\0" + Files.size(source) + "\0"
+					+ Files.getLastModifiedTime(source).toMillis() + "\n";
+			digest.update(line.getBytes(UTF_8));
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Finds the image manifest in a base image layout, choosing the linux manifest for
+	 * this machine's architecture when the index lists several platforms.
+	 */
+	private Map<String, Object> baseManifest(Path base) throws IOException {
+		Path indexFile = base.resolve("index.json");
+		if (!Files.exists(indexFile)) {
+			throw new IOException(base + " is not an OCI image layout (no index.json)");
+		}
+		Map<?, ?> index = (Map<?, ?>) readJson(indexFile);
+		while (true) {
+			Map<?, ?> chosen = null;
+			for (Object o : (List<?>) index.get("manifests")) {
+				Map<?, ?> descriptor = (Map<?, ?>) o;
+				if (chosen == null) {
+					chosen = descriptor;
+				}
+				if (descriptor.get("platform") instanceof Map<?, ?> platform
+						&& "linux".equals(platform.get("os"))
+						&& architecture().equals(platform.get("architecture"))) {
+					chosen = descriptor;
+					break;
+				}
+			}
+			if (chosen == null) {
+				throw new IOException(base + " contains no images");
+			}
+			Object document = readJson(blob(base, (String) chosen.get("digest")));
+			Object mediaType = ((Map<?, ?>) document).get("mediaType");
+			if (mediaType == null) {
+				mediaType = chosen.get("mediaType");
+			}
+			if (!INDEX_TYPE.equals(mediaType) && !DOCKER_LIST_TYPE.equals(mediaType)) {
+				return cast((Map<?, ?>) document);
+			}
+			index = (Map<?, ?>) document;
+		}
+	}
+
+	private static String architecture() {
+		return switch (System.getProperty("os.arch")) {
+			case "aarch64", "arm64" -> "arm64";
+			case "x86_64", "amd64" -> "amd64";
+			default -> System.getProperty("os.arch");
+		};
+	}
+
+	private void deleteUnreferencedBlobs(Set<String> referenced) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(blobs)) {
+			for (Path blob : stream) {
+				if (!referenced.contains(blob.getFileName().toString())) {
+					Files.delete(blob);
+				}
+			}
+		}
+	}
+
+	private void writeTarball(Path tarball, SortedSet<String> blobNames) throws IOException {
+		Path tmp = tarball.resolveSibling(tarball.getFileName() + ".tmp");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 65536);
+			 TarWriter tar = new TarWriter(out, timestamp)) {
+			tar.file("oci-layout", layoutDir.resolve("oci-layout"));
+			tar.file("index.json", layoutDir.resolve("index.json"));
+			tar.directory("blobs");
+			tar.directory("blobs/sha256");
+			for (String name : blobNames) {
+				tar.file("blobs/sha256/" + name, blobs.resolve(name));
+			}
+		}
+		Files.move(tmp, tarball, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private String putBlob(byte[] data) throws IOException {
+		String digest = "sha256:" + HexFormat.of().formatHex(sha256().digest(data));
+		Files.write(blobs.resolve(hex(digest)), data);
+		return digest;
+	}
+
+	private static Map<String, Object> descriptor(String mediaType, String digest, long size) {
+		Map<String, Object> descriptor = new LinkedHashMap<>();
+		descriptor.put("mediaType", mediaType);
+		descriptor.put("digest", digest);
+		descriptor.put("size", size);
+		return descriptor;
+	}
+
+	private static Path blob(Path layout, String digest) throws IOException {
+		if (digest == null || !digest.startsWith("sha256:")) {
+			throw new IOException("Unsupported digest in " + layout + ": " + digest);
+		}
+		return layout.resolve("blobs").resolve("sha256").resolve(hex(digest));
+	}
+
+	private static String hex(String digest) {
+		return digest.substring(digest.indexOf(':') + 1);
+	}
+
+	private static Object readJson(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try (InputStream in = Files.newInputStream(file)) {
+			return Json.read(in);
+		}
+	}
+
+	private static byte[] jsonBytes(Object value) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		Json.write(sb, value);
+		return sb.toString().getBytes(UTF_8);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> cast(Map<?, ?> map) {
+		return new LinkedHashMap<>((Map<String, Object>) map);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
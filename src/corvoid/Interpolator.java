@@ -3,21 +3,45 @@ package corvoid;
 import corvoid.pom.Model;
 import corvoid.pom.Transformer;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
 class Interpolator implements Transformer {
 	private final Model project;
+	private final boolean keepUnresolved;
 
-	private Interpolator(Model project) {
+	private Interpolator(Model project, boolean keepUnresolved) {
 		this.project = project;
+		this.keepUnresolved = keepUnresolved;
 	}
 
 	static void interpolate(Model project) {
-		project.transform(new Interpolator(project));
+		project.transform(new Interpolator(project, false));
+	}
+
+	/**
+	 * Copies a resource line by line expanding ${...} expressions against the project.
+	 * Unknown expressions are left as-is, like Maven's resource filtering.
+	 */
+	static void filter(Model project, Reader in, Writer out) throws IOException {
+		Interpolator interpolator = new Interpolator(project, true);
+		StringBuilder line = new StringBuilder();
+		for (;;) {
+			int c = in.read();
+			if (c >= 0) line.append((char) c);
+			if (c == '\n' || (c < 0 && !line.isEmpty())) {
+				out.write(interpolator.interpolate(line.toString()));
+				line.setLength(0);
+			}
+			if (c < 0) break;
+		}
 	}
 
 	private String interpolate(String s) {
 		if (s == null) return s;
-		int pos = s.indexOf('$');
-		if (pos < 0) return s;
+		if (s.indexOf('$') < 0) return s;
+		int pos = 0;
 		StringBuilder out = null;
 		for (;;) {
 			int i = s.indexOf("${", pos);
@@ -31,7 +55,12 @@ class Interpolator implements Transformer {
 			String key = s.substring(i + 2, j);
 			if (out == null) out = new StringBuilder(s.length());
 			out.append(s, pos, i);
-			out.append(interpolate(resolveInterpolation(key)));
+			String value = resolveInterpolation(key);
+			if (value == null) {
+				out.append(s, i, j + 1);
+			} else {
+				out.append(interpolate(value));
+			}
 			pos = j + 1;
 		}
 		if (out == null) return s;
@@ -60,6 +89,9 @@ class Interpolator implements Transformer {
 		if (value != null) {
 			return value;
 		}
+		if (keepUnresolved) {
+			return null;
+		}
 		if (System.getenv("CORVOID_VERBOSE") != null) {
 			System.err.println(project.getGroupId() + ":" + project.getArtifactId()
 					+ ":" + project.getVersion()
@@ -1,96 +1,476 @@
 package corvoid;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Set;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
 
+/**
+ * Writes jar files, copying entries from other jars without recompressing them.
+ * <p>
+ * Entries from dependency jars are transferred as raw deflated bytes with the CRC and
+ * sizes taken from the source's central directory. Files from the project's output
+ * directories are deflated in parallel on the common pool but written in the order
+ * they were listed so the output doesn't depend on scheduling.
+ * <p>
+ * Entries claimed by an {@link EntryTransformer} are passed to it rather than
+ * written, and whatever it merged is written when the jar is closed.
+ * <p>
+ * A jar can be split into segments with {@link #startSegment()}. Within a segment the
+ * first entry with a given name wins, while an entry in a later segment replaces the
+ * earlier one in the central directory. The bytes of a segment only depend on what
+ * went into it, so a jar can be {@link #resume resumed} from the end of a segment
+ * that hasn't changed.
+ * <p>
+ * Output is reproducible: files from directories are added in sorted order and every
+ * entry gets the same timestamp, {@link #DEFAULT_TIMESTAMP} unless the project sets
+ * one, so rebuilding unchanged inputs gives a byte-identical jar.
+ */
 class JarWriter implements Closeable {
-    private final byte[] buffer = new byte[65536];
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final long ZIP64_LIMIT = 0xffffffffL;
+    private static final int PARALLEL_WINDOW = Runtime.getRuntime().availableProcessors() * 4;
+
+    /**
+     * Earliest timestamp that zip tools agree on across time zones.
+     */
+    static final Instant DEFAULT_TIMESTAMP = Instant.parse("1980-02-01T00:00:00Z");
+
     private final Set<String> seen = new HashSet<>();
-    private final ZipOutputStream out;
+    private final List<EntryTransformer> transformers = new ArrayList<>();
+    private final List<CentralEntry> central = new ArrayList<>();
+    private final Map<String, Integer> centralIndex = new HashMap<>();
+    private final FileChannel out;
+    private int entryTime = dosTime(DEFAULT_TIMESTAMP);
+
+    private record CentralEntry(byte[] name, int flags, int method, int dosTime, long crc, long compressedSize,
+                                long size, long offset) {
+        boolean needsZip64() {
+            return compressedSize >= ZIP64_LIMIT || size >= ZIP64_LIMIT || offset >= ZIP64_LIMIT;
+        }
+    }
 
-    public JarWriter(OutputStream out) {
-        this.out = new ZipOutputStream(out);
+    private record Deflated(String name, long crc, long size, byte[] data) {
     }
 
-    private void copyStream(InputStream in, OutputStream out) throws IOException {
-        for (;;) {
-            int n = in.read(buffer);
-            if (n < 0) break;
-            out.write(buffer, 0, n);
+    public JarWriter(Path file) throws IOException {
+        this(FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING));
+    }
+
+    private JarWriter(FileChannel out) {
+        this.out = out;
+    }
+
+    /**
+     * Reopens a jar previously written by JarWriter, keeping the entries before end and
+     * discarding everything after it.
+     *
+     * @param end a position returned by {@link #position()} when the jar was written
+     */
+    static JarWriter resume(Path file, long end) throws IOException {
+        FileChannel channel = FileChannel.open(file, READ, WRITE);
+        try {
+            JarWriter writer = new JarWriter(channel);
+            writer.readLocalHeaders(end);
+            channel.truncate(end);
+            channel.position(end);
+            return writer;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
         }
     }
 
-    public void putJarContents(ZipFile in) throws IOException {
-        Enumeration<? extends ZipEntry> e = in.entries();
-        while (e.hasMoreElements()) {
-            ZipEntry entry = e.nextElement();
-            if (!seen.add(entry.getName())) {
-                // TODO: concatenate duplicate META-INF/services/*
-                continue;
+    /**
+     * Rebuilds the central directory entries for the start of the file by walking the
+     * local headers, which always carry the real CRC and sizes in jars we wrote.
+     */
+    private void readLocalHeaders(long end) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 0;
+        while (position < end) {
+            readFully(fixed.clear(), position);
+            if (fixed.getInt(0) != LOCAL_HEADER_SIG) {
+                throw new ZipException("Invalid local header at " + position);
             }
-            entry.setCompressedSize(-1);
-            out.putNextEntry(entry);
-            try (InputStream stream = in.getInputStream(entry)) {
-                copyStream(stream, out);
+            int nameLength = fixed.getShort(26) & 0xffff;
+            int extraLength = fixed.getShort(28) & 0xffff;
+            ByteBuffer variable = ByteBuffer.allocate(nameLength + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(variable, position + 30);
+            byte[] name = Arrays.copyOf(variable.array(), nameLength);
+            long compressedSize = fixed.getInt(18) & 0xffffffffL;
+            long size = fixed.getInt(22) & 0xffffffffL;
+            if (extraLength >= 20 && variable.getShort(nameLength) == 1) {
+                size = variable.getLong(nameLength + 4);
+                compressedSize = variable.getLong(nameLength + 12);
+            }
+            addCentral(new CentralEntry(name, fixed.getShort(6) & 0xffff, fixed.getShort(8) & 0xffff,
+                    fixed.getInt(10), fixed.getInt(14) & 0xffffffffL, compressedSize, size, position));
+            seen.add(new String(name, UTF_8));
+            position += 30 + nameLength + extraLength + compressedSize;
+        }
+        if (position != end) {
+            throw new ZipException("Segment end " + end + " is not on an entry boundary");
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (out.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated jar file");
             }
-            out.closeEntry();
         }
     }
 
-    public void put(Path file) throws IOException {
-        put(file, "");
+    /**
+     * Sets the modification time recorded for entries written from now on.
+     */
+    void setTimestamp(Instant timestamp) {
+        entryTime = dosTime(timestamp);
     }
 
+    /**
+     * Returns the current end of the written entries.
+     */
+    long position() throws IOException {
+        return out.position();
+    }
+
+    /**
+     * Starts a new segment whose entries replace same-named entries of earlier segments.
+     */
+    void startSegment() {
+        seen.clear();
+    }
+
+    public void addTransformer(EntryTransformer transformer) {
+        transformers.add(transformer);
+    }
+
+    private EntryTransformer transformerFor(String name) {
+        for (EntryTransformer transformer : transformers) {
+            if (transformer.handles(name)) {
+                return transformer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies every entry of a jar that isn't already present, without inflating it.
+     */
+    public void putJarContents(Path jar) throws IOException {
+        putJarContents(jar, true);
+    }
+
+    /**
+     * Passes a jar's entries to the transformers that claim them without copying
+     * anything else, for jars already present in a resumed segment.
+     */
+    void transformJarContents(Path jar) throws IOException {
+        putJarContents(jar, false);
+    }
+
+    private void putJarContents(Path jar, boolean copy) throws IOException {
+        String origin = jar.getFileName().toString();
+        try (ZipIndex in = new ZipIndex(jar)) {
+            for (ZipIndex.Entry entry : in.entries()) {
+                // directory entries are copied too, for getResources("pkg/") and package scanning
+                EntryTransformer transformer = entry.isDirectory() ? null : transformerFor(entry.name());
+                if (transformer != null) {
+                    try (InputStream stream = in.open(entry)) {
+                        transformer.add(entry.name(), origin, stream);
+                    }
+                    continue;
+                }
+                if (!copy || !seen.add(entry.name())) {
+                    continue;
+                }
+                int flags = (entry.flags() & ~FLAG_DATA_DESCRIPTOR) | FLAG_UTF8;
+                writeLocalHeader(entry.name(), flags, entry.method(), entry.crc(),
+                        entry.compressedSize(), entry.size());
+                in.transferData(entry, out);
+            }
+        }
+    }
+
+    /**
+     * Adds the files under dir, deflating them in parallel.
+     */
     public void putDirContents(Path dir) throws IOException {
-        putDirContents(dir, "");
+        SortedMap<String, Path> files = new TreeMap<>();
+        listFiles(dir, dir, files);
+        Deque<Future<Deflated>> pending = new ArrayDeque<>();
+        for (var e : files.entrySet()) {
+            String name = e.getKey();
+            Path file = e.getValue();
+            EntryTransformer transformer = transformerFor(name);
+            if (transformer != null) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    transformer.add(name, dir.getFileName().toString(), in);
+                }
+                continue;
+            }
+            if (!seen.add(name)) {
+                continue;
+            }
+            pending.add(ForkJoinPool.commonPool().submit(() -> {
+                try (InputStream in = Files.newInputStream(file)) {
+                    return deflate(name, in);
+                }
+            }));
+            // bound the number of compressed entries held in memory
+            if (pending.size() >= PARALLEL_WINDOW) {
+                write(await(pending.removeFirst()));
+            }
+        }
+        while (!pending.isEmpty()) {
+            write(await(pending.removeFirst()));
+        }
     }
 
-    private void putDirContents(Path dir, String prefix) throws IOException {
+    private static void listFiles(Path root, Path dir, SortedMap<String, Path> files) throws IOException {
         try (Stream<Path> list = Files.list(dir)) {
             for (Path file : (Iterable<Path>) list::iterator) {
-                put(file, prefix);
+                if (Files.isDirectory(file)) {
+                    listFiles(root, file, files);
+                } else if (Files.isRegularFile(file)) {
+                    files.put(root.relativize(file).toString().replace(File.separatorChar, '/'), file);
+                }
             }
         }
     }
 
-    private void put(Path file, String prefix) throws IOException {
-        if (Files.isDirectory(file)) {
-            putDirContents(file, prefix + file.getFileName().toString() + "/");
-        } else if (Files.isRegularFile(file)) {
-            String path = prefix + file.getFileName().toString();
-            if (!seen.add(path)) {
-                return;
+    private static Deflated await(Future<Deflated> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static Deflated deflate(String name, InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(buffer, deflater, 8192)) {
+            byte[] chunk = new byte[8192];
+            for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+                crc.update(chunk, 0, n);
+                deflaterOut.write(chunk, 0, n);
+                size += n;
             }
-            out.putNextEntry(new ZipEntry(path));
-            try (InputStream in = Files.newInputStream(file)) {
-                copyStream(in, out);
+        } finally {
+            deflater.end();
+        }
+        return new Deflated(name, crc.getValue(), size, buffer.toByteArray());
+    }
+
+    private void write(Deflated entry) throws IOException {
+        writeLocalHeader(entry.name, FLAG_UTF8, ZipIndex.METHOD_DEFLATED, entry.crc,
+                entry.data.length, entry.size);
+        writeFully(ByteBuffer.wrap(entry.data));
+    }
+
+    /**
+     * Adds a file without compressing it, so its bytes can be read in place. The data
+     * is transferred directly from the file after a pass to compute its CRC.
+     */
+    public void putStored(String name, Path file) throws IOException {
+        if (!seen.add(name)) {
+            return;
+        }
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+            while (in.read(buffer) >= 0) {
+                crc.update(buffer.flip());
+                buffer.clear();
             }
-            out.closeEntry();
+            long size = in.size();
+            writeLocalHeader(name, FLAG_UTF8, ZipIndex.METHOD_STORED, crc.getValue(), size, size);
+            for (long position = 0; position < size; ) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    public void put(String name, InputStream in) throws IOException {
+        if (!seen.add(name)) {
+            return;
+        }
+        try (in) {
+            write(deflate(name, in));
         }
     }
 
     public void writeManifest(String mainClass) throws IOException {
-        String name = "META-INF/MANIFEST.MF";
-        String content = "Manifest-Version: 1.0\n";
-        if (mainClass != null) content += "Main-Class: " + mainClass + "\n";
-        seen.add(name);
-        out.putNextEntry(new ZipEntry(name));
-        out.write(content.getBytes(UTF_8));
-        out.closeEntry();
+        Map<String, String> attributes = new LinkedHashMap<>();
+        if (mainClass != null) attributes.put("Main-Class", mainClass);
+        writeManifest(attributes);
+    }
+
+    public void writeManifest(Map<String, String> attributes) throws IOException {
+        StringBuilder content = new StringBuilder("Manifest-Version: 1.0\n");
+        for (var attribute : attributes.entrySet()) {
+            content.append(attribute.getKey()).append(": ").append(attribute.getValue()).append("\n");
+        }
+        put("META-INF/MANIFEST.MF", new ByteArrayInputStream(content.toString().getBytes(UTF_8)));
+    }
+
+    /**
+     * Converts to MS-DOS date and time fields. These have no time zone so UTC is used
+     * to keep the result independent of where the jar was built.
+     */
+    static int dosTime(Instant instant) {
+        LocalDateTime t = LocalDateTime.ofInstant(instant, ZoneOffset.UTC);
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    private void writeLocalHeader(String name, int flags, int method, long crc, long compressedSize,
+                                  long size) throws IOException {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        long offset = out.position();
+        boolean zip64 = compressedSize >= ZIP64_LIMIT || size >= ZIP64_LIMIT;
+        ByteBuffer header = ByteBuffer.allocate(30 + nameBytes.length + (zip64 ? 20 : 0))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIG)
+                .putShort((short) (zip64 ? 45 : 20))
+                .putShort((short) flags)
+                .putShort((short) method)
+                .putInt(entryTime)
+                .putInt((int) crc)
+                .putInt((int) (zip64 ? ZIP64_LIMIT : compressedSize))
+                .putInt((int) (zip64 ? ZIP64_LIMIT : size))
+                .putShort((short) nameBytes.length)
+                .putShort((short) (zip64 ? 20 : 0))
+                .put(nameBytes);
+        if (zip64) {
+            header.putShort((short) 1).putShort((short) 16).putLong(size).putLong(compressedSize);
+        }
+        writeFully(header.flip());
+        addCentral(new CentralEntry(nameBytes, flags, method, entryTime, crc, compressedSize, size, offset));
+    }
+
+    private void addCentral(CentralEntry entry) {
+        Integer index = centralIndex.putIfAbsent(new String(entry.name, UTF_8), central.size());
+        if (index == null) {
+            central.add(entry);
+        } else {
+            // shadowed by a later segment, the earlier bytes are left unreferenced
+            central.set(index, entry);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = out.position();
+        for (CentralEntry e : central) {
+            boolean zip64 = e.needsZip64();
+            ByteBuffer header = ByteBuffer.allocate(46 + e.name.length + (zip64 ? 28 : 0))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER_SIG)
+                    .putShort((short) (zip64 ? 45 : 20))
+                    .putShort((short) (zip64 ? 45 : 20))
+                    .putShort((short) e.flags)
+                    .putShort((short) e.method)
+                    .putInt(e.dosTime)
+                    .putInt((int) e.crc)
+                    .putInt((int) (zip64 ? ZIP64_LIMIT : e.compressedSize))
+                    .putInt((int) (zip64 ? ZIP64_LIMIT : e.size))
+                    .putShort((short) e.name.length)
+                    .putShort((short) (zip64 ? 28 : 0))
+                    .putShort((short) 0)   // comment length
+                    .putShort((short) 0)   // disk number
+                    .putShort((short) 0)   // internal attributes
+                    .putInt(0)             // external attributes
+                    .putInt((int) (zip64 ? ZIP64_LIMIT : e.offset))
+                    .put(e.name);
+            if (zip64) {
+                header.putShort((short) 1).putShort((short) 24)
+                        .putLong(e.size).putLong(e.compressedSize).putLong(e.offset);
+            }
+            writeFully(header.flip());
+        }
+        long end = out.position();
+        long size = end - start;
+
+        ByteBuffer trailer = ByteBuffer.allocate(56 + 20 + 22).order(ByteOrder.LITTLE_ENDIAN);
+        boolean zip64 = central.size() >= 0xffff || start >= ZIP64_LIMIT || size >= ZIP64_LIMIT;
+        if (zip64) {
+            trailer.putInt(ZIP64_END_SIG)
+                    .putLong(44)           // size of the rest of this record
+                    .putShort((short) 45)
+                    .putShort((short) 45)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(central.size())
+                    .putLong(central.size())
+                    .putLong(size)
+                    .putLong(start);
+            trailer.putInt(ZIP64_LOCATOR_SIG)
+                    .putInt(0)
+                    .putLong(end)
+                    .putInt(1);
+        }
+        trailer.putInt(END_SIG)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) Math.min(central.size(), 0xffff))
+                .putShort((short) Math.min(central.size(), 0xffff))
+                .putInt((int) Math.min(size, ZIP64_LIMIT))
+                .putInt((int) Math.min(start, ZIP64_LIMIT))
+                .putShort((short) 0);
+        writeFully(trailer.flip());
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
     }
 
     @Override
     public void close() throws IOException {
-        this.out.close();
+        try (out) {
+            List<EntryTransformer> finishing = new ArrayList<>(transformers);
+            transformers.clear();
+            for (EntryTransformer transformer : finishing) {
+                transformer.finish(this);
+            }
+            writeCentralDirectory();
+        }
     }
 }
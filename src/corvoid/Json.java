@@ -1,220 +1,811 @@
 package corvoid;
 
 import java.io.*;
+import java.lang.reflect.*;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
 
+/**
+ * A small JSON reader and writer. {@link #read(InputStream)} and {@link #write(Appendable, Object)}
+ * convert between JSON text and trees of maps, lists, strings, numbers and booleans. For larger
+ * documents {@link Parser} and {@link Generator} stream tokens without building a tree, and
+ * {@link #read(InputStream, Class)} binds a document directly to records.
+ */
 class Json {
     static Object read(InputStream stream) throws IOException {
-        return read(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)));
+        return read(new InputStreamReader(stream, StandardCharsets.UTF_8));
     }
 
     static Object read(Reader reader) throws IOException {
-        return new Parser(reader).value();
+        Parser parser = new Parser(reader);
+        Object value = parser.readValue();
+        parser.end();
+        return value;
     }
 
-    private static class Parser {
+    /**
+     * Reads a document into the given type, which may be a record, a List or Map of
+     * bindable types, String, Boolean, Long, Integer, Double or Object (a tree).
+     */
+    static <T> T read(InputStream stream, Class<T> type) throws IOException {
+        return read(new InputStreamReader(stream, StandardCharsets.UTF_8), type);
+    }
+
+    static <T> T read(Reader reader, Class<T> type) throws IOException {
+        Parser parser = new Parser(reader);
+        T value = type.cast(parser.read(type));
+        parser.end();
+        return value;
+    }
+
+    static void write(OutputStream out, Object value) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        write(writer, value);
+        writer.flush();
+    }
+
+    /**
+     * Writes a tree of maps, collections, strings, numbers, booleans and records.
+     */
+    static void write(Appendable out, Object value) throws IOException {
+        new Generator(out).value(value);
+    }
+
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    /**
+     * A pull parser. Call {@link #peek()} to see what comes next and the matching begin, end
+     * or next method to consume it. Input is read in blocks into a char buffer, and strings
+     * and numbers are decoded straight out of it, so apart from the values returned the
+     * parser doesn't allocate.
+     */
+    static final class Parser {
+        private static final int EMPTY_DOCUMENT = 0;
+        private static final int NONEMPTY_DOCUMENT = 1;
+        private static final int EMPTY_ARRAY = 2;
+        private static final int NONEMPTY_ARRAY = 3;
+        private static final int EMPTY_OBJECT = 4;
+        private static final int DANGLING_NAME = 5;
+        private static final int NONEMPTY_OBJECT = 6;
+
         private final Reader reader;
-        private int peek = -2;
+        private char[] buffer;
+        private int pos;
+        private int limit;
+        private long offset;
+        private byte[] stack = new byte[32];
+        private int depth = 1;
+        private Token token;
+        private final StringBuilder scratch = new StringBuilder();
+        private boolean integer;
+        private long longValue;
 
         Parser(Reader reader) {
+            this(reader, 8192);
+        }
+
+        Parser(Reader reader, int bufferSize) {
             this.reader = reader;
+            this.buffer = new char[bufferSize];
+            stack[0] = EMPTY_DOCUMENT;
+        }
+
+        /**
+         * Returns the kind of the next token without consuming it.
+         */
+        Token peek() throws IOException {
+            if (token != null) return token;
+            switch (stack[depth - 1]) {
+                case EMPTY_DOCUMENT -> stack[depth - 1] = NONEMPTY_DOCUMENT;
+                case NONEMPTY_DOCUMENT -> {
+                    if (look() != -1) throw error("Unexpected data after the end of the document");
+                    return token = Token.END_DOCUMENT;
+                }
+                case EMPTY_ARRAY, NONEMPTY_ARRAY -> {
+                    int c = look();
+                    if (c == ']') {
+                        pos++;
+                        return token = Token.END_ARRAY;
+                    }
+                    if (stack[depth - 1] == NONEMPTY_ARRAY) {
+                        if (c != ',') throw error("Expected ',' or ']'");
+                        pos++;
+                    }
+                    stack[depth - 1] = NONEMPTY_ARRAY;
+                }
+                case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                    int c = look();
+                    if (c == '}') {
+                        pos++;
+                        return token = Token.END_OBJECT;
+                    }
+                    if (stack[depth - 1] == NONEMPTY_OBJECT) {
+                        if (c != ',') throw error("Expected ',' or '}'");
+                        pos++;
+                        c = look();
+                    }
+                    if (c != '"') throw error("Expected a name");
+                    pos++;
+                    stack[depth - 1] = DANGLING_NAME;
+                    return token = Token.NAME;
+                }
+                case DANGLING_NAME -> {
+                    if (look() != ':') throw error("Expected ':'");
+                    pos++;
+                    stack[depth - 1] = NONEMPTY_OBJECT;
+                }
+                default -> throw new IllegalStateException();
+            }
+            int c = look();
+            switch (c) {
+                case '"' -> {
+                    pos++;
+                    return token = Token.STRING;
+                }
+                case '{' -> {
+                    pos++;
+                    return token = Token.BEGIN_OBJECT;
+                }
+                case '[' -> {
+                    pos++;
+                    return token = Token.BEGIN_ARRAY;
+                }
+                case 't' -> {
+                    literal("true");
+                    return token = Token.TRUE;
+                }
+                case 'f' -> {
+                    literal("false");
+                    return token = Token.FALSE;
+                }
+                case 'n' -> {
+                    literal("null");
+                    return token = Token.NULL;
+                }
+                case '-', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
+                    return token = Token.NUMBER;
+                }
+                case -1 -> throw new EOFException("Unexpected end of JSON input");
+                default -> throw error("Unexpected character '" + (char) c + "'");
+            }
         }
 
-        private int peek() throws IOException {
-            if (peek == -2) peek = reader.read();
-            return peek;
+        void beginObject() throws IOException {
+            expect(Token.BEGIN_OBJECT);
+            push(EMPTY_OBJECT);
         }
 
-        private int next() throws IOException {
-            int c = peek();
-            peek = -2;
-            return c;
+        void endObject() throws IOException {
+            expect(Token.END_OBJECT);
+            depth--;
         }
 
-        private int look() throws IOException {
-            int c = peek();
-            while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
-                c = reader.read();
+        void beginArray() throws IOException {
+            expect(Token.BEGIN_ARRAY);
+            push(EMPTY_ARRAY);
+        }
+
+        void endArray() throws IOException {
+            expect(Token.END_ARRAY);
+            depth--;
+        }
+
+        /**
+         * Returns true if the current array or object has another element.
+         */
+        boolean hasNext() throws IOException {
+            Token next = peek();
+            return next != Token.END_OBJECT && next != Token.END_ARRAY && next != Token.END_DOCUMENT;
+        }
+
+        String nextName() throws IOException {
+            expect(Token.NAME);
+            return string();
+        }
+
+        /**
+         * Returns the next string, or the text of the next number.
+         */
+        String nextString() throws IOException {
+            if (peek() == Token.NUMBER) {
+                token = null;
+                number();
+                return scratch.toString();
             }
-            peek = c;
-            return c;
+            expect(Token.STRING);
+            return string();
         }
 
-        private void consume(int c) throws IOException {
-            if (next() != c) throw new IOException("Expected '" + (char) c + "'");
+        long nextLong() throws IOException {
+            if (peek() != Token.NUMBER) throw error("Expected a number but was " + token);
+            token = null;
+            number();
+            if (!integer) throw error("Expected an integer but was " + scratch);
+            return longValue;
         }
 
-        Object value() throws IOException {
-            return switch (look()) {
-                case '"' -> string();
-                case '{' -> object();
-                case '[' -> array();
-                case 't' -> literal("true", true);
-                case 'f' -> literal("false", false);
-                case 'n' -> literal("null", null);
-                case '-', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> number();
-                case -1 -> throw new EOFException();
-                default -> throw new IOException("Unexpected character");
-            };
+        double nextDouble() throws IOException {
+            if (peek() != Token.NUMBER) throw error("Expected a number but was " + token);
+            token = null;
+            number();
+            return integer ? longValue : parseDouble();
         }
 
-        private Object number() throws IOException {
-            StringBuilder buffer = new StringBuilder();
-            boolean dbl = false;
-            while (true) {
-                int c = peek();
-                if (c == 'e' || c == 'E' || c == '.') {
-                    dbl = true;
-                } else if ((c < '0' || c > '9') && c != '-' && c != '+') {
-                    try {
-                        if (dbl) return Double.parseDouble(buffer.toString());
-                        return Long.parseLong(buffer.toString());
-                    } catch (NumberFormatException e) {
-                        throw new IOException("Invalid number: " + buffer);
+        /**
+         * Returns the next number as a Long, or as a Double if it has a fraction or
+         * exponent or doesn't fit in a long.
+         */
+        Number nextNumber() throws IOException {
+            if (peek() != Token.NUMBER) throw error("Expected a number but was " + token);
+            token = null;
+            number();
+            if (integer) return longValue;
+            return parseDouble();
+        }
+
+        boolean nextBoolean() throws IOException {
+            Token next = peek();
+            if (next != Token.TRUE && next != Token.FALSE) throw error("Expected a boolean but was " + next);
+            token = null;
+            return next == Token.TRUE;
+        }
+
+        void nextNull() throws IOException {
+            expect(Token.NULL);
+        }
+
+        /**
+         * Skips the next value, including everything nested in it, without decoding it.
+         */
+        void skipValue() throws IOException {
+            int nesting = 0;
+            do {
+                switch (peek()) {
+                    case BEGIN_OBJECT -> {
+                        beginObject();
+                        nesting++;
+                    }
+                    case BEGIN_ARRAY -> {
+                        beginArray();
+                        nesting++;
+                    }
+                    case END_OBJECT -> {
+                        endObject();
+                        nesting--;
+                    }
+                    case END_ARRAY -> {
+                        endArray();
+                        nesting--;
+                    }
+                    case NAME, STRING -> {
+                        token = null;
+                        skipString();
                     }
+                    case NUMBER -> {
+                        token = null;
+                        number();
+                    }
+                    case TRUE, FALSE, NULL -> token = null;
+                    case END_DOCUMENT -> throw new EOFException("Unexpected end of JSON input");
                 }
-                buffer.append((char) next());
-            }
+            } while (nesting > 0);
         }
 
-        private Object literal(String s, Boolean value) throws IOException {
-            for (int i = 0; i < s.length(); i++) {
-                if (next() != s.charAt(i)) throw new IOException("Expected '" + s + "'");
+        /**
+         * Reads the next value as a tree of LinkedHashMaps, ArrayLists, Strings, Longs,
+         * Doubles, Booleans and nulls.
+         */
+        Object readValue() throws IOException {
+            switch (peek()) {
+                case BEGIN_OBJECT -> {
+                    beginObject();
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    while (hasNext()) {
+                        String name = nextName();
+                        map.put(name, readValue());
+                    }
+                    endObject();
+                    return map;
+                }
+                case BEGIN_ARRAY -> {
+                    beginArray();
+                    List<Object> list = new ArrayList<>();
+                    while (hasNext()) {
+                        list.add(readValue());
+                    }
+                    endArray();
+                    return list;
+                }
+                case STRING -> {
+                    return nextString();
+                }
+                case NUMBER -> {
+                    return nextNumber();
+                }
+                case TRUE, FALSE -> {
+                    return nextBoolean();
+                }
+                case NULL -> {
+                    nextNull();
+                    return null;
+                }
+                default -> throw error("Expected a value but was " + token);
             }
-            return value;
         }
 
-        private Object array() throws IOException {
-            consume('[');
-            Collection<Object> list = new ArrayList<>();
-            if (look() != ']') {
-                while (true) {
-                    list.add(value());
-                    if (look() == ']') break;
-                    consume(',');
+        /**
+         * Reads the next value into the given type. See {@link Json#read(Reader, Class)}.
+         */
+        Object read(Type type) throws IOException {
+            Class<?> raw = rawType(type);
+            if (peek() == Token.NULL) {
+                nextNull();
+                return defaultValue(raw);
+            }
+            if (raw == Object.class) return readValue();
+            if (raw == String.class) return nextString();
+            if (raw == long.class || raw == Long.class) return nextLong();
+            if (raw == int.class || raw == Integer.class) return Math.toIntExact(nextLong());
+            if (raw == double.class || raw == Double.class) return nextDouble();
+            if (raw == boolean.class || raw == Boolean.class) return nextBoolean();
+            if (raw == List.class || raw == Collection.class) {
+                Type elementType = typeArgument(type, 0);
+                List<Object> list = new ArrayList<>();
+                beginArray();
+                while (hasNext()) {
+                    list.add(read(elementType));
+                }
+                endArray();
+                return list;
+            }
+            if (raw == Map.class) {
+                Type valueType = typeArgument(type, 1);
+                Map<String, Object> map = new LinkedHashMap<>();
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    map.put(name, read(valueType));
                 }
+                endObject();
+                return map;
+            }
+            if (raw.isRecord()) return RecordBinding.of(raw).read(this);
+            throw new IllegalArgumentException("unsupported JSON binding type: " + type);
+        }
+
+        /**
+         * Checks that nothing but whitespace follows the value just read.
+         */
+        void end() throws IOException {
+            if (depth != 1 || peek() != Token.END_DOCUMENT) throw error("Unexpected data after the end of the document");
+        }
+
+        private void expect(Token expected) throws IOException {
+            Token next = peek();
+            if (next != expected) throw error("Expected " + expected + " but was " + next);
+            token = null;
+        }
+
+        private void push(int state) {
+            if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+            stack[depth++] = (byte) state;
+        }
+
+        private boolean fill() throws IOException {
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            int n;
+            while ((n = reader.read(buffer, 0, buffer.length)) == 0) {
+                // keep trying
             }
-            consume(']');
-            return list;
+            if (n < 0) return false;
+            limit = n;
+            return true;
         }
 
-        private Object object() throws IOException {
-            consume('{');
-            Map<String, Object> map = new LinkedHashMap<>();
-            if (look() != '}') {
-                while (true) {
-                    String key = string();
-                    consume(':');
-                    map.put(key, value());
-                    if (look() == '}') break;
-                    consume(',');
-                    look();
+        private int look() throws IOException {
+            while (true) {
+                while (pos < limit) {
+                    char c = buffer[pos];
+                    if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+                    pos++;
                 }
+                if (!fill()) return -1;
             }
-            consume('}');
-            return map;
         }
 
+        private int read() throws IOException {
+            if (pos == limit && !fill()) return -1;
+            return buffer[pos++];
+        }
+
+        private void literal(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                if (read() != s.charAt(i)) throw error("Expected '" + s + "'");
+            }
+        }
+
+        /**
+         * Decodes a string whose opening quote has been consumed. A string that lies
+         * entirely within the buffer and has no escapes is copied straight out of it.
+         */
         private String string() throws IOException {
-            consume('"');
-            StringBuilder sb = new StringBuilder();
+            for (int i = pos; i < limit; i++) {
+                char c = buffer[i];
+                if (c == '"') {
+                    String s = new String(buffer, pos, i - pos);
+                    pos = i + 1;
+                    return s;
+                }
+                if (c == '\\') break;
+            }
+            scratch.setLength(0);
             while (true) {
-                int c = next();
-                if (c < 0) throw new EOFException("Unterminated JSON string");
-                if (c == '"') return sb.toString();
-                if (c != '\\') {
-                    sb.append((char) c);
+                int start = pos;
+                while (pos < limit) {
+                    char c = buffer[pos];
+                    if (c == '"' || c == '\\') break;
+                    pos++;
+                }
+                scratch.append(buffer, start, pos - start);
+                if (pos == limit) {
+                    if (!fill()) throw new EOFException("Unterminated JSON string");
                     continue;
                 }
-                c = next();
-                sb.append(switch (c) {
-                    case '"', '\\', '/' -> (char) c;
-                    case 'b' -> '\b';
-                    case 'f' -> '\f';
-                    case 'n' -> '\n';
-                    case 'r' -> '\r';
-                    case 't' -> '\t';
-                    case 'u' -> {
-                        int x = 0;
-                        for (int i = 0; i < 4; i++) {
-                            c = next();
-                            int digit = Character.digit(c, 16);
-                            if (digit < 0) throw new IOException("Invalid hex digit in unicode escape: " + (char) c);
-                            x = (x << 4) + digit;
-                        }
-                        yield (char) x;
-                    }
-                    default -> throw new IOException("Invalid escape character: \\" + (char) c);
-                });
+                if (buffer[pos++] == '"') return scratch.toString();
+                scratch.append(escape());
             }
         }
+
+        private void skipString() throws IOException {
+            while (true) {
+                int c = read();
+                if (c == '"') return;
+                if (c == '\\') escape();
+                else if (c < 0) throw new EOFException("Unterminated JSON string");
+            }
+        }
+
+        private char escape() throws IOException {
+            int c = read();
+            return switch (c) {
+                case '"', '\\', '/' -> (char) c;
+                case 'b' -> '\b';
+                case 'f' -> '\f';
+                case 'n' -> '\n';
+                case 'r' -> '\r';
+                case 't' -> '\t';
+                case 'u' -> {
+                    int x = 0;
+                    for (int i = 0; i < 4; i++) {
+                        c = read();
+                        int digit = Character.digit(c, 16);
+                        if (digit < 0) throw error("Invalid hex digit in unicode escape: " + (char) c);
+                        x = (x << 4) + digit;
+                    }
+                    yield (char) x;
+                }
+                case -1 -> throw new EOFException("Unterminated JSON string");
+                default -> throw error("Invalid escape character: \\" + (char) c);
+            };
+        }
+
+        /**
+         * Copies the characters of a number into the scratch buffer, parsing it as a long
+         * on the way if it's an integer.
+         */
+        private void number() throws IOException {
+            scratch.setLength(0);
+            boolean fractional = false;
+            while (true) {
+                int start = pos;
+                while (pos < limit) {
+                    char c = buffer[pos];
+                    if (c == '.' || c == 'e' || c == 'E') {
+                        fractional = true;
+                    } else if ((c < '0' || c > '9') && c != '-' && c != '+') {
+                        break;
+                    }
+                    pos++;
+                }
+                scratch.append(buffer, start, pos - start);
+                if (pos < limit || !fill()) break;
+            }
+            integer = !fractional && parseLong();
+        }
+
+        /**
+         * Parses the scratch buffer into longValue, returning false if it isn't an integer
+         * that fits in a long.
+         */
+        private boolean parseLong() {
+            int length = scratch.length();
+            boolean negative = scratch.charAt(0) == '-';
+            int i = negative ? 1 : 0;
+            if (i == length) return false;
+            // accumulate negatively so that Long.MIN_VALUE fits
+            long value = 0;
+            for (; i < length; i++) {
+                char c = scratch.charAt(i);
+                if (c < '0' || c > '9' || value < Long.MIN_VALUE / 10) return false;
+                long next = value * 10 - (c - '0');
+                if (next > value) return false;
+                value = next;
+            }
+            if (!negative && value == Long.MIN_VALUE) return false;
+            longValue = negative ? value : -value;
+            return true;
+        }
+
+        private double parseDouble() throws IOException {
+            try {
+                return Double.parseDouble(scratch.toString());
+            } catch (NumberFormatException e) {
+                throw error("Invalid number: " + scratch);
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at offset " + (offset + pos));
+        }
     }
 
-    static void write(OutputStream out, Object value) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
-        write(writer, value);
-        writer.flush();
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class<?> c) return c;
+        if (type instanceof ParameterizedType p) return (Class<?>) p.getRawType();
+        if (type instanceof WildcardType w) return rawType(w.getUpperBounds()[0]);
+        return Object.class;
     }
 
-    static void write(Appendable out, Object value) throws IOException {
-        switch (value) {
-            case null -> out.append("null");
-            case Boolean b -> out.append(b.toString());
-            case String s -> {
-                out.append('"');
-                for (int i = 0; i < s.length(); i++) {
-                    char c = s.charAt(i);
-                    char escape = switch (c) {
-                        case '"' -> '"';
-                        case '\\' -> '\\';
-                        case '\b' -> 'b';
-                        case '\f' -> 'f';
-                        case '\n' -> 'n';
-                        case '\r' -> 'r';
-                        case '\t' -> 't';
-                        default -> 0;
-                    };
-                    if (escape != 0) {
-                        out.append('\\');
-                        out.append(escape);
-                    } else if (c <= 0x1f) {
-                        out.append("\\u00");
-                        out.append(Character.forDigit((c & 0xf0) >>> 4, 16));
-                        out.append(Character.forDigit(c & 0xf, 16));
-                    } else {
-                        out.append(c);
-                    }
-                }
-                out.append('"');
-            }
-            case Number number -> out.append(number.toString());
-            case Map<?,?> map -> {
-                out.append('{');
-                boolean first = true;
-                for (var entry : map.entrySet()) {
-                    if (!first) out.append(',');
-                    first = false;
-                    write(out, entry.getKey());
-                    out.append(':');
-                    write(out, entry.getValue());
-                }
-                out.append('}');
-            }
-            case Collection<?> coll -> {
-                out.append('[');
-                boolean first = true;
-                for (Object o : coll) {
-                    if (!first) out.append(',');
-                    first = false;
-                    write(out, o);
-                }
-                out.append(']');
-            }
-            default -> throw new IllegalArgumentException("unsupported JSON type: " + value.getClass());
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType p) return p.getActualTypeArguments()[index];
+        return Object.class;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == long.class) return 0L;
+        if (type == int.class) return 0;
+        if (type == double.class) return 0.0;
+        if (type == boolean.class) return false;
+        return null;
+    }
+
+    /**
+     * The components and canonical constructor of a record type. Fields missing from the
+     * JSON get null or zero and fields the record doesn't have are skipped.
+     */
+    private static final class RecordBinding {
+        private static final ClassValue<RecordBinding> CACHE = new ClassValue<>() {
+            @Override
+            protected RecordBinding computeValue(Class<?> type) {
+                return new RecordBinding(type);
+            }
+        };
+
+        private final RecordComponent[] components;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final Constructor<?> constructor;
+
+        private RecordBinding(Class<?> type) {
+            components = type.getRecordComponents();
+            Class<?>[] parameterTypes = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                parameterTypes[i] = components[i].getType();
+                indexes.put(components[i].getName(), i);
+                components[i].getAccessor().setAccessible(true);
+            }
+            try {
+                constructor = type.getDeclaredConstructor(parameterTypes);
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        static RecordBinding of(Class<?> type) {
+            return CACHE.get(type);
+        }
+
+        Object read(Parser parser) throws IOException {
+            Object[] values = new Object[components.length];
+            parser.beginObject();
+            while (parser.hasNext()) {
+                Integer index = indexes.get(parser.nextName());
+                if (index == null) {
+                    parser.skipValue();
+                } else {
+                    values[index] = parser.read(components[index].getGenericType());
+                }
+            }
+            parser.endObject();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) values[i] = defaultValue(components[i].getType());
+            }
+            try {
+                return constructor.newInstance(values);
+            } catch (InvocationTargetException e) {
+                throw new IOException("Unable to construct " + constructor.getDeclaringClass().getSimpleName(),
+                        e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void write(Generator generator, Object record) throws IOException {
+            generator.beginObject();
+            for (RecordComponent component : components) {
+                Object value;
+                try {
+                    value = component.getAccessor().invoke(record);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+                generator.name(component.getName()).value(value);
+            }
+            generator.endObject();
+        }
+    }
+
+    /**
+     * A streaming writer. Names and values are written as they're given, with commas
+     * and colons inserted between them; the caller is responsible for nesting them properly.
+     */
+    static final class Generator {
+        private final Appendable out;
+        private boolean[] nonEmpty = new boolean[32];
+        private int depth;
+        private boolean afterName;
+
+        Generator(Appendable out) {
+            this.out = out;
+        }
+
+        Generator beginObject() throws IOException {
+            separate();
+            out.append('{');
+            push();
+            return this;
+        }
+
+        Generator endObject() throws IOException {
+            depth--;
+            out.append('}');
+            return this;
+        }
+
+        Generator beginArray() throws IOException {
+            separate();
+            out.append('[');
+            push();
+            return this;
+        }
+
+        Generator endArray() throws IOException {
+            depth--;
+            out.append(']');
+            return this;
+        }
+
+        Generator name(String name) throws IOException {
+            separate();
+            string(name);
+            out.append(':');
+            afterName = true;
+            return this;
+        }
+
+        Generator value(String value) throws IOException {
+            if (value == null) return nullValue();
+            separate();
+            string(value);
+            return this;
+        }
+
+        Generator value(long value) throws IOException {
+            separate();
+            out.append(Long.toString(value));
+            return this;
+        }
+
+        Generator value(double value) throws IOException {
+            separate();
+            out.append(Double.toString(value));
+            return this;
+        }
+
+        Generator value(boolean value) throws IOException {
+            separate();
+            out.append(value ? "true" : "false");
+            return this;
+        }
+
+        Generator nullValue() throws IOException {
+            separate();
+            out.append("null");
+            return this;
+        }
+
+        /**
+         * Writes a tree of maps, collections, strings, numbers, booleans and records.
+         */
+        Generator value(Object value) throws IOException {
+            switch (value) {
+                case null -> nullValue();
+                case Boolean b -> value((boolean) b);
+                case String s -> value(s);
+                case Number number -> {
+                    separate();
+                    out.append(number.toString());
+                }
+                case Map<?, ?> map -> {
+                    beginObject();
+                    for (var entry : map.entrySet()) {
+                        name(String.valueOf(entry.getKey()));
+                        value(entry.getValue());
+                    }
+                    endObject();
+                }
+                case Collection<?> coll -> {
+                    beginArray();
+                    for (Object o : coll) {
+                        value(o);
+                    }
+                    endArray();
+                }
+                case Record record -> RecordBinding.of(record.getClass()).write(this, record);
+                default -> throw new IllegalArgumentException("unsupported JSON type: " + value.getClass());
+            }
+            return this;
+        }
+
+        private void push() {
+            if (depth == nonEmpty.length) nonEmpty = Arrays.copyOf(nonEmpty, depth * 2);
+            nonEmpty[depth++] = false;
+        }
+
+        private void separate() throws IOException {
+            if (afterName) {
+                afterName = false;
+            } else if (depth > 0) {
+                if (nonEmpty[depth - 1]) out.append(',');
+                nonEmpty[depth - 1] = true;
+            }
+        }
+
+        /**
+         * Writes a quoted string, appending runs of characters that need no escaping in one go.
+         */
+        private void string(String s) throws IOException {
+            out.append('"');
+            int start = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                char escape = switch (c) {
+                    case '"' -> '"';
+                    case '\\' -> '\\';
+                    case '\b' -> 'b';
+                    case '\f' -> 'f';
+                    case '\n' -> 'n';
+                    case '\r' -> 'r';
+                    case '\t' -> 't';
+                    default -> c <= 0x1f ? 'u' : 0;
+                };
+                if (escape == 0) continue;
+                out.append(s, start, i);
+                out.append('\\');
+                out.append(escape);
+                if (escape == 'u') {
+                    out.append("00");
+                    out.append(Character.forDigit((c & 0xf0) >>> 4, 16));
+                    out.append(Character.forDigit(c & 0xf, 16));
+                }
+                start = i + 1;
+            }
+            out.append(s, start, s.length());
+            out.append('"');
         }
     }
-}
\ No newline at end of file
+}
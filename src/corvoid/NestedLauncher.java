@@ -0,0 +1,310 @@
+package corvoid;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Main class of jars built by "corvoid uberjar --nested".
+ * <p>
+ * Dependency jars are stored uncompressed under lib/ so the outer jar is mapped into
+ * memory once and each nested jar is read as a slice of that mapping, without
+ * extracting or copying it. The outer jar's own entries come first, then each nested
+ * jar in classpath order, and as on a classpath the first entry with a given name
+ * wins. The application's main class is named by the Start-Class manifest attribute.
+ * <p>
+ * This class and its nested classes are copied into the jar so must depend only on
+ * the JDK.
+ */
+public final class NestedLauncher extends ClassLoader {
+	static final String START_CLASS = "Start-Class";
+	static final String LIB = "lib/";
+	private static final String PROTOCOL = "nested";
+	private static final int METHOD_STORED = 0;
+
+	static {
+		registerAsParallelCapable();
+	}
+
+	/**
+	 * A file in the outer jar or one of the nested jars, linked to the same-named
+	 * files later on the classpath.
+	 */
+	private static final class Resource {
+		final String jar;
+		final ByteBuffer data;
+		final int method;
+		final int size;
+		Resource next;
+
+		Resource(String jar, ByteBuffer data, int method, int size) {
+			this.jar = jar;
+			this.data = data;
+			this.method = method;
+			this.size = size;
+		}
+	}
+
+	private final Map<String, Resource> resources = new HashMap<>();
+	private final URLStreamHandler handler = new Handler();
+	private final ProtectionDomain domain;
+
+	public NestedLauncher(Path jar, ClassLoader parent) throws IOException {
+		super(PROTOCOL, parent);
+		ByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(jar)) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		domain = new ProtectionDomain(new CodeSource(jar.toUri().toURL(), (Certificate[]) null), null, this, null);
+
+		List<String> libs = new ArrayList<>();
+		Map<String, ByteBuffer> libData = new HashMap<>();
+		index("", mapped, (name, data, method) -> {
+			if (name.startsWith(LIB) && name.endsWith(".jar") && method == METHOD_STORED) {
+				libs.add(name);
+				libData.put(name, data);
+				return false;
+			}
+			return true;
+		});
+		for (String lib : libs) {
+			index(lib, libData.get(lib), (name, data, method) -> true);
+		}
+	}
+
+	private interface Filter {
+		boolean accept(String name, ByteBuffer data, int method);
+	}
+
+	private static int u16(ByteBuffer b, int offset) {
+		return b.getShort(offset) & 0xffff;
+	}
+
+	private static long u32(ByteBuffer b, int offset) {
+		return b.getInt(offset) & 0xffffffffL;
+	}
+
+	/**
+	 * Adds the entries of the zip held in zip to the index, appending to the chains of
+	 * names already present so earlier jars keep precedence.
+	 */
+	private void index(String jar, ByteBuffer zip, Filter filter) throws IOException {
+		zip = zip.slice().order(ByteOrder.LITTLE_ENDIAN);
+		int end = -1;
+		for (int i = zip.limit() - 22; i >= Math.max(0, zip.limit() - 22 - 0xffff); i--) {
+			if (zip.getInt(i) == 0x06054b50) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("Not a zip file: " + (jar.isEmpty() ? "outer jar" : jar));
+		}
+		long count = u16(zip, end + 10);
+		long offset = u32(zip, end + 16);
+		if (end >= 20 && zip.getInt(end - 20) == 0x07064b50) {
+			int end64 = (int) zip.getLong(end - 12);
+			count = zip.getLong(end64 + 32);
+			offset = zip.getLong(end64 + 48);
+		}
+
+		int p = (int) offset;
+		for (long i = 0; i < count; i++) {
+			if (zip.getInt(p) != 0x02014b50) {
+				throw new ZipException("Invalid central directory in " + (jar.isEmpty() ? "outer jar" : jar));
+			}
+			int method = u16(zip, p + 10);
+			long compressedSize = u32(zip, p + 20);
+			long size = u32(zip, p + 24);
+			int nameLength = u16(zip, p + 28);
+			int extraLength = u16(zip, p + 30);
+			int commentLength = u16(zip, p + 32);
+			long local = u32(zip, p + 42);
+			byte[] nameBytes = new byte[nameLength];
+			zip.get(p + 46, nameBytes);
+			String name = new String(nameBytes, UTF_8);
+
+			for (int e = p + 46 + nameLength; e + 4 <= p + 46 + nameLength + extraLength; e += 4 + u16(zip, e + 2)) {
+				if (u16(zip, e) == 1) {
+					int q = e + 4;
+					if (size == 0xffffffffL) { size = zip.getLong(q); q += 8; }
+					if (compressedSize == 0xffffffffL) { compressedSize = zip.getLong(q); q += 8; }
+					if (local == 0xffffffffL) { local = zip.getLong(q); }
+				}
+			}
+			p += 46 + nameLength + extraLength + commentLength;
+
+			if (name.endsWith("/")) {
+				continue;
+			}
+			int dataStart = (int) local + 30 + u16(zip, (int) local + 26) + u16(zip, (int) local + 28);
+			ByteBuffer data = zip.slice(dataStart, (int) compressedSize);
+			if (filter.accept(name, data, method)) {
+				Resource resource = new Resource(jar, data, method, (int) size);
+				Resource last = resources.putIfAbsent(name, resource);
+				if (last != null) {
+					while (last.next != null) {
+						last = last.next;
+					}
+					last.next = resource;
+				}
+			}
+		}
+	}
+
+	private static byte[] read(Resource resource) throws IOException {
+		byte[] bytes = new byte[resource.size];
+		if (resource.method == METHOD_STORED) {
+			resource.data.get(0, bytes);
+			return bytes;
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(resource.data.duplicate());
+			int n = 0;
+			while (n < bytes.length && !inflater.finished()) {
+				int read = inflater.inflate(bytes, n, bytes.length - n);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new EOFException("Truncated entry");
+				}
+				n += read;
+			}
+			return bytes;
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		Resource resource = resources.get(name.replace('.', '/') + ".class");
+		if (resource == null) {
+			throw new ClassNotFoundException(name);
+		}
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			String pkg = name.substring(0, dot);
+			if (getDefinedPackage(pkg) == null) {
+				try {
+					definePackage(pkg, null, null, null, null, null, null, null);
+				} catch (IllegalArgumentException e) {
+					// defined concurrently by another thread
+				}
+			}
+		}
+		try {
+			if (resource.method == METHOD_STORED) {
+				return defineClass(name, resource.data.duplicate(), domain);
+			}
+			byte[] bytes = read(resource);
+			return defineClass(name, bytes, 0, bytes.length, domain);
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+	}
+
+	private URL url(String name, Resource resource) {
+		try {
+			return URL.of(new URI(PROTOCOL, null, "/" + resource.jar + "!/" + name, null), handler);
+		} catch (URISyntaxException | MalformedURLException e) {
+			throw new IllegalArgumentException(name, e);
+		}
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		Resource resource = resources.get(name);
+		return resource == null ? null : url(name, resource);
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) {
+		List<URL> urls = new ArrayList<>();
+		for (Resource r = resources.get(name); r != null; r = r.next) {
+			urls.add(url(name, r));
+		}
+		return Collections.enumeration(urls);
+	}
+
+	private class Handler extends URLStreamHandler {
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException {
+			String path;
+			try {
+				path = url.toURI().getPath();
+			} catch (URISyntaxException e) {
+				throw new MalformedURLException(e.getMessage());
+			}
+			int separator = path.indexOf("!/");
+			String jar = path.substring(1, separator);
+			String name = path.substring(separator + 2);
+			for (Resource r = resources.get(name); r != null; r = r.next) {
+				if (r.jar.equals(jar)) {
+					return new Connection(url, r);
+				}
+			}
+			throw new FileNotFoundException(url.toString());
+		}
+	}
+
+	private static class Connection extends URLConnection {
+		private final Resource resource;
+
+		Connection(URL url, Resource resource) {
+			super(url);
+			this.resource = resource;
+		}
+
+		@Override
+		public void connect() {
+			connected = true;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return new ByteArrayInputStream(read(resource));
+		}
+
+		@Override
+		public long getContentLengthLong() {
+			return resource.size;
+		}
+	}
+
+	public static void main(String[] args) throws Throwable {
+		Path jar = Path.of(NestedLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		NestedLauncher loader = new NestedLauncher(jar, ClassLoader.getPlatformClassLoader());
+		Resource manifest = loader.resources.get("META-INF/MANIFEST.MF");
+		String startClass = manifest == null ? null
+				: new Manifest(new ByteArrayInputStream(read(manifest))).getMainAttributes().getValue(START_CLASS);
+		if (startClass == null) {
+			System.err.println("No " + START_CLASS + " in manifest");
+			System.exit(1);
+		}
+
+		Thread.currentThread().setContextClassLoader(loader);
+		Method main = loader.loadClass(startClass).getMethod("main", String[].class);
+		try {
+			main.invoke(null, (Object) args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
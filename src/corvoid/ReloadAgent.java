@@ -0,0 +1,184 @@
+package corvoid;
+
+import java.io.*;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Launcher and java agent behind "corvoid run --watch".
+ * <p>
+ * Dependency jars live on the system classpath while the project's classes are
+ * loaded by a throwaway child loader, so a restart only reloads the project. Corvoid
+ * connects over a loopback socket and sends one command per line:
+ * <pre>
+ * redefine a.B a.B$1   -> ok | restart &lt;reason&gt;
+ * restart              -> ok | stuck
+ * </pre>
+ * This class is copied on its own into the agent jar so must depend only on the JDK
+ * and must not have nested classes.
+ */
+public class ReloadAgent {
+	private static final long RESTART_TIMEOUT_MILLIS = 5000;
+
+	private static volatile Instrumentation instrumentation;
+	private static Path classesDir;
+	private static String mainClass;
+	private static String[] mainArgs;
+	private static URLClassLoader loader;
+	private static ThreadGroup group;
+	private static boolean restartRequested;
+	private static int generation;
+	private static volatile boolean failed;
+
+	public static void premain(String agentArgs, Instrumentation inst) {
+		instrumentation = inst;
+	}
+
+	/**
+	 * Usage: ReloadAgent classes-dir port-file main-class [args...]
+	 */
+	public static void main(String[] args) throws Exception {
+		classesDir = Path.of(args[0]);
+		Path portFile = Path.of(args[1]);
+		mainClass = args[2];
+		mainArgs = Arrays.copyOfRange(args, 3, args.length);
+
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Path tmp = Path.of(portFile + ".tmp");
+		Files.writeString(tmp, Integer.toString(server.getLocalPort()));
+		Files.move(tmp, portFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		Thread control = new Thread(() -> serve(server), "corvoid-reload");
+		control.setDaemon(true);
+		control.start();
+
+		for (;;) {
+			startApp();
+			while (hasLiveThreads(group)) {
+				Thread.sleep(50);
+			}
+			synchronized (ReloadAgent.class) {
+				if (!restartRequested) {
+					break;
+				}
+				restartRequested = false;
+				failed = false;
+				generation++;
+				loader.close();
+				ReloadAgent.class.notifyAll();
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	private static synchronized void startApp() throws MalformedURLException {
+		loader = new URLClassLoader(new URL[]{classesDir.toUri().toURL()}, ReloadAgent.class.getClassLoader());
+		group = new ThreadGroup("app");
+		ClassLoader appLoader = loader;
+		Thread thread = new Thread(group, () -> {
+			try {
+				Class.forName(mainClass, true, appLoader)
+						.getMethod("main", String[].class)
+						.invoke(null, (Object) mainArgs);
+			} catch (InvocationTargetException e) {
+				failed = true;
+				e.getCause().printStackTrace();
+			} catch (ReflectiveOperationException e) {
+				failed = true;
+				e.printStackTrace();
+			}
+		}, "main");
+		thread.setContextClassLoader(appLoader);
+		thread.start();
+	}
+
+	private static Thread[] threads(ThreadGroup group) {
+		Thread[] threads = new Thread[group.activeCount() + 16];
+		int n = group.enumerate(threads, true);
+		return Arrays.copyOf(threads, n);
+	}
+
+	private static boolean hasLiveThreads(ThreadGroup group) {
+		for (Thread thread : threads(group)) {
+			if (thread.isAlive() && !thread.isDaemon()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void serve(ServerSocket server) {
+		for (;;) {
+			try (Socket socket = server.accept();
+				 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+				 Writer out = new OutputStreamWriter(socket.getOutputStream(), UTF_8)) {
+				for (String line = in.readLine(); line != null; line = in.readLine()) {
+					String[] words = line.trim().split("\\s+");
+					String reply = switch (words[0]) {
+						case "redefine" -> redefine(Arrays.asList(words).subList(1, words.length));
+						case "restart" -> restart();
+						default -> "error unknown command " + words[0];
+					};
+					out.write(reply + "\n");
+					out.flush();
+				}
+			} catch (IOException | InterruptedException e) {
+				System.err.println("corvoid-reload: " + e);
+			}
+		}
+	}
+
+	private static String redefine(List<String> classNames) {
+		if (instrumentation == null) {
+			return "restart agent not loaded";
+		}
+		ClassLoader current;
+		synchronized (ReloadAgent.class) {
+			current = loader;
+		}
+		Set<String> names = new HashSet<>(classNames);
+		List<ClassDefinition> definitions = new ArrayList<>();
+		try {
+			for (Class<?> c : instrumentation.getInitiatedClasses(current)) {
+				// classes that were never loaded will be picked up fresh from disk anyway
+				if (c.getClassLoader() == current && names.contains(c.getName())) {
+					byte[] bytes = Files.readAllBytes(classesDir.resolve(c.getName().replace('.', '/') + ".class"));
+					definitions.add(new ClassDefinition(c, bytes));
+				}
+			}
+			instrumentation.redefineClasses(definitions.toArray(new ClassDefinition[0]));
+			return "ok " + definitions.size();
+		} catch (IOException | ClassNotFoundException | UnmodifiableClassException | UnsupportedOperationException
+				 | LinkageError e) {
+			return "restart " + e;
+		}
+	}
+
+	private static String restart() throws InterruptedException {
+		synchronized (ReloadAgent.class) {
+			int before = generation;
+			restartRequested = true;
+			for (Thread thread : threads(group)) {
+				thread.interrupt();
+			}
+			long deadline = System.currentTimeMillis() + RESTART_TIMEOUT_MILLIS;
+			while (generation == before) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return "stuck";
+				}
+				ReloadAgent.class.wait(remaining);
+			}
+			return "ok";
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package corvoid;
+
+import java.io.*;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps an application running under {@link ReloadAgent} and pushes changed classes into it.
+ * <p>
+ * Changed classes are first redefined in place. If the JVM refuses (e.g. a method or
+ * field was added) the project classloader is thrown away and main() is invoked again.
+ * If the application won't shut down when interrupted the whole process is relaunched.
+ */
+class ReloadingRunner implements Closeable {
+	private static final long STARTUP_TIMEOUT_MILLIS = 30000;
+
+	private final Path agentJar;
+	private final Path portFile;
+	private final Path classesDir;
+	private final List<String> java;
+	private final List<String> appArgs;
+	private volatile Process process;
+	private Socket socket;
+	private BufferedReader in;
+	private Writer out;
+	private final Thread shutdownHook = new Thread(() -> {
+		Process p = process;
+		if (p != null) p.destroy();
+	});
+
+	/**
+	 * @param java    java command line up to the main class, with dependencies on the classpath
+	 * @param appArgs main class followed by its arguments
+	 */
+	ReloadingRunner(Path targetDir, Path classesDir, List<String> java, List<String> appArgs) {
+		this.agentJar = targetDir.resolve("corvoid-reload-agent.jar");
+		this.portFile = targetDir.resolve("corvoid-reload.port");
+		this.classesDir = classesDir;
+		this.java = java;
+		this.appArgs = appArgs;
+	}
+
+	static void writeAgentJar(Path jar) throws IOException {
+		Map<String, String> manifest = new LinkedHashMap<>();
+		manifest.put("Premain-Class", ReloadAgent.class.getName());
+		manifest.put("Can-Redefine-Classes", "true");
+		String name = ReloadAgent.class.getName().replace('.', '/') + ".class";
+		try (InputStream agent = Objects.requireNonNull(ReloadAgent.class.getResourceAsStream("/" + name), name);
+			 JarWriter writer = new JarWriter(jar)) {
+			writer.writeManifest(manifest);
+			writer.put(name, agent);
+		}
+	}
+
+	void start() throws IOException {
+		close();
+		Files.createDirectories(agentJar.getParent());
+		writeAgentJar(agentJar);
+		Files.deleteIfExists(portFile);
+
+		List<String> command = new ArrayList<>(java);
+		command.add(1, "-javaagent:" + agentJar);
+		command.add(ReloadAgent.class.getName());
+		command.add(classesDir.toString());
+		command.add(portFile.toString());
+		command.addAll(appArgs);
+		process = new ProcessBuilder().command(command)
+				.redirectError(Redirect.INHERIT)
+				.redirectOutput(Redirect.INHERIT)
+				.redirectInput(Redirect.INHERIT)
+				.start();
+
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+		while (!Files.exists(portFile)) {
+			if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+				throw new IOException("Application did not start");
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		int port = Integer.parseInt(Files.readString(portFile).trim());
+		socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+		out = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+	}
+
+	boolean isAlive() {
+		return process != null && process.isAlive();
+	}
+
+	private String send(String command) throws IOException {
+		out.write(command + "\n");
+		out.flush();
+		String reply = in.readLine();
+		if (reply == null) {
+			throw new EOFException("Application closed the reload connection");
+		}
+		return reply;
+	}
+
+	/**
+	 * Swaps in new versions of the given classes, restarting if they can't be redefined.
+	 */
+	void reload(Collection<String> classNames) throws IOException {
+		if (!isAlive()) {
+			start();
+			return;
+		}
+		if (classNames.isEmpty()) {
+			return;
+		}
+		String reply = send("redefine " + String.join(" ", classNames));
+		if (reply.startsWith("ok")) {
+			System.out.println("Reloaded " + classNames.size() + " class" + (classNames.size() == 1 ? "" : "es"));
+		} else {
+			System.out.println("Restarting: " + reply.substring(reply.indexOf(' ') + 1));
+			restart();
+		}
+	}
+
+	void restart() throws IOException {
+		if (!isAlive()) {
+			start();
+			return;
+		}
+		if (!send("restart").equals("ok")) {
+			System.out.println("Application did not stop when interrupted, relaunching");
+			start();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (socket != null) {
+			socket.close();
+			socket = null;
+		}
+		if (process != null) {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			process.destroy();
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			process = null;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package corvoid;
+
+import corvoid.pom.Model;
+import corvoid.pom.Resource;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Incrementally synchronises resource directories into an output directory.
+ * <p>
+ * Only files whose source has changed are rewritten and outputs whose source has
+ * vanished are deleted. A list of the files we wrote is kept next to the output
+ * directory so we never delete compiled classes or anything else we didn't put there.
+ * Large unfiltered files are hard-linked rather than copied when the filesystem allows it.
+ */
+class ResourceCopier {
+	static final long LINK_THRESHOLD = 1024 * 1024;
+
+	private final Path projectRoot;
+	private final Model project;
+	private final FileTime filterStamp;
+
+	/**
+	 * @param project     interpolated model used to expand ${...} in filtered resources
+	 * @param filterStamp filtered outputs older than this (usually the pom's mtime) are regenerated
+	 */
+	ResourceCopier(Path projectRoot, Model project, FileTime filterStamp) {
+		this.projectRoot = projectRoot;
+		this.project = project;
+		this.filterStamp = filterStamp;
+	}
+
+	private record Source(Path file, boolean filtering) {}
+
+	void sync(List<Resource> resources, Path outDir) throws IOException {
+		if (!outDir.isAbsolute()) {
+			outDir = projectRoot.resolve(outDir);
+		}
+		outDir = outDir.normalize();
+
+		// later resources take precedence when two map to the same output
+		Map<Path, Source> sources = new LinkedHashMap<>();
+		for (Resource res : resources) {
+			Path resDir = projectRoot.resolve(res.getDirectory() != null ? res.getDirectory() : "src/main/resources");
+			if (!Files.isDirectory(resDir)) {
+				continue;
+			}
+			Path targetDir = res.getTargetPath() != null ? outDir.resolve(res.getTargetPath()) : outDir;
+			boolean filtering = Boolean.TRUE.equals(res.getFiltering());
+			try (Stream<Path> stream = Files.walk(resDir)) {
+				for (Path p : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+					sources.put(targetDir.resolve(resDir.relativize(p).toString()).normalize(), new Source(p, filtering));
+				}
+			}
+		}
+
+		Path manifest = manifestPath(outDir);
+		Set<String> previous = readManifest(manifest);
+		List<String> written = new ArrayList<>(sources.size());
+		for (var entry : sources.entrySet()) {
+			Path dest = entry.getKey();
+			Source source = entry.getValue();
+			if (!isUpToDate(source, dest)) {
+				Files.createDirectories(dest.getParent());
+				if (source.filtering) {
+					filter(source.file, dest);
+				} else {
+					link(source.file, dest);
+				}
+			}
+			String relative = outDir.relativize(dest).toString();
+			written.add(relative);
+			previous.remove(relative);
+		}
+
+		for (String stale : previous) {
+			Files.deleteIfExists(outDir.resolve(stale));
+		}
+
+		if (written.isEmpty()) {
+			Files.deleteIfExists(manifest);
+		} else {
+			Files.createDirectories(manifest.getParent());
+			Files.write(manifest, written, UTF_8);
+		}
+	}
+
+	static Path manifestPath(Path outDir) {
+		return outDir.resolveSibling(outDir.getFileName() + ".resources");
+	}
+
+	private static Set<String> readManifest(Path manifest) throws IOException {
+		if (!Files.exists(manifest)) {
+			return new HashSet<>();
+		}
+		return new HashSet<>(Files.readAllLines(manifest, UTF_8));
+	}
+
+	private boolean isUpToDate(Source source, Path dest) throws IOException {
+		if (!Files.exists(dest)) {
+			return false;
+		}
+		FileTime destTime = Files.getLastModifiedTime(dest);
+		FileTime srcTime = Files.getLastModifiedTime(source.file);
+		if (source.filtering) {
+			return destTime.compareTo(srcTime) >= 0 && (filterStamp == null || destTime.compareTo(filterStamp) >= 0);
+		}
+		// unfiltered outputs carry the source's mtime, so any edit shows up as a mismatch
+		return destTime.toMillis() == srcTime.toMillis() && Files.size(dest) == Files.size(source.file);
+	}
+
+	/**
+	 * Hard-links large files so unchanged models and assets cost nothing to "copy",
+	 * falling back to a regular copy across filesystems or where links aren't supported.
+	 */
+	private static void link(Path src, Path dest) throws IOException {
+		// never write through an existing link back into the source tree
+		Files.deleteIfExists(dest);
+		if (Files.size(src) >= LINK_THRESHOLD) {
+			try {
+				Files.createLink(dest, src);
+				return;
+			} catch (UnsupportedOperationException | IOException e) {
+				// fall through to copy
+			}
+		}
+		Files.copy(src, dest);
+		Files.setLastModifiedTime(dest, Files.getLastModifiedTime(src));
+	}
+
+	private void filter(Path src, Path dest) throws IOException {
+		Files.deleteIfExists(dest);
+		try (Reader in = Files.newBufferedReader(src, UTF_8);
+			 Writer out = Files.newBufferedWriter(dest, UTF_8)) {
+			Interpolator.filter(project, in, out);
+		}
+	}
+}
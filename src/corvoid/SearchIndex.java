@@ -0,0 +1,397 @@
+package corvoid;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * An index of the artifacts in the local repository for searching offline. Artifacts
+ * are found from the version directories and cached metadata under the repository,
+ * and looked up by the trigrams of their "groupId:artifactId", so misspelt and
+ * partial queries still match.
+ * <p>
+ * The index is saved in a compact binary file: the artifacts, followed by each trigram
+ * with the delta-encoded list of the artifacts containing it, and the modification
+ * times of the group and artifact directories it was built from, which change whenever
+ * an artifact, version or metadata file is added or removed.
+ */
+class SearchIndex {
+	static final String FILE = ".corvoid/search-index.bin";
+	private static final int MAGIC = 0x43565349; // CVSI
+	private static final int FORMAT = 2;
+	private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	record Artifact(String groupId, String artifactId, String version, String description) {
+		String key() {
+			return groupId + ":" + artifactId;
+		}
+	}
+
+	private final List<Artifact> artifacts;
+	private final Map<String, int[]> trigrams;
+	private final Map<String, Long> directories;
+
+	private SearchIndex(List<Artifact> artifacts, Map<String, int[]> trigrams, Map<String, Long> directories) {
+		this.artifacts = artifacts;
+		this.trigrams = trigrams;
+		this.directories = directories;
+	}
+
+	List<Artifact> artifacts() {
+		return artifacts;
+	}
+
+	/**
+	 * Loads the repository's index, building it first if it doesn't exist or rebuild is
+	 * set. An index older than maxAgeMillis is only rebuilt if the repository's directories
+	 * have changed since, and otherwise used for another maxAgeMillis.
+	 */
+	static SearchIndex open(Path repository, long maxAgeMillis, boolean rebuild) throws IOException {
+		Path file = repository.resolve(FILE);
+		if (!rebuild && Files.exists(file)) {
+			try {
+				SearchIndex index = load(file);
+				if (System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() <= maxAgeMillis) {
+					return index;
+				}
+				if (!index.isStale(repository)) {
+					Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+					return index;
+				}
+			} catch (IOException e) {
+				// rebuild it
+			}
+		}
+		System.out.println("Indexing " + repository);
+		// created before the scan so it doesn't change the repository's time afterwards
+		Files.createDirectories(file.getParent());
+		SearchIndex index = build(repository);
+		index.save(file);
+		return index;
+	}
+
+	/**
+	 * Whether any of the directories the index was built from has been modified or removed.
+	 */
+	boolean isStale(Path repository) {
+		for (var entry : directories.entrySet()) {
+			try {
+				if (Files.getLastModifiedTime(repository.resolve(entry.getKey())).toMillis() != entry.getValue()) {
+					return true;
+				}
+			} catch (IOException e) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Scans a Maven repository for artifacts. An artifact's version is the latest stable
+	 * one in its cached metadata, or else the highest version present locally, whose pom
+	 * provides the description.
+	 */
+	static SearchIndex build(Path repository) throws IOException {
+		Map<Path, List<String>> localVersions = new HashMap<>();
+		Set<Path> withMetadata = new HashSet<>();
+		Map<Path, Long> directories = new HashMap<>();
+		if (Files.isDirectory(repository)) {
+			Files.walkFileTree(repository, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (dir.getFileName().toString().startsWith(".") && !dir.equals(repository)) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					directories.put(dir, attrs.lastModifiedTime().toMillis());
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					String name = file.getFileName().toString();
+					if (name.equals("maven-metadata-central.xml") && isArtifactDir(file.getParent())) {
+						withMetadata.add(file.getParent());
+					} else if (name.endsWith(".pom")) {
+						Path versionDir = file.getParent();
+						Path artifactDir = versionDir.getParent();
+						if (isArtifactDir(artifactDir)
+								&& name.equals(artifactDir.getFileName() + "-" + versionDir.getFileName() + ".pom")) {
+							localVersions.computeIfAbsent(artifactDir, k -> new ArrayList<>())
+									.add(versionDir.getFileName().toString());
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				private boolean isArtifactDir(Path dir) {
+					return dir != null && dir.startsWith(repository) && repository.relativize(dir).getNameCount() >= 2;
+				}
+			});
+		}
+
+		// version directories change as other files are downloaded, which doesn't matter here
+		localVersions.forEach((artifactDir, versions) -> versions.forEach(v -> directories.remove(artifactDir.resolve(v))));
+		Map<String, Long> directoryTimes = new TreeMap<>();
+		directories.forEach((dir, time) -> directoryTimes.put(repository.relativize(dir).toString(), time));
+
+		Set<Path> artifactDirs = new TreeSet<>(localVersions.keySet());
+		artifactDirs.addAll(withMetadata);
+		List<Artifact> artifacts = new ArrayList<>();
+		for (Path artifactDir : artifactDirs) {
+			Path relative = repository.relativize(artifactDir);
+			String groupId = relative.getParent().toString().replace(File.separatorChar, '.');
+			String artifactId = artifactDir.getFileName().toString();
+			String localVersion = highest(localVersions.getOrDefault(artifactDir, List.of()));
+			String version = null;
+			if (withMetadata.contains(artifactDir)) {
+				// parsed without saving an index, so searching doesn't write across the repository
+				try (InputStream in = Files.newInputStream(artifactDir.resolve("maven-metadata-central.xml"))) {
+					version = VersionIndex.parse(in).latestStable();
+				} catch (IOException | XMLStreamException e) {
+					// fall back to the local versions
+				}
+			}
+			if (version == null) {
+				version = localVersion;
+			}
+			if (version == null) {
+				continue; // group metadata, such as the list of plugins in a group
+			}
+			String description = localVersion == null ? null
+					: description(artifactDir.resolve(localVersion).resolve(artifactId + "-" + localVersion + ".pom"));
+			artifacts.add(new Artifact(groupId, artifactId, version, description));
+		}
+
+		Map<String, List<Integer>> postings = new HashMap<>();
+		for (int i = 0; i < artifacts.size(); i++) {
+			for (String trigram : trigrams(artifacts.get(i).key())) {
+				List<Integer> ids = postings.computeIfAbsent(trigram, k -> new ArrayList<>());
+				if (ids.isEmpty() || ids.get(ids.size() - 1) != i) {
+					ids.add(i);
+				}
+			}
+		}
+		Map<String, int[]> trigrams = new HashMap<>();
+		postings.forEach((trigram, ids) -> trigrams.put(trigram, ids.stream().mapToInt(Integer::intValue).toArray()));
+		return new SearchIndex(List.copyOf(artifacts), trigrams, directoryTimes);
+	}
+
+	/**
+	 * Finds the artifacts best matching a query of one or more words. Artifacts whose
+	 * artifactId equals or starts with a word rank first, then those containing every
+	 * word, then those sharing at least half of the query's trigrams.
+	 */
+	List<Artifact> search(String query, int limit) {
+		List<String> words = new ArrayList<>();
+		for (String word : query.toLowerCase(Locale.ROOT).split("[\\s:]+")) {
+			if (!word.isEmpty()) {
+				words.add(word);
+			}
+		}
+		if (words.isEmpty()) {
+			return List.of();
+		}
+
+		// count the query's trigrams each artifact shares
+		Set<String> queryTrigrams = new HashSet<>();
+		for (String word : words) {
+			queryTrigrams.addAll(trigrams(word));
+		}
+		Map<Integer, Integer> shared = new HashMap<>();
+		for (String trigram : queryTrigrams) {
+			for (int id : trigrams.getOrDefault(trigram, new int[0])) {
+				shared.merge(id, 1, Integer::sum);
+			}
+		}
+		Set<Integer> candidates = new HashSet<>(shared.keySet());
+		if (queryTrigrams.isEmpty()) {
+			// words too short for trigrams can only be matched directly
+			for (int i = 0; i < artifacts.size(); i++) {
+				candidates.add(i);
+			}
+		}
+
+		record Match(Artifact artifact, double score) {}
+		List<Match> matches = new ArrayList<>();
+		for (int id : candidates) {
+			Artifact artifact = artifacts.get(id);
+			String key = artifact.key().toLowerCase(Locale.ROOT);
+			String artifactId = artifact.artifactId().toLowerCase(Locale.ROOT);
+			double score = queryTrigrams.isEmpty() ? 0 : (double) shared.getOrDefault(id, 0) / queryTrigrams.size();
+			boolean containsAll = true;
+			for (String word : words) {
+				if (artifactId.equals(word)) {
+					score += 3;
+				} else if (artifactId.startsWith(word)) {
+					score += 2;
+				}
+				if (!key.contains(word)) {
+					containsAll = false;
+				}
+			}
+			if (containsAll) {
+				score += 1;
+			} else if (score < 0.5) {
+				continue;
+			}
+			matches.add(new Match(artifact, score));
+		}
+		matches.sort(Comparator.comparingDouble(Match::score).reversed()
+				.thenComparingInt(m -> m.artifact().key().length())
+				.thenComparing(m -> m.artifact().key()));
+		List<Artifact> results = new ArrayList<>();
+		for (Match match : matches.subList(0, Math.min(limit, matches.size()))) {
+			results.add(match.artifact());
+		}
+		return results;
+	}
+
+	static Set<String> trigrams(String s) {
+		s = s.toLowerCase(Locale.ROOT);
+		Set<String> trigrams = new LinkedHashSet<>();
+		for (int i = 0; i + 3 <= s.length(); i++) {
+			trigrams.add(s.substring(i, i + 3));
+		}
+		return trigrams;
+	}
+
+	void save(Path file) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeInt(artifacts.size());
+			for (Artifact artifact : artifacts) {
+				out.writeUTF(artifact.groupId());
+				out.writeUTF(artifact.artifactId());
+				writeOptional(out, artifact.version());
+				writeOptional(out, artifact.description());
+			}
+			out.writeInt(trigrams.size());
+			for (var entry : new TreeMap<>(trigrams).entrySet()) {
+				out.writeUTF(entry.getKey());
+				int[] ids = entry.getValue();
+				writeVarInt(out, ids.length);
+				int previous = 0;
+				for (int id : ids) {
+					writeVarInt(out, id - previous);
+					previous = id;
+				}
+			}
+			out.writeInt(directories.size());
+			for (var entry : directories.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue());
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static SearchIndex load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+				throw new IOException("Unsupported search index " + file);
+			}
+			int count = in.readInt();
+			List<Artifact> artifacts = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				artifacts.add(new Artifact(in.readUTF(), in.readUTF(), readOptional(in), readOptional(in)));
+			}
+			int trigramCount = in.readInt();
+			Map<String, int[]> trigrams = new HashMap<>(trigramCount * 2);
+			for (int i = 0; i < trigramCount; i++) {
+				String trigram = in.readUTF();
+				int[] ids = new int[readVarInt(in)];
+				int previous = 0;
+				for (int j = 0; j < ids.length; j++) {
+					previous += readVarInt(in);
+					ids[j] = previous;
+				}
+				trigrams.put(trigram, ids);
+			}
+			int directoryCount = in.readInt();
+			Map<String, Long> directories = new TreeMap<>();
+			for (int i = 0; i < directoryCount; i++) {
+				directories.put(in.readUTF(), in.readLong());
+			}
+			return new SearchIndex(artifacts, trigrams, directories);
+		}
+	}
+
+	private static String highest(List<String> versions) {
+		Version highest = null;
+		for (String v : versions) {
+			Version version = new Version(v);
+			if (highest == null || version.isStable() && !highest.isStable()
+					|| version.isStable() == highest.isStable() && version.compareTo(highest) > 0) {
+				highest = version;
+			}
+		}
+		return highest == null ? null : highest.toString();
+	}
+
+	/**
+	 * Reads the project's description from a pom, stopping as soon as it's found.
+	 */
+	private static String description(Path pom) {
+		try (InputStream in = Files.newInputStream(pom)) {
+			XMLStreamReader xml = XML_INPUT_FACTORY.createXMLStreamReader(in);
+			try {
+				int depth = 0;
+				while (xml.hasNext()) {
+					int event = xml.next();
+					if (event == XMLStreamReader.START_ELEMENT) {
+						depth++;
+						if (depth == 2 && xml.getLocalName().equals("description")) {
+							String description = xml.getElementText().replaceAll("\\s+", " ").trim();
+							return description.isEmpty() ? null : description;
+						}
+					} else if (event == XMLStreamReader.END_ELEMENT) {
+						depth--;
+					}
+				}
+			} finally {
+				xml.close();
+			}
+		} catch (IOException | XMLStreamException e) {
+			// no description
+		}
+		return null;
+	}
+
+	private static void writeOptional(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s.length() > 2000 ? s.substring(0, 2000) : s);
+		}
+	}
+
+	private static String readOptional(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+}
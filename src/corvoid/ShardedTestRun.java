@@ -0,0 +1,304 @@
+package corvoid;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs test classes split across several forked JVMs. Shards are balanced using the
+ * per-class durations recorded by earlier runs in target/test-timings.json. Each fork's
+ * output is buffered and printed whole when it finishes so shards don't interleave,
+ * followed by a combined summary.
+ */
+class ShardedTestRun {
+	/** Assumed duration of a class that has never been timed when there's no history at all. */
+	static final long DEFAULT_MILLIS = 1000;
+
+	private static final Pattern JUNIT4_OK = Pattern.compile("^OK \\((\\d+) tests?\\)", Pattern.MULTILINE);
+	private static final Pattern JUNIT4_FAILED = Pattern.compile("^Tests run: (\\d+),\\s+Failures: (\\d+)", Pattern.MULTILINE);
+
+	private final Path target;
+	private final int forks;
+	private final boolean junit5;
+
+	record Shard(List<String> classes, long estimatedMillis) {}
+
+	interface CommandFactory {
+		/**
+		 * Builds the command line that runs the given classes and writes JUnit XML reports
+		 * to reportsDir.
+		 */
+		List<String> command(List<String> classes, Path reportsDir) throws IOException;
+	}
+
+	private record Result(int index, Shard shard, int exitCode, long millis, Path log, Path reportsDir) {}
+
+	static class Totals {
+		long tests, failures, skipped;
+	}
+
+	ShardedTestRun(Path target, int forks, boolean junit5) {
+		this.target = target;
+		this.forks = forks;
+		this.junit5 = junit5;
+	}
+
+	/**
+	 * Runs the tests and returns a combined exit code. Forks that write a runner results
+	 * file to reportsDir/results.json are combined into one entry in the test history.
+	 */
+	int run(List<String> testClasses, CommandFactory commands) throws IOException {
+		Path timingsFile = target.resolve("test-timings.json");
+		Map<String, Long> timings = readTimings(timingsFile);
+		List<Shard> shards = balance(testClasses, timings, forks);
+		Path shardsDir = target.resolve("test-shards");
+		Files.createDirectories(shardsDir);
+
+		System.out.println("Running " + testClasses.size() + " test classes in " + shards.size() + " forks");
+		long start = System.nanoTime();
+		BlockingQueue<Result> finished = new LinkedBlockingQueue<>();
+		List<Process> processes = new ArrayList<>();
+		try {
+			for (int i = 0; i < shards.size(); i++) {
+				Shard shard = shards.get(i);
+				Path log = shardsDir.resolve("shard-" + (i + 1) + ".log");
+				Path reportsDir = shardsDir.resolve("shard-" + (i + 1));
+				deleteReports(reportsDir);
+				long shardStart = System.nanoTime();
+				Process process = new ProcessBuilder(commands.command(shard.classes(), reportsDir))
+						.redirectErrorStream(true)
+						.redirectOutput(Redirect.to(log.toFile()))
+						.start();
+				processes.add(process);
+				int index = i;
+				process.onExit().thenAccept(p -> finished.add(new Result(index, shard, p.exitValue(),
+						(System.nanoTime() - shardStart) / 1_000_000, log, reportsDir)));
+			}
+
+			Totals totals = new Totals();
+			int exitCode = 0;
+			List<Integer> failedShards = new ArrayList<>();
+			List<TestHistory.Run> runs = new ArrayList<>();
+			for (int i = 0; i < shards.size(); i++) {
+				Result result = finished.take();
+				System.out.println("=== Fork " + (result.index() + 1) + "/" + shards.size() + ": "
+						+ result.shard().classes().size() + " classes in " + seconds(result.millis()) + " ===");
+				try (InputStream in = Files.newInputStream(result.log())) {
+					in.transferTo(System.out);
+				}
+				System.out.flush();
+				if (result.exitCode() != 0) {
+					exitCode = 1;
+					failedShards.add(result.index() + 1);
+				}
+				recordResult(result, timings, totals);
+				Path results = resultsFile(result.reportsDir());
+				if (Files.exists(results)) {
+					runs.add(TestHistory.read(results));
+				}
+			}
+
+			Set<String> current = new HashSet<>(testClasses);
+			timings.keySet().retainAll(current);
+			writeTimings(timingsFile, timings);
+			if (runs.size() == shards.size()) {
+				new TestHistory(target.resolve("test-history.json"))
+						.add(TestHistory.combine(runs, (System.nanoTime() - start) / 1_000_000));
+			}
+
+			System.out.println();
+			System.out.println("Tests: " + totals.tests + " run, " + totals.failures + " failed, " + totals.skipped
+					+ " skipped in " + seconds((System.nanoTime() - start) / 1_000_000) + " across " + shards.size() + " forks");
+			if (!failedShards.isEmpty()) {
+				System.out.println("Failed forks: " + failedShards + " (output kept in " + shardsDir + ")");
+			}
+			return exitCode;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for test forks");
+		} finally {
+			for (Process process : processes) {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Assigns classes to at most n shards, longest first, each to the shard with the least
+	 * work so far. Untimed classes are assumed to take the average of the timed ones.
+	 */
+	static List<Shard> balance(List<String> classes, Map<String, Long> timings, int n) {
+		long known = 0;
+		int count = 0;
+		for (String c : classes) {
+			Long t = timings.get(c);
+			if (t != null) {
+				known += t;
+				count++;
+			}
+		}
+		long fallback = count > 0 ? Math.max(1, known / count) : DEFAULT_MILLIS;
+
+		List<String> sorted = new ArrayList<>(classes);
+		sorted.sort(Comparator.comparingLong((String c) -> timings.getOrDefault(c, fallback)).reversed()
+				.thenComparing(Comparator.naturalOrder()));
+		int shardCount = Math.max(1, Math.min(n, classes.size()));
+		List<List<String>> assigned = new ArrayList<>();
+		long[] totals = new long[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			assigned.add(new ArrayList<>());
+		}
+		for (String c : sorted) {
+			int lightest = 0;
+			for (int i = 1; i < shardCount; i++) {
+				if (totals[i] < totals[lightest]) {
+					lightest = i;
+				}
+			}
+			assigned.get(lightest).add(c);
+			totals[lightest] += timings.getOrDefault(c, fallback);
+		}
+		List<Shard> shards = new ArrayList<>();
+		for (int i = 0; i < shardCount; i++) {
+			if (!assigned.get(i).isEmpty()) {
+				shards.add(new Shard(assigned.get(i), totals[i]));
+			}
+		}
+		return shards;
+	}
+
+	/**
+	 * Where a fork writing its reports to reportsDir should write its results file.
+	 */
+	static Path resultsFile(Path reportsDir) {
+		return reportsDir.resolve("results.json");
+	}
+
+	private void recordResult(Result result, Map<String, Long> timings, Totals totals) throws IOException {
+		Map<String, Long> measured = new HashMap<>();
+		if (readReports(result.reportsDir(), measured, totals)) {
+			for (String c : result.shard().classes()) {
+				timings.put(c, measured.getOrDefault(c, 0L));
+			}
+			return;
+		}
+		if (!junit5) {
+			String output = Files.readString(result.log());
+			Matcher ok = JUNIT4_OK.matcher(output);
+			Matcher failed = JUNIT4_FAILED.matcher(output);
+			if (ok.find()) {
+				totals.tests += Long.parseLong(ok.group(1));
+			} else if (failed.find()) {
+				totals.tests += Long.parseLong(failed.group(1));
+				totals.failures += Long.parseLong(failed.group(2));
+			}
+		}
+		// plain JUnitCore doesn't report per-class times so split the fork's time evenly
+		long each = result.millis() / result.shard().classes().size();
+		for (String c : result.shard().classes()) {
+			timings.put(c, each);
+		}
+	}
+
+	/**
+	 * Adds up the test counts and per-class durations from a directory of legacy JUnit XML
+	 * reports. Returns false if there were no reports, for example because the fork crashed.
+	 */
+	static boolean readReports(Path reportsDir, Map<String, Long> millisByClass, Totals totals) throws IOException {
+		if (!Files.isDirectory(reportsDir)) {
+			return false;
+		}
+		boolean found = false;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(reportsDir, "TEST-*.xml")) {
+			for (Path report : stream) {
+				found = true;
+				try (InputStream in = Files.newInputStream(report)) {
+					XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(in);
+					while (xml.hasNext()) {
+						if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+							continue;
+						}
+						switch (xml.getLocalName()) {
+							case "testcase" -> {
+								String className = xml.getAttributeValue(null, "classname");
+								String time = xml.getAttributeValue(null, "time");
+								if (className != null && time != null) {
+									int nested = className.indexOf('$');
+									String topLevel = nested >= 0 ? className.substring(0, nested) : className;
+									long millis = Math.round(Double.parseDouble(time.replace(",", "")) * 1000);
+									millisByClass.merge(topLevel, millis, Long::sum);
+								}
+								totals.tests++;
+							}
+							case "failure", "error" -> totals.failures++;
+							case "skipped" -> totals.skipped++;
+							default -> {}
+						}
+					}
+				} catch (XMLStreamException | NumberFormatException e) {
+					throw new IOException("Unable to parse test report " + report, e);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Records per-class durations measured outside a sharded run, so that later sharded
+	 * runs can be balanced using them.
+	 */
+	static void mergeTimings(Path target, Map<String, Long> measured) throws IOException {
+		Path file = target.resolve("test-timings.json");
+		Map<String, Long> timings = readTimings(file);
+		timings.putAll(measured);
+		writeTimings(file, timings);
+	}
+
+	private static Map<String, Long> readTimings(Path file) {
+		Map<String, Long> timings = new HashMap<>();
+		if (!Files.exists(file)) {
+			return timings;
+		}
+		try (InputStream in = Files.newInputStream(file)) {
+			if (Json.read(in) instanceof Map<?, ?> map) {
+				for (var entry : map.entrySet()) {
+					if (entry.getValue() instanceof Number millis) {
+						timings.put((String) entry.getKey(), millis.longValue());
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// start afresh
+		}
+		return timings;
+	}
+
+	private static void writeTimings(Path file, Map<String, Long> timings) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file)) {
+			Json.write(out, new TreeMap<>(timings));
+		}
+	}
+
+	static void deleteReports(Path reportsDir) throws IOException {
+		if (Files.isDirectory(reportsDir)) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(reportsDir)) {
+				for (Path f : stream) {
+					Files.delete(f);
+				}
+			}
+		}
+	}
+
+	private static String seconds(long millis) {
+		return String.format("%.1f s", millis / 1000.0);
+	}
+}
@@ -0,0 +1,138 @@
+package corvoid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches directory trees and individual files, coalescing bursts of events.
+ * <p>
+ * Editors often save several files at once and a branch switch can touch hundreds,
+ * so rather than reacting to each {@link WatchKey} we wait until the tree has been
+ * quiet for a short window and then hand back the full set of changed paths.
+ */
+class SourceWatcher implements Closeable {
+	static final long QUIET_MILLIS = 100;
+
+	private final WatchService watcher = FileSystems.getDefault().newWatchService();
+	private final Map<Path, WatchKey> registered = new HashMap<>();
+	private final Set<Path> trees = new HashSet<>();
+	private final Set<Path> files = new HashSet<>();
+
+	record Changes(Set<Path> paths, boolean overflow) {
+		boolean contains(Path file) {
+			return paths.contains(file);
+		}
+
+		Set<Path> under(Path dir, String suffix) {
+			Set<Path> result = new TreeSet<>();
+			for (Path p : paths) {
+				if (p.startsWith(dir) && (suffix == null || p.toString().endsWith(suffix))) {
+					result.add(p);
+				}
+			}
+			return result;
+		}
+	}
+
+	SourceWatcher() throws IOException {
+	}
+
+	/**
+	 * Watches every directory under dir, including ones created later.
+	 */
+	void watchTree(Path dir) throws IOException {
+		dir = dir.toAbsolutePath().normalize();
+		if (!Files.isDirectory(dir) || !trees.add(dir)) {
+			return;
+		}
+		registerTree(dir, null);
+	}
+
+	/**
+	 * Watches a single file by watching its parent directory and ignoring its siblings.
+	 */
+	void watchFile(Path file) throws IOException {
+		file = file.toAbsolutePath().normalize();
+		files.add(file);
+		register(file.getParent());
+	}
+
+	int directoryCount() {
+		return registered.size();
+	}
+
+	private void register(Path dir) throws IOException {
+		if (!registered.containsKey(dir)) {
+			registered.put(dir, dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+		}
+	}
+
+	private void registerTree(Path dir, Set<Path> created) throws IOException {
+		try (Stream<Path> stream = Files.walk(dir)) {
+			for (Path p : (Iterable<Path>) stream::iterator) {
+				if (Files.isDirectory(p)) {
+					register(p);
+				} else if (created != null) {
+					// files can land in a new directory before we get to register it
+					created.add(p);
+				}
+			}
+		}
+	}
+
+	private boolean isWatched(Path path) {
+		if (files.contains(path)) {
+			return true;
+		}
+		for (Path tree : trees) {
+			if (path.startsWith(tree)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Blocks until something changes then keeps collecting events until none have
+	 * arrived for {@link #QUIET_MILLIS}.
+	 */
+	Changes take() throws InterruptedException, IOException {
+		Set<Path> changed = new LinkedHashSet<>();
+		boolean overflow = false;
+		WatchKey key = watcher.take();
+		while (key != null) {
+			Path dir = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW) {
+					overflow = true;
+					continue;
+				}
+				Path path = dir.resolve((Path) event.context());
+				if (!isWatched(path)) {
+					continue;
+				}
+				if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+					registerTree(path, changed);
+				} else {
+					changed.add(path);
+				}
+			}
+			if (!key.reset()) {
+				registered.remove(dir);
+			}
+			key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		return new Changes(changed, overflow);
+	}
+
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+	}
+}
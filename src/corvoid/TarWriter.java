@@ -0,0 +1,162 @@
+package corvoid;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes ustar archives with fixed ownership, permissions and timestamps so that
+ * identical inputs give byte-identical output. Names that don't fit the header use a
+ * PAX extended header.
+ */
+class TarWriter implements Closeable {
+	private static final int BLOCK = 512;
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+	private final OutputStream out;
+	private final long mtime;
+
+	/**
+	 * The archive is written to out, which is flushed but not closed by {@link #close()}.
+	 */
+	TarWriter(OutputStream out, Instant timestamp) {
+		this.out = out;
+		this.mtime = timestamp.getEpochSecond();
+	}
+
+	/**
+	 * @param name path without a trailing slash
+	 */
+	void directory(String name) throws IOException {
+		header(name + "/", 0, '5', 0755);
+	}
+
+	void file(String name, Path source) throws IOException {
+		long size = Files.size(source);
+		header(name, size, '0', 0644);
+		try (InputStream in = Files.newInputStream(source)) {
+			if (in.transferTo(out) != size) {
+				throw new IOException(source + " changed while being archived");
+			}
+		}
+		pad(size);
+	}
+
+	void file(String name, byte[] data) throws IOException {
+		header(name, data.length, '0', 0644);
+		out.write(data);
+		pad(data.length);
+	}
+
+	private void pad(long size) throws IOException {
+		int remainder = (int) (size % BLOCK);
+		if (remainder != 0) {
+			out.write(new byte[BLOCK - remainder]);
+		}
+	}
+
+	private void header(String name, long size, char type, int mode) throws IOException {
+		byte[] nameBytes = name.getBytes(UTF_8);
+		String prefix = "";
+		String shortName = name;
+		StringBuilder pax = new StringBuilder();
+		if (nameBytes.length > 100) {
+			int split = splitPoint(name);
+			if (split > 0) {
+				prefix = name.substring(0, split);
+				shortName = name.substring(split + 1);
+			} else {
+				pax.append(paxRecord("path", name));
+				shortName = truncate(name, 100);
+			}
+		}
+		if (size > MAX_OCTAL_SIZE) {
+			pax.append(paxRecord("size", Long.toString(size)));
+		}
+		if (!pax.isEmpty()) {
+			byte[] records = pax.toString().getBytes(UTF_8);
+			block(truncate("PaxHeaders/" + shortName, 100), "", records.length, 'x', 0644);
+			out.write(records);
+			pad(records.length);
+		}
+		block(shortName, prefix, Math.min(size, MAX_OCTAL_SIZE), type, mode);
+	}
+
+	private void block(String name, String prefix, long size, char type, int mode) throws IOException {
+		byte[] header = new byte[BLOCK];
+		put(header, 0, 100, name.getBytes(UTF_8));
+		octal(header, 100, 8, mode);
+		octal(header, 108, 8, 0);
+		octal(header, 116, 8, 0);
+		octal(header, 124, 12, size);
+		octal(header, 136, 12, mtime);
+		Arrays.fill(header, 148, 156, (byte) ' ');
+		header[156] = (byte) type;
+		put(header, 257, 6, "ustar\0".getBytes(UTF_8));
+		put(header, 263, 2, "00".getBytes(UTF_8));
+		octal(header, 329, 8, 0);
+		octal(header, 337, 8, 0);
+		put(header, 345, 155, prefix.getBytes(UTF_8));
+		long checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xff;
+		}
+		octal(header, 148, 7, checksum);
+		out.write(header);
+	}
+
+	/**
+	 * Finds a slash that splits name into a prefix of at most 155 bytes and a name of at
+	 * most 100, or returns -1.
+	 */
+	private static int splitPoint(String name) {
+		for (int i = name.indexOf('/'); i > 0; i = name.indexOf('/', i + 1)) {
+			if (name.substring(0, i).getBytes(UTF_8).length <= 155
+					&& name.substring(i + 1).getBytes(UTF_8).length <= 100
+					&& i + 1 < name.length()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String truncate(String s, int maxBytes) {
+		while (s.getBytes(UTF_8).length > maxBytes) {
+			s = s.substring(0, s.length() - 1);
+		}
+		return s;
+	}
+
+	/**
+	 * Formats "length key=value\n" where length counts the whole record including itself.
+	 */
+	private static String paxRecord(String key, String value) {
+		int body = (" " + key + "=" + value + "\n").getBytes(UTF_8).length;
+		int length = body + Integer.toString(body).length();
+		if (Integer.toString(length).length() != Integer.toString(body).length()) {
+			length++;
+		}
+		return length + " " + key + "=" + value + "\n";
+	}
+
+	private static void put(byte[] header, int offset, int length, byte[] value) {
+		System.arraycopy(value, 0, header, offset, Math.min(length, value.length));
+	}
+
+	private static void octal(byte[] header, int offset, int length, long value) {
+		String digits = Long.toOctalString(value);
+		String padded = "0".repeat(length - 1 - digits.length()) + digits;
+		put(header, offset, length - 1, padded.getBytes(UTF_8));
+		header[offset + length - 1] = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.write(new byte[BLOCK * 2]);
+		out.flush();
+	}
+}
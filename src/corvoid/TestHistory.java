@@ -0,0 +1,124 @@
+package corvoid;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Keeps a compact record of recent test runs in target/test-history.json, built from the
+ * results files written by {@link TestRunner}'s runners. Each entry has the run's
+ * totals, duration and the time taken by each test class.
+ */
+class TestHistory {
+	static final int MAX_RUNS = 50;
+
+	/**
+	 * A summary of one results file, or of several combined.
+	 */
+	record Run(String started, long millis, long tests, long failed, long skipped, Map<String, Long> classMillis) {
+		Map<String, Object> toJson() {
+			Map<String, Object> json = new LinkedHashMap<>();
+			json.put("started", started);
+			json.put("millis", millis);
+			json.put("tests", tests);
+			json.put("failed", failed);
+			json.put("skipped", skipped);
+			json.put("classes", new TreeMap<>(classMillis));
+			return json;
+		}
+	}
+
+	private final Path file;
+
+	TestHistory(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Summarises a runner's results file. Nested classes are counted towards their
+	 * top-level class, which is the unit tests are selected and sharded by.
+	 */
+	static Run read(Path results) throws IOException {
+		Object json;
+		try (InputStream in = Files.newInputStream(results)) {
+			json = Json.read(in);
+		}
+		if (!(json instanceof Map<?, ?> map) || !(map.get("tests") instanceof List<?> tests)) {
+			throw new IOException("Unexpected test results format in " + results);
+		}
+		long failed = 0;
+		long skipped = 0;
+		Map<String, Long> classMillis = new HashMap<>();
+		for (Object o : tests) {
+			if (!(o instanceof Map<?, ?> test)) {
+				continue;
+			}
+			String status = String.valueOf(test.get("status"));
+			if (status.equals("skipped")) {
+				skipped++;
+			} else if (!status.equals("passed")) {
+				failed++;
+			}
+			String className = String.valueOf(test.get("class"));
+			int nested = className.indexOf('$');
+			String topLevel = nested >= 0 ? className.substring(0, nested) : className;
+			long millis = test.get("millis") instanceof Number n ? n.longValue() : 0;
+			classMillis.merge(topLevel, millis, Long::sum);
+		}
+		long millis = map.get("millis") instanceof Number n ? n.longValue() : 0;
+		return new Run(String.valueOf(map.get("started")), millis, tests.size(), failed, skipped, classMillis);
+	}
+
+	/**
+	 * Combines the runs of parallel forks into one that took the given wall clock time.
+	 */
+	static Run combine(List<Run> runs, long millis) {
+		String started = null;
+		long tests = 0;
+		long failed = 0;
+		long skipped = 0;
+		Map<String, Long> classMillis = new HashMap<>();
+		for (Run run : runs) {
+			if (started == null || run.started().compareTo(started) < 0) {
+				started = run.started();
+			}
+			tests += run.tests();
+			failed += run.failed();
+			skipped += run.skipped();
+			run.classMillis().forEach((c, m) -> classMillis.merge(c, m, Long::sum));
+		}
+		return new Run(started, millis, tests, failed, skipped, classMillis);
+	}
+
+	/**
+	 * Appends a run, dropping the oldest once there are more than {@link #MAX_RUNS}.
+	 */
+	void add(Run run) throws IOException {
+		List<Object> runs = new ArrayList<>(readRuns());
+		runs.add(run.toJson());
+		if (runs.size() > MAX_RUNS) {
+			runs = runs.subList(runs.size() - MAX_RUNS, runs.size());
+		}
+		Files.createDirectories(file.getParent());
+		try (Writer out = Files.newBufferedWriter(file)) {
+			out.write("[");
+			for (int i = 0; i < runs.size(); i++) {
+				out.write(i == 0 ? "\n" : ",\n");
+				Json.write(out, runs.get(i));
+			}
+			out.write("\n]\n");
+		}
+	}
+
+	private List<?> readRuns() {
+		if (!Files.exists(file)) {
+			return List.of();
+		}
+		try (InputStream in = Files.newInputStream(file)) {
+			return Json.read(in) instanceof List<?> list ? list : List.of();
+		} catch (IOException | RuntimeException e) {
+			// start afresh
+			return List.of();
+		}
+	}
+}
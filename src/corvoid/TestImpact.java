@@ -0,0 +1,257 @@
+package corvoid;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Works out which test classes can be affected by the changes since the last successful
+ * test run. The project's class files are parsed into a dependency graph from the classes
+ * named in their constant pools, and each class file's content hash is recorded alongside
+ * it in target/test-impact.json. A test is affected if it can reach, directly or through
+ * other project classes, a class that has been added, changed or removed since then.
+ * <p>
+ * References that don't appear in the bytecode, such as reflection, service loading or
+ * inlined constants, aren't seen. Any change to a resource or to the dependency jars
+ * therefore affects every test.
+ */
+class TestImpact {
+	private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;<>.\\[]+)[;<]");
+
+	private final Path stateFile;
+
+	/**
+	 * The project's files as seen at one point in time.
+	 *
+	 * @param dependencies fingerprint of the dependency jars
+	 * @param files        content hash of each file by class name or, for other files, path
+	 * @param references   project classes referenced by each project class
+	 */
+	record Snapshot(String dependencies, Map<String, String> files, Map<String, Set<String>> references) {}
+
+	TestImpact(Path stateFile) {
+		this.stateFile = stateFile;
+	}
+
+	/**
+	 * Scans the given class directories, which come first on the test classpath, and the
+	 * remaining classpath entries, of which directories are scanned and jars fingerprinted.
+	 */
+	static Snapshot scan(List<Path> classDirs, List<Path> dependencies) throws IOException {
+		Map<String, String> files = new TreeMap<>();
+		Map<String, Set<String>> rawReferences = new HashMap<>();
+		StringBuilder jars = new StringBuilder();
+		List<Path> dirs = new ArrayList<>(classDirs);
+		for (Path dependency : dependencies) {
+			if (Files.isDirectory(dependency)) {
+				dirs.add(dependency);
+			} else if (Files.exists(dependency)) {
+				jars.append(dependency).append(' ').append(Files.size(dependency)).append(' ')
+						.append(Files.getLastModifiedTime(dependency).toMillis()).append('\n');
+			}
+		}
+		for (Path dir : dirs) {
+			if (!Files.isDirectory(dir)) {
+				continue;
+			}
+			try (Stream<Path> stream = Files.walk(dir)) {
+				for (Path file : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+					String path = dir.relativize(file).toString().replace(File.separatorChar, '/');
+					boolean isClass = path.endsWith(".class");
+					String key = isClass ? path.substring(0, path.length() - ".class".length()) : "/" + path;
+					if (files.containsKey(key)) {
+						continue; // shadowed by an earlier classpath entry
+					}
+					byte[] data = Files.readAllBytes(file);
+					files.put(key, hash(data));
+					if (isClass) {
+						rawReferences.put(key, references(new ByteArrayInputStream(data)));
+					}
+				}
+			}
+		}
+
+		Map<String, Set<String>> references = new TreeMap<>();
+		for (var entry : rawReferences.entrySet()) {
+			Set<String> internal = new TreeSet<>();
+			for (String name : entry.getValue()) {
+				if (!name.equals(entry.getKey()) && rawReferences.containsKey(name)) {
+					internal.add(name);
+				}
+			}
+			references.put(entry.getKey(), internal);
+		}
+		return new Snapshot(hash(jars.toString().getBytes(UTF_8)), files, references);
+	}
+
+	/**
+	 * Returns the test classes affected by the differences between current and the last
+	 * successful run, or null if every test should run because there's no record of one
+	 * or something changed whose effect can't be traced.
+	 *
+	 * @param testClasses binary names of the top-level test classes
+	 */
+	List<String> affected(Snapshot current, List<String> testClasses) throws IOException {
+		Snapshot previous = load();
+		if (previous == null || !previous.dependencies().equals(current.dependencies())) {
+			return null;
+		}
+		Set<String> changed = new HashSet<>();
+		Set<String> keys = new HashSet<>(previous.files().keySet());
+		keys.addAll(current.files().keySet());
+		for (String key : keys) {
+			if (!Objects.equals(previous.files().get(key), current.files().get(key))) {
+				if (key.startsWith("/")) {
+					return null;
+				}
+				changed.add(key);
+			}
+		}
+
+		// walk the graphs backwards from the changed classes; the previous graph still
+		// knows who referred to a class that has since been removed
+		Map<String, Set<String>> referrers = new HashMap<>();
+		for (Snapshot snapshot : List.of(previous, current)) {
+			for (var entry : snapshot.references().entrySet()) {
+				for (String target : entry.getValue()) {
+					referrers.computeIfAbsent(target, k -> new HashSet<>()).add(entry.getKey());
+				}
+			}
+		}
+		Set<String> impacted = new HashSet<>(changed);
+		Deque<String> queue = new ArrayDeque<>(changed);
+		while (!queue.isEmpty()) {
+			for (String referrer : referrers.getOrDefault(queue.remove(), Set.of())) {
+				if (impacted.add(referrer)) {
+					queue.add(referrer);
+				}
+			}
+		}
+
+		Set<String> impactedTopLevel = new HashSet<>();
+		for (String name : impacted) {
+			int nested = name.indexOf('$');
+			impactedTopLevel.add((nested >= 0 ? name.substring(0, nested) : name).replace('/', '.'));
+		}
+		List<String> affected = new ArrayList<>();
+		for (String testClass : testClasses) {
+			if (impactedTopLevel.contains(testClass)) {
+				affected.add(testClass);
+			}
+		}
+		return affected;
+	}
+
+	/**
+	 * Records the snapshot as the state of the last successful test run.
+	 */
+	void save(Snapshot snapshot) throws IOException {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("dependencies", snapshot.dependencies());
+		json.put("files", snapshot.files());
+		json.put("references", snapshot.references());
+		Files.createDirectories(stateFile.getParent());
+		try (OutputStream out = Files.newOutputStream(stateFile)) {
+			Json.write(out, json);
+		}
+	}
+
+	private Snapshot load() {
+		if (!Files.exists(stateFile)) {
+			return null;
+		}
+		try (InputStream in = Files.newInputStream(stateFile)) {
+			Map<?, ?> json = (Map<?, ?>) Json.read(in);
+			Map<String, String> files = new HashMap<>();
+			for (var entry : ((Map<?, ?>) json.get("files")).entrySet()) {
+				files.put((String) entry.getKey(), (String) entry.getValue());
+			}
+			Map<String, Set<String>> references = new HashMap<>();
+			for (var entry : ((Map<?, ?>) json.get("references")).entrySet()) {
+				Set<String> targets = new HashSet<>();
+				for (Object target : (List<?>) entry.getValue()) {
+					targets.add((String) target);
+				}
+				references.put((String) entry.getKey(), targets);
+			}
+			return new Snapshot((String) json.get("dependencies"), files, references);
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the internal names of the classes a class file refers to, from its constant
+	 * pool's class entries and the type descriptors and signatures among its strings.
+	 */
+	static Set<String> references(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		if (in.readInt() != 0xCAFEBABE) {
+			throw new IOException("not a class file");
+		}
+		in.readUnsignedShort(); // minor version
+		in.readUnsignedShort(); // major version
+		int count = in.readUnsignedShort();
+		String[] strings = new String[count];
+		List<Integer> classIndexes = new ArrayList<>();
+		for (int i = 1; i < count; i++) {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case 1 -> strings[i] = in.readUTF();
+				case 7 -> classIndexes.add(in.readUnsignedShort());
+				case 8, 16, 19, 20 -> in.readUnsignedShort();
+				case 15 -> {
+					in.readUnsignedByte();
+					in.readUnsignedShort();
+				}
+				case 3, 4, 9, 10, 11, 12, 17, 18 -> in.readInt();
+				case 5, 6 -> {
+					in.readLong();
+					i++; // takes two slots
+				}
+				default -> throw new IOException("unknown constant pool tag " + tag);
+			}
+		}
+
+		Set<String> names = new HashSet<>();
+		for (int index : classIndexes) {
+			String name = strings[index];
+			if (name == null) {
+				continue;
+			}
+			if (name.startsWith("[")) {
+				addDescriptorClasses(name, names);
+			} else {
+				names.add(name);
+			}
+		}
+		for (String s : strings) {
+			if (s != null && s.indexOf(';') > 0) {
+				addDescriptorClasses(s, names);
+			}
+		}
+		return names;
+	}
+
+	private static void addDescriptorClasses(String descriptor, Set<String> names) {
+		Matcher m = DESCRIPTOR_CLASS.matcher(descriptor);
+		while (m.find()) {
+			names.add(m.group(1));
+		}
+	}
+
+	private static String hash(byte[] data) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(data));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package corvoid;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Corvoid's own test runners, which run tests through the JUnit Platform Launcher API or
+ * a JUnit 4 RunListener and record the outcome, duration and output of each test as
+ * JSON and JUnit XML.
+ * <p>
+ * The runners are shipped as source and compiled against the project's test
+ * dependencies on first use, as they must match whichever JUnit version it uses.
+ */
+class TestRunner {
+	static final String PLATFORM_RUNNER = "corvoid.runner.PlatformRunner";
+	static final String JUNIT4_RUNNER = "corvoid.runner.JUnit4Runner";
+
+	private final Path dir;
+	private final boolean junit5;
+
+	/**
+	 * @param dir where the runner's sources and classes are kept
+	 */
+	TestRunner(Path dir, boolean junit5) {
+		this.dir = dir;
+		this.junit5 = junit5;
+	}
+
+	static String mainClass(boolean junit5) {
+		return junit5 ? PLATFORM_RUNNER : JUNIT4_RUNNER;
+	}
+
+	/**
+	 * Compiles the runner if the sources or dependencies have changed since it was last
+	 * compiled. Returns its class directory, or null if it can't be compiled against these
+	 * dependencies, for example because they contain an unsupported JUnit version.
+	 */
+	Path compile(List<Path> dependencies) throws IOException {
+		List<String> names = List.of("Results.java", junit5 ? "PlatformRunner.java" : "JUnit4Runner.java");
+		Map<String, byte[]> sources = new LinkedHashMap<>();
+		for (String name : names) {
+			try (InputStream in = requireNonNull(TestRunner.class.getResourceAsStream("runner/" + name), name)) {
+				sources.put(name, in.readAllBytes());
+			}
+		}
+		String key = key(sources, dependencies);
+		Path classes = dir.resolve("classes");
+		Path keyFile = dir.resolve("key");
+		if (Files.exists(keyFile) && Files.readString(keyFile).equals(key)) {
+			return classes;
+		}
+		if (Files.exists(keyFile)) {
+			Files.delete(keyFile);
+		}
+
+		Path srcDir = dir.resolve("src/corvoid/runner");
+		Files.createDirectories(srcDir);
+		List<String> args = new ArrayList<>(List.of("-nowarn", "-proc:none", "-d", classes.toString(),
+				"-cp", ClassDataSharing.join(dependencies)));
+		for (var entry : sources.entrySet()) {
+			Path file = srcDir.resolve(entry.getKey());
+			Files.write(file, entry.getValue());
+			args.add(file.toString());
+		}
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		if (compiler == null || compiler.run(null, errors, errors, args.toArray(new String[0])) != 0) {
+			Files.writeString(dir.resolve("compile.log"), errors.toString(UTF_8));
+			return null;
+		}
+		Files.writeString(keyFile, key);
+		return classes;
+	}
+
+	/**
+	 * Builds the runner's arguments. Tests are found by scanning scanRoot when testClasses
+	 * is null.
+	 */
+	static List<String> arguments(List<String> testClasses, Path scanRoot, Path results, Path reportsDir) {
+		List<String> args = new ArrayList<>();
+		if (testClasses == null) {
+			args.add("--scan");
+			args.add(scanRoot.toAbsolutePath().toString());
+		} else {
+			for (String testClass : testClasses) {
+				args.add("--select-class");
+				args.add(testClass);
+			}
+		}
+		args.add("--results");
+		args.add(results.toAbsolutePath().toString());
+		args.add("--reports-dir");
+		args.add(reportsDir.toAbsolutePath().toString());
+		return args;
+	}
+
+	private static String key(Map<String, byte[]> sources, List<Path> dependencies) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(System.getProperty("java.version").getBytes(UTF_8));
+			for (byte[] source : sources.values()) {
+				digest.update(source);
+			}
+			for (Path dependency : dependencies) {
+				digest.update((dependency + " " + Files.size(dependency) + "\n").getBytes(UTF_8));
+			}
+			return HexFormat.of().formatHex(digest.digest(), 0, 16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
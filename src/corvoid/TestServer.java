@@ -0,0 +1,196 @@
+package corvoid;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * A test runner that stays alive between runs. Its classpath holds just the test
+ * dependencies, so JUnit and everything else from the dependency jars is loaded and
+ * JIT-compiled once, while each run loads the project's and tests' classes into a fresh
+ * classloader that is thrown away afterwards.
+ * <p>
+ * Runs are requested over a loopback socket whose port and a random token are written to
+ * a properties file. The test output is streamed back as length-prefixed frames followed
+ * by the exit code. The server exits after an hour without a request.
+ * <p>
+ * This class is copied into target/ and must only depend on the JDK.
+ */
+public class TestServer {
+	static final int IDLE_TIMEOUT_MILLIS = 60 * 60 * 1000;
+	static final int END_OF_OUTPUT = -1;
+	static final String CONSOLE_LAUNCHER = "org.junit.platform.console.ConsoleLauncher";
+	static final String JUNIT_CORE = "org.junit.runner.JUnitCore";
+
+	private final ServerSocket serverSocket;
+	private final String token;
+
+	private TestServer(ServerSocket serverSocket, String token) {
+		this.serverSocket = serverSocket;
+		this.token = token;
+	}
+
+	/**
+	 * Usage: TestServer state-file key
+	 * <p>
+	 * The key identifies the classpath the server was started with and is written to the
+	 * state file so clients can tell whether it still matches theirs.
+	 */
+	public static void main(String[] args) throws IOException {
+		Path stateFile = Path.of(args[0]);
+		byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		String token = HexFormat.of().formatHex(random);
+		ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		serverSocket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+
+		Properties state = new Properties();
+		state.setProperty("port", Integer.toString(serverSocket.getLocalPort()));
+		state.setProperty("token", token);
+		state.setProperty("pid", Long.toString(ProcessHandle.current().pid()));
+		state.setProperty("key", args[1]);
+		Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmp)) {
+			state.store(out, null);
+		}
+		Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		new TestServer(serverSocket, token).serve();
+	}
+
+	private void serve() throws IOException {
+		while (true) {
+			try (Socket socket = serverSocket.accept()) {
+				handle(socket);
+			} catch (SocketTimeoutException e) {
+				return;
+			} catch (IOException e) {
+				// client went away, wait for the next one
+			}
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		if (!token.equals(in.readUTF())) {
+			return;
+		}
+		List<URL> classpath = new ArrayList<>();
+		for (int i = in.readInt(); i > 0; i--) {
+			classpath.add(Path.of(in.readUTF()).toUri().toURL());
+		}
+		String mainClass = in.readUTF();
+		List<String> args = new ArrayList<>();
+		for (int i = in.readInt(); i > 0; i--) {
+			args.add(in.readUTF());
+		}
+
+		PrintStream originalOut = System.out;
+		PrintStream originalErr = System.err;
+		PrintStream output = new PrintStream(new FrameOutputStream(out), true);
+		Thread thread = Thread.currentThread();
+		ClassLoader originalContext = thread.getContextClassLoader();
+		int exitCode;
+		try (URLClassLoader loader = new URLClassLoader(classpath.toArray(new URL[0]), ClassLoader.getSystemClassLoader())) {
+			System.setOut(output);
+			System.setErr(output);
+			thread.setContextClassLoader(loader);
+			exitCode = switch (mainClass) {
+				case CONSOLE_LAUNCHER -> runJUnit5(output, args);
+				case JUNIT_CORE -> runJUnit4(loader, output, args);
+				default -> runRunner(mainClass, output, args);
+			};
+		} catch (Throwable t) {
+			t.printStackTrace(output);
+			exitCode = 1;
+		} finally {
+			thread.setContextClassLoader(originalContext);
+			System.setOut(originalOut);
+			System.setErr(originalErr);
+		}
+		output.flush();
+		out.writeInt(END_OF_OUTPUT);
+		out.writeInt(exitCode);
+		out.flush();
+	}
+
+	/**
+	 * Runs one of corvoid's test runners, which have a static run(PrintStream, String[])
+	 * method returning the exit code.
+	 */
+	private static int runRunner(String mainClass, PrintStream output, List<String> args) throws ReflectiveOperationException {
+		Method run = Class.forName(mainClass).getMethod("run", PrintStream.class, String[].class);
+		return (Integer) run.invoke(null, output, args.toArray(new String[0]));
+	}
+
+	/**
+	 * Runs the JUnit console launcher in-process. Its entry point changed from execute()
+	 * to run() in JUnit Platform 1.10.
+	 */
+	private static int runJUnit5(PrintStream output, List<String> args) throws ReflectiveOperationException {
+		Class<?> launcher = Class.forName(CONSOLE_LAUNCHER);
+		Object result;
+		try {
+			Method run = launcher.getMethod("run", PrintWriter.class, PrintWriter.class, String[].class);
+			PrintWriter writer = new PrintWriter(output, true);
+			result = run.invoke(null, writer, writer, args.toArray(new String[0]));
+			writer.flush();
+		} catch (NoSuchMethodException e) {
+			Method execute = launcher.getMethod("execute", PrintStream.class, PrintStream.class, String[].class);
+			result = execute.invoke(null, output, output, args.toArray(new String[0]));
+		}
+		return (Integer) result.getClass().getMethod("getExitCode").invoke(result);
+	}
+
+	private static int runJUnit4(ClassLoader loader, PrintStream output, List<String> classNames) throws ReflectiveOperationException {
+		Class<?>[] classes = new Class<?>[classNames.size()];
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = Class.forName(classNames.get(i), false, loader);
+		}
+		Class<?> coreClass = Class.forName(JUNIT_CORE);
+		Class<?> listenerClass = Class.forName("org.junit.runner.notification.RunListener");
+		Object core = coreClass.getConstructor().newInstance();
+		Object listener = Class.forName("org.junit.internal.TextListener").getConstructor(PrintStream.class).newInstance(output);
+		coreClass.getMethod("addListener", listenerClass).invoke(core, listener);
+		Object result = coreClass.getMethod("run", Class[].class).invoke(core, (Object) classes);
+		return (Boolean) result.getClass().getMethod("wasSuccessful").invoke(result) ? 0 : 1;
+	}
+
+	/**
+	 * Sends each write to the client as a length-prefixed frame.
+	 */
+	private static class FrameOutputStream extends OutputStream {
+		private final DataOutputStream out;
+
+		FrameOutputStream(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if (len > 0) {
+				out.writeInt(len);
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
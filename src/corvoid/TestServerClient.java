@@ -0,0 +1,196 @@
+package corvoid;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Runs tests in a {@link TestServer}, starting one in the background when there isn't a
+ * server for the current dependency classpath already running. A server for an outdated
+ * classpath is stopped and replaced.
+ */
+class TestServerClient {
+	private static final long START_TIMEOUT_MILLIS = 30_000;
+
+	private final Path dir;
+	private final ClassDataSharing classDataSharing;
+
+	/**
+	 * @param dir where the server's classes, state file and log are kept
+	 */
+	TestServerClient(Path dir, ClassDataSharing classDataSharing) {
+		this.dir = dir;
+		this.classDataSharing = classDataSharing;
+	}
+
+	/**
+	 * Runs the tests, streaming their output to System.out, and returns the exit code.
+	 *
+	 * @param dependencies  jars loaded once by the server
+	 * @param runnerClasses the compiled {@link TestRunner}, or null if it isn't used
+	 * @param classDirs     directories loaded afresh for this run
+	 * @param mainClass     the test runner, JUnit console launcher or JUnitCore
+	 * @param args          arguments for the main class
+	 */
+	int run(List<Path> dependencies, Path runnerClasses, List<Path> classDirs, String mainClass,
+			List<String> args) throws IOException {
+		Files.createDirectories(dir);
+		Path stateFile = dir.resolve("server.properties");
+		List<Path> serverClasses = new ArrayList<>();
+		serverClasses.add(writeServerClasses());
+		if (runnerClasses != null) {
+			serverClasses.add(runnerClasses);
+		}
+		String key = key(dependencies, serverClasses);
+
+		Properties state = readState(stateFile);
+		if (state != null && key.equals(state.getProperty("key"))) {
+			try {
+				return request(state, classDirs, mainClass, args);
+			} catch (ConnectException e) {
+				// it has exited, start another
+			}
+		}
+		stop(state);
+		Files.deleteIfExists(stateFile);
+		System.out.println("Starting test server");
+		List<String> command = classDataSharing.javaCommand("test-server", serverClasses, dependencies);
+		command.add(TestServer.class.getName());
+		command.add(stateFile.toString());
+		command.add(key);
+		Path log = dir.resolve("server.log");
+		Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(log.toFile())
+				.start();
+		long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+		while ((state = readState(stateFile)) == null || !key.equals(state.getProperty("key"))) {
+			if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+				process.destroy();
+				throw new IOException("Test server failed to start, see " + log);
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		Corvoid.clearLine();
+		return request(state, classDirs, mainClass, args);
+	}
+
+	private static int request(Properties state, List<Path> classDirs, String mainClass, List<String> args) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(state.getProperty("port")))) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(state.getProperty("token"));
+			out.writeInt(classDirs.size());
+			for (Path classDir : classDirs) {
+				out.writeUTF(classDir.toAbsolutePath().toString());
+			}
+			out.writeUTF(mainClass);
+			out.writeInt(args.size());
+			for (String arg : args) {
+				out.writeUTF(arg);
+			}
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			byte[] buffer = new byte[8192];
+			for (int length = in.readInt(); length != TestServer.END_OF_OUTPUT; length = in.readInt()) {
+				while (length > 0) {
+					int n = in.read(buffer, 0, Math.min(length, buffer.length));
+					if (n < 0) {
+						throw new EOFException("test server disconnected");
+					}
+					System.out.write(buffer, 0, n);
+					length -= n;
+				}
+				System.out.flush();
+			}
+			return in.readInt();
+		}
+	}
+
+	/**
+	 * Stops the server, if any, described by the state file.
+	 */
+	private static void stop(Properties state) {
+		if (state != null && state.getProperty("pid") != null) {
+			ProcessHandle.of(Long.parseLong(state.getProperty("pid"))).ifPresent(process -> {
+				if (process.info().command().map(c -> c.contains("java")).orElse(true)) {
+					process.destroy();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Copies the server's classes out of corvoid so it can be run without corvoid itself
+	 * on the classpath, which the tests would otherwise see.
+	 */
+	private Path writeServerClasses() throws IOException {
+		Path classes = dir.resolve("classes");
+		for (Class<?> c : TestServer.class.getNestMembers()) {
+			String name = c.getName().replace('.', '/') + ".class";
+			byte[] data;
+			try (InputStream in = requireNonNull(TestServer.class.getResourceAsStream("/" + name), name)) {
+				data = in.readAllBytes();
+			}
+			Path file = classes.resolve(name);
+			if (!Files.exists(file) || !Arrays.equals(data, Files.readAllBytes(file))) {
+				Files.createDirectories(file.getParent());
+				Files.write(file, data);
+			}
+		}
+		return classes;
+	}
+
+	private static Properties readState(Path stateFile) {
+		if (!Files.exists(stateFile)) {
+			return null;
+		}
+		Properties state = new Properties();
+		try (InputStream in = Files.newInputStream(stateFile)) {
+			state.load(in);
+		} catch (IOException e) {
+			return null;
+		}
+		return state;
+	}
+
+	/**
+	 * Identifies a server by its classpath, including the jars' sizes and timestamps and
+	 * the server's and runner's own classes so that upgrading corvoid replaces it.
+	 */
+	private static String key(List<Path> dependencies, List<Path> serverClasses) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(System.getProperty("java.home").getBytes(UTF_8));
+			for (Path dependency : dependencies) {
+				digest.update((dependency + " " + Files.size(dependency) + " "
+						+ Files.getLastModifiedTime(dependency).toMillis() + "\n").getBytes(UTF_8));
+			}
+			for (Path classes : serverClasses) {
+				SortedSet<Path> files = new TreeSet<>();
+				try (var stream = Files.walk(classes)) {
+					stream.filter(Files::isRegularFile).forEach(files::add);
+				}
+				for (Path file : files) {
+					digest.update(Files.readAllBytes(file));
+				}
+			}
+			return HexFormat.of().formatHex(digest.digest(), 0, 16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package corvoid;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The versions listed in an artifact's maven-metadata.xml, sorted and with the answers
+ * to the usual questions about them precomputed. Some artifacts list thousands of
+ * versions, so the index is saved as JSON next to the metadata file and only rebuilt
+ * when the metadata's size or timestamp changes.
+ */
+class VersionIndex {
+	private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	record Entry(String version, boolean stable) {}
+
+	/**
+	 * The saved form of an index. Versions are stored compactly as a list of names and
+	 * a string of y/n stability flags.
+	 */
+	private record Saved(String source, String release, String latestStable, Map<String, String> latestStableByMajor,
+						 List<String> versions, String stable) {}
+
+	private final List<Entry> versions;
+	private final String release;
+	private final String latestStable;
+	private final SortedMap<Long, String> latestStableByMajor;
+
+	private VersionIndex(List<Entry> versions, String release, String latestStable,
+						 SortedMap<Long, String> latestStableByMajor) {
+		this.versions = versions;
+		this.release = release;
+		this.latestStable = latestStable;
+		this.latestStableByMajor = latestStableByMajor;
+	}
+
+	/**
+	 * All versions, oldest first.
+	 */
+	List<Entry> versions() {
+		return versions;
+	}
+
+	/**
+	 * The version the metadata names as the latest release, which may be a milestone or
+	 * release candidate, or null if it doesn't name one.
+	 */
+	String release() {
+		return release;
+	}
+
+	/**
+	 * The highest version without a pre-release qualifier, or null if there isn't one.
+	 */
+	String latestStable() {
+		return latestStable;
+	}
+
+	/**
+	 * The highest stable version with the given major version number, or null.
+	 */
+	String latestStable(long major) {
+		return latestStableByMajor.get(major);
+	}
+
+	/**
+	 * Returns the index of a metadata file, reading the saved index if it's up to date and
+	 * otherwise building and saving it.
+	 */
+	static VersionIndex load(Path metadata) throws IOException {
+		Path indexFile = indexPath(metadata);
+		String source = Files.size(metadata) + ":" + Files.getLastModifiedTime(metadata).toMillis();
+		if (Files.exists(indexFile)) {
+			try (InputStream in = Files.newInputStream(indexFile)) {
+				VersionIndex index = fromSaved(Json.read(in, Saved.class), source);
+				if (index != null) {
+					return index;
+				}
+			} catch (IOException | RuntimeException e) {
+				// rebuild it
+			}
+		}
+		VersionIndex index;
+		try (InputStream in = Files.newInputStream(metadata)) {
+			index = parse(in);
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to parse " + metadata, e);
+		}
+		save(indexFile, index.toSaved(source));
+		return index;
+	}
+
+	/**
+	 * Saves an index through a temporary file of its own, so processes rebuilding the same
+	 * index don't collide. A failure to save is ignored as the index is rebuilt next time.
+	 */
+	private static void save(Path indexFile, Saved saved) {
+		Path tmp = null;
+		try {
+			tmp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				Json.write(out, saved);
+			}
+			Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			try {
+				if (tmp != null) {
+					Files.deleteIfExists(tmp);
+				}
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	static Path indexPath(Path metadata) {
+		String name = metadata.getFileName().toString();
+		return metadata.resolveSibling(name.substring(0, name.length() - ".xml".length()) + ".index.json");
+	}
+
+	/**
+	 * Builds an index from maven-metadata.xml, streaming over the document and keeping
+	 * just the version strings.
+	 */
+	static VersionIndex parse(InputStream in) throws XMLStreamException {
+		XMLStreamReader xml = XML_INPUT_FACTORY.createXMLStreamReader(in);
+		Set<String> seen = new HashSet<>();
+		List<Version> parsed = new ArrayList<>();
+		String release = null;
+		try {
+			while (xml.hasNext()) {
+				if (xml.next() != XMLStreamReader.START_ELEMENT) {
+					continue;
+				}
+				switch (xml.getLocalName()) {
+					case "version" -> {
+						String version = xml.getElementText().trim();
+						if (!version.isEmpty() && seen.add(version)) {
+							parsed.add(new Version(version));
+						}
+					}
+					case "release" -> release = xml.getElementText().trim();
+					default -> {}
+				}
+			}
+		} finally {
+			xml.close();
+		}
+		parsed.sort(null);
+
+		List<Entry> versions = new ArrayList<>(parsed.size());
+		String latestStable = null;
+		SortedMap<Long, String> latestStableByMajor = new TreeMap<>();
+		for (Version version : parsed) {
+			boolean stable = version.isStable();
+			versions.add(new Entry(version.toString(), stable));
+			if (stable) {
+				latestStable = version.toString();
+				long major = major(version.toString());
+				if (major >= 0) {
+					latestStableByMajor.put(major, version.toString());
+				}
+			}
+		}
+		return new VersionIndex(List.copyOf(versions), release == null || release.isEmpty() ? null : release,
+				latestStable, latestStableByMajor);
+	}
+
+	/**
+	 * The leading number of a version string, or -1 if it doesn't start with one.
+	 */
+	static long major(String version) {
+		int end = 0;
+		while (end < version.length() && end < 18 && Character.isDigit(version.charAt(end))) {
+			end++;
+		}
+		return end == 0 ? -1 : Long.parseLong(version.substring(0, end));
+	}
+
+	private Saved toSaved(String source) {
+		Map<String, String> byMajor = new LinkedHashMap<>();
+		latestStableByMajor.forEach((major, version) -> byMajor.put(major.toString(), version));
+		List<String> names = new ArrayList<>(versions.size());
+		StringBuilder stable = new StringBuilder(versions.size());
+		for (Entry entry : versions) {
+			names.add(entry.version());
+			stable.append(entry.stable() ? 'y' : 'n');
+		}
+		return new Saved(source, release, latestStable, byMajor, names, stable.toString());
+	}
+
+	/**
+	 * Reads a saved index, returning null if it was built from a different metadata file.
+	 */
+	private static VersionIndex fromSaved(Saved saved, String source) {
+		if (saved == null || !source.equals(saved.source()) || saved.versions() == null || saved.stable() == null
+				|| saved.versions().size() != saved.stable().length()) {
+			return null;
+		}
+		List<Entry> versions = new ArrayList<>(saved.versions().size());
+		for (int i = 0; i < saved.versions().size(); i++) {
+			versions.add(new Entry(saved.versions().get(i), saved.stable().charAt(i) == 'y'));
+		}
+		SortedMap<Long, String> latestStableByMajor = new TreeMap<>();
+		if (saved.latestStableByMajor() != null) {
+			saved.latestStableByMajor().forEach((major, version) -> latestStableByMajor.put(Long.parseLong(major), version));
+		}
+		return new VersionIndex(List.copyOf(versions), saved.release(), saved.latestStable(), latestStableByMajor);
+	}
+}
@@ -0,0 +1,230 @@
+package corvoid;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads a zip file's central directory so entries can be copied without inflating them.
+ * <p>
+ * Unlike {@link java.util.zip.ZipFile} this gives access to the raw compressed bytes of
+ * each entry along with the CRC and sizes recorded in the central directory.
+ */
+class ZipIndex implements Closeable {
+	static final int METHOD_STORED = 0;
+	static final int METHOD_DEFLATED = 8;
+
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int END_SIG = 0x06054b50;
+	private static final int ZIP64_END_SIG = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final int END_SIZE = 22;
+	private static final long MAX_COMMENT = 0xffff;
+
+	record Entry(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size,
+				 long localHeaderOffset) {
+		boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+
+	private final FileChannel channel;
+	private final List<Entry> entries;
+
+	ZipIndex(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			entries = readCentralDirectory();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	List<Entry> entries() {
+		return entries;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Truncated zip file");
+			}
+		}
+		return buffer.flip();
+	}
+
+	private List<Entry> readCentralDirectory() throws IOException {
+		long size = channel.size();
+		int tailLength = (int) Math.min(size, END_SIZE + MAX_COMMENT);
+		ByteBuffer tail = read(size - tailLength, tailLength);
+		int end = -1;
+		for (int i = tailLength - END_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_SIG) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("Not a zip file: no end of central directory record");
+		}
+
+		long count = tail.getShort(end + 10) & 0xffff;
+		long cdSize = tail.getInt(end + 12) & 0xffffffffL;
+		long cdOffset = tail.getInt(end + 16) & 0xffffffffL;
+		long endPosition = size - tailLength + end;
+		if (endPosition >= 20) {
+			ByteBuffer locator = read(endPosition - 20, 20);
+			if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+				ByteBuffer end64 = read(locator.getLong(8), 56);
+				if (end64.getInt(0) != ZIP64_END_SIG) {
+					throw new ZipException("Invalid zip64 end of central directory record");
+				}
+				count = end64.getLong(32);
+				cdSize = end64.getLong(40);
+				cdOffset = end64.getLong(48);
+			}
+		}
+		if (cdSize > Integer.MAX_VALUE) {
+			throw new ZipException("Central directory too large");
+		}
+
+		ByteBuffer cd = read(cdOffset, (int) cdSize);
+		List<Entry> list = new ArrayList<>((int) Math.min(count, 1 << 20));
+		for (long i = 0; i < count; i++) {
+			int p = cd.position();
+			if (cd.getInt(p) != CENTRAL_HEADER_SIG) {
+				throw new ZipException("Invalid central directory header");
+			}
+			int flags = cd.getShort(p + 8) & 0xffff;
+			int method = cd.getShort(p + 10) & 0xffff;
+			int dosTime = cd.getInt(p + 12);
+			long crc = cd.getInt(p + 16) & 0xffffffffL;
+			long compressedSize = cd.getInt(p + 20) & 0xffffffffL;
+			long uncompressedSize = cd.getInt(p + 24) & 0xffffffffL;
+			int nameLength = cd.getShort(p + 28) & 0xffff;
+			int extraLength = cd.getShort(p + 30) & 0xffff;
+			int commentLength = cd.getShort(p + 32) & 0xffff;
+			long offset = cd.getInt(p + 42) & 0xffffffffL;
+
+			byte[] name = new byte[nameLength];
+			cd.get(p + 46, name);
+
+			// zip64 extra fields only hold the values that overflowed, in this order
+			int extra = p + 46 + nameLength;
+			int extraEnd = extra + extraLength;
+			while (extra + 4 <= extraEnd) {
+				int id = cd.getShort(extra) & 0xffff;
+				int length = cd.getShort(extra + 2) & 0xffff;
+				if (id == ZIP64_EXTRA_ID) {
+					int q = extra + 4;
+					if (uncompressedSize == 0xffffffffL) { uncompressedSize = cd.getLong(q); q += 8; }
+					if (compressedSize == 0xffffffffL) { compressedSize = cd.getLong(q); q += 8; }
+					if (offset == 0xffffffffL) { offset = cd.getLong(q); }
+				}
+				extra += 4 + length;
+			}
+
+			list.add(new Entry(new String(name, UTF_8), flags, method, dosTime, crc, compressedSize,
+					uncompressedSize, offset));
+			cd.position(extraEnd + commentLength);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the position of the entry's compressed data, just past its local header.
+	 */
+	long dataOffset(Entry entry) throws IOException {
+		ByteBuffer header = read(entry.localHeaderOffset, 30);
+		if (header.getInt(0) != LOCAL_HEADER_SIG) {
+			throw new ZipException("Invalid local header for " + entry.name);
+		}
+		int nameLength = header.getShort(26) & 0xffff;
+		int extraLength = header.getShort(28) & 0xffff;
+		return entry.localHeaderOffset + 30 + nameLength + extraLength;
+	}
+
+	/**
+	 * Copies the entry's compressed bytes verbatim, letting the OS move them directly
+	 * between files where it can.
+	 */
+	void transferData(Entry entry, WritableByteChannel out) throws IOException {
+		long position = dataOffset(entry);
+		long remaining = entry.compressedSize;
+		while (remaining > 0) {
+			long n = channel.transferTo(position, remaining, out);
+			if (n <= 0) {
+				throw new EOFException("Truncated entry " + entry.name);
+			}
+			position += n;
+			remaining -= n;
+		}
+	}
+
+	/**
+	 * Opens the entry's uncompressed contents.
+	 */
+	InputStream open(Entry entry) throws IOException {
+		InputStream raw = new RegionInputStream(dataOffset(entry), entry.compressedSize);
+		return switch (entry.method) {
+			case METHOD_STORED -> raw;
+			case METHOD_DEFLATED -> new InflaterInputStream(raw, new Inflater(true), 8192) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					inf.end();
+				}
+			};
+			default -> throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+		};
+	}
+
+	private class RegionInputStream extends InputStream {
+		private long position;
+		private final long end;
+
+		RegionInputStream(long position, long length) {
+			this.position = position;
+			this.end = position + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			position += n;
+			return n;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,92 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClassDataSharingTest {
+
+    @Test
+    public void testJarsOnlyGoFirstWhenNothingIsShadowed() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-cds-test");
+        try {
+            Path jar = tempDir.resolve("lib.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+                zip.putNextEntry(new ZipEntry("lib/"));
+                zip.putNextEntry(new ZipEntry("lib/Lib.class"));
+                zip.putNextEntry(new ZipEntry("lib.properties"));
+            }
+            Path classes = tempDir.resolve("classes");
+            Files.createDirectories(classes.resolve("lib"));
+            Files.writeString(classes.resolve("app.properties"), "");
+            Files.writeString(classes.resolve("lib/App.class"), "");
+            assertFalse(ClassDataSharing.shadows(List.of(classes, tempDir.resolve("missing")), List.of(jar)));
+
+            Path cds = tempDir.resolve("cds");
+            List<String> command = new ClassDataSharing(cds).javaCommand("test", List.of(classes), List.of(jar));
+            assertEquals(jar + ":" + classes, command.get(command.indexOf("-cp") + 1));
+
+            assertTrue(Files.exists(cds.resolve("test.launch")));
+
+            // a test resource overriding the jar's copy has to stay ahead of it; the cached
+            // check is redone as compiling updates the directory's time
+            Files.writeString(classes.resolve("lib.properties"), "");
+            Files.setLastModifiedTime(classes, FileTime.fromMillis(Files.getLastModifiedTime(classes).toMillis() + 1000));
+            assertTrue(ClassDataSharing.shadows(List.of(classes), List.of(jar)));
+            command = new ClassDataSharing(cds).javaCommand("test", List.of(classes), List.of(jar));
+            assertEquals(List.of("java", "-cp", classes + ":" + jar), command);
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testOnlyFirstLaunchRecordsClassList() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-cds-test");
+        try {
+            Path jar = tempDir.resolve("lib.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+                zip.putNextEntry(new ZipEntry("lib/Lib.class"));
+            }
+            ClassDataSharing classDataSharing = new ClassDataSharing(tempDir.resolve("cds"));
+            List<String> first = classDataSharing.javaCommand("test", List.of(), List.of(jar));
+            assertTrue(first.get(1).startsWith("-XX:DumpLoadedClassList="), first.toString());
+
+            // later forks started alongside it neither record nor dump the unfinished list
+            Files.writeString(Path.of(first.get(1).substring("-XX:DumpLoadedClassList=".length())), "lib/Lib\n");
+            assertEquals(List.of("java", "-cp", jar.toString()), classDataSharing.javaCommand("test", List.of(), List.of(jar)));
+            try (var files = Files.list(tempDir.resolve("cds"))) {
+                assertEquals(1, files.filter(file -> file.toString().endsWith(".classlist")).count());
+            }
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
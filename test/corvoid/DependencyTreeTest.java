@@ -0,0 +1,225 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DependencyTreeTest {
+
+    @Test
+    public void testTreeAndClasspathJson() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-tree-json-test");
+        try {
+            Files.writeString(tempDir.resolve("pom.xml"), "<project><modelVersion>4.0.0</modelVersion>"
+                    + "<groupId>test</groupId><artifactId>parent</artifactId><version>1.0</version>"
+                    + "<packaging>pom</packaging><modules><module>a</module><module>b</module><module>c</module>"
+                    + "</modules></project>");
+            module(tempDir, "a", "");
+            module(tempDir, "b", dependency("a", null));
+            module(tempDir, "c", dependency("b", null) + dependency("a", "test"));
+
+            DependencyTree tree = new Corvoid(tempDir.resolve("c")).tree();
+            StringBuilder sb = new StringBuilder();
+            tree.writeJson(sb);
+            Map<?, ?> json = (Map<?, ?>) Json.read(new StringReader(sb.toString()));
+            assertEquals(Map.of("groupId", "test", "artifactId", "c", "version", "1.0"), json.get("root"));
+
+            List<?> nodes = (List<?>) json.get("nodes");
+            assertEquals(2, nodes.size());
+            Map<?, ?> b = (Map<?, ?>) nodes.get(0);
+            assertEquals("b", b.get("artifactId"));
+            assertEquals(1L, b.get("depth"));
+            assertEquals("test:c", b.get("parent"));
+            assertEquals("compile", b.get("scope"));
+            assertFalse(b.containsKey("otherParents"));
+
+            // a is selected directly by c and also requested by b
+            Map<?, ?> a = (Map<?, ?>) nodes.get(1);
+            assertEquals("a", a.get("artifactId"));
+            assertEquals("1.0", a.get("requested"));
+            assertEquals("test", a.get("scope"));
+            assertEquals("test:c", a.get("parent"));
+            assertEquals(List.of(Map.of("parent", "test:b", "requested", "1.0")), a.get("otherParents"));
+            assertTrue(((String) a.get("path")).endsWith("classes"));
+            assertEquals(List.of(), a.get("licenses"));
+            assertEquals(List.of(), json.get("unconstrained"));
+            // b's compile request doesn't widen the test scope c declares for a
+            assertEquals(List.of("test"), a.get("scopes"));
+            assertEquals(List.of("b"), tree.classpathNodes(DependencyTree.Classpath.RUNTIME).stream()
+                    .map(DependencyTree.Node::getArtifactId).toList());
+
+            sb.setLength(0);
+            tree.writeClasspathJson(sb, DependencyTree.Classpath.TEST_RUNTIME);
+            List<?> classpath = (List<?>) Json.read(new StringReader(sb.toString()));
+            assertEquals(2, classpath.size());
+            assertEquals("b", ((Map<?, ?>) classpath.get(0)).get("artifactId"));
+            assertEquals(tree.classpathStrings(DependencyTree.Classpath.TEST_RUNTIME).get(1), ((Map<?, ?>) classpath.get(1)).get("path"));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testUniqueSizes() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-tree-sizes-test");
+        try {
+            Path repository = tempDir.resolve("repository");
+            // c is reachable through both a and b, so removing a alone wouldn't save it
+            artifact(repository, "a", 100, "c");
+            artifact(repository, "b", 200, "c", "d");
+            artifact(repository, "c", 1000);
+            artifact(repository, "d", 10, "e");
+            artifact(repository, "e", 5);
+            Path project = tempDir.resolve("project");
+            Files.createDirectories(project);
+            Files.writeString(project.resolve("pom.xml"), "<project><modelVersion>4.0.0</modelVersion>"
+                    + "<groupId>test</groupId><artifactId>project</artifactId><version>1.0</version><dependencies>"
+                    + dependency("a", null) + dependency("b", null) + "</dependencies></project>");
+
+            DependencyTree tree = new Corvoid(project, repository).tree();
+            tree.computeSizes();
+            DependencyTree.Node a = tree.root().children().get(0);
+            DependencyTree.Node b = tree.root().children().get(1);
+            assertEquals("c", a.children().get(0).getArtifactId());
+            assertEquals(1100, a.totalSize());
+            assertEquals(100, a.uniqueSize());
+            assertEquals(215, b.totalSize());
+            assertEquals(215, b.uniqueSize());
+            assertEquals(1000, a.children().get(0).uniqueSize());
+            assertEquals(1315, tree.root().uniqueSize());
+
+            // c has one shared node with a request from each of a and b
+            DependencyTree.Node c = a.children().get(0);
+            assertEquals(List.of(a, b), c.incoming.stream().map(DependencyTree.Edge::parent).toList());
+            assertSame(c, b.edges.get(0).child());
+            assertEquals(List.of("a", "c", "b", "d", "e"),
+                    tree.classpathNodes(DependencyTree.Classpath.RUNTIME).stream().map(DependencyTree.Node::getArtifactId).toList());
+            assertSame(tree.classpathNodes(DependencyTree.Classpath.RUNTIME), tree.classpathNodes(DependencyTree.Classpath.RUNTIME));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testScopes() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-tree-scopes-test");
+        try {
+            Path repository = tempDir.resolve("repository");
+            artifact(repository, "a", 1, "c", "r:runtime", "t:test", "o:provided");
+            artifact(repository, "c", 1);
+            artifact(repository, "r", 1);
+            artifact(repository, "p", 1, "q");
+            artifact(repository, "q", 1);
+            artifact(repository, "j", 1, "k:runtime");
+            artifact(repository, "k", 1);
+            Path project = tempDir.resolve("project");
+            Files.createDirectories(project);
+            Files.writeString(project.resolve("pom.xml"), "<project><modelVersion>4.0.0</modelVersion>"
+                    + "<groupId>test</groupId><artifactId>project</artifactId><version>1.0</version><dependencies>"
+                    + dependency("a", null) + dependency("p", "provided") + dependency("j", "test")
+                    + "<dependency><groupId>test</groupId><artifactId>s</artifactId><version>1.0</version>"
+                    + "<scope>system</scope><systemPath>/opt/s.jar</systemPath></dependency>"
+                    + "</dependencies></project>");
+
+            DependencyTree tree = new Corvoid(project, repository).tree();
+            // test and provided dependencies of dependencies aren't followed
+            assertNull(tree.nodes.get(new Coord("test", "t")));
+            assertNull(tree.nodes.get(new Coord("test", "o")));
+            assertEquals(Set.of("provided"), tree.nodes.get(new Coord("test", "q")).scopes);
+            assertEquals(Set.of("test"), tree.nodes.get(new Coord("test", "k")).scopes);
+
+            assertEquals(List.of("a", "c", "p", "q"), artifactIds(tree, DependencyTree.Classpath.COMPILE));
+            assertEquals(List.of("a", "c", "r"), artifactIds(tree, DependencyTree.Classpath.RUNTIME));
+            assertEquals(List.of("a", "c", "r", "p", "q", "j", "k"), artifactIds(tree, DependencyTree.Classpath.TEST_RUNTIME));
+            assertTrue(tree.classpathFiles(DependencyTree.Classpath.COMPILE).contains(Path.of("/opt/s.jar")));
+            assertFalse(tree.classpathFiles(DependencyTree.Classpath.RUNTIME).contains(Path.of("/opt/s.jar")));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testDirectScopeWins() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-tree-direct-scope-test");
+        try {
+            Path repository = tempDir.resolve("repository");
+            artifact(repository, "lib", 1, "servlet", "junit");
+            artifact(repository, "servlet", 1);
+            artifact(repository, "junit", 1);
+            Path project = tempDir.resolve("project");
+            Files.createDirectories(project);
+            Files.writeString(project.resolve("pom.xml"), "<project><modelVersion>4.0.0</modelVersion>"
+                    + "<groupId>test</groupId><artifactId>project</artifactId><version>1.0</version><dependencies>"
+                    + dependency("servlet", "provided") + dependency("junit", "test") + dependency("lib", null)
+                    + "</dependencies></project>");
+
+            // lib requests both at compile scope, but the project's own declarations win
+            DependencyTree tree = new Corvoid(project, repository).tree();
+            assertEquals(Set.of("provided"), tree.nodes.get(new Coord("test", "servlet")).scopes);
+            assertEquals(Set.of("test"), tree.nodes.get(new Coord("test", "junit")).scopes);
+            assertEquals(List.of("servlet", "lib"), artifactIds(tree, DependencyTree.Classpath.COMPILE));
+            assertEquals(List.of("lib"), artifactIds(tree, DependencyTree.Classpath.RUNTIME));
+            assertEquals(List.of("servlet", "junit", "lib"), artifactIds(tree, DependencyTree.Classpath.TEST_RUNTIME));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private static List<String> artifactIds(DependencyTree tree, DependencyTree.Classpath classpath) {
+        return tree.classpathNodes(classpath).stream().map(DependencyTree.Node::getArtifactId).toList();
+    }
+
+    private static void artifact(Path repository, String name, int size, String... dependencies) throws IOException {
+        Path dir = repository.resolve("test").resolve(name).resolve("1.0");
+        Files.createDirectories(dir);
+        StringBuilder deps = new StringBuilder();
+        for (String dependency : dependencies) {
+            String[] parts = dependency.split(":");
+            deps.append(dependency(parts[0], parts.length > 1 ? parts[1] : null));
+        }
+        Files.writeString(dir.resolve(name + "-1.0.pom"), "<project><modelVersion>4.0.0</modelVersion>"
+                + "<groupId>test</groupId><artifactId>" + name + "</artifactId><version>1.0</version>"
+                + "<dependencies>" + deps + "</dependencies></project>");
+        Files.write(dir.resolve(name + "-1.0.jar"), new byte[size]);
+    }
+
+    private static void module(Path parent, String name, String dependencies) throws IOException {
+        Path dir = parent.resolve(name);
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("pom.xml"), "<project><modelVersion>4.0.0</modelVersion>"
+                + "<parent><groupId>test</groupId><artifactId>parent</artifactId><version>1.0</version></parent>"
+                + "<artifactId>" + name + "</artifactId><dependencies>" + dependencies + "</dependencies></project>");
+    }
+
+    private static String dependency(String name, String scope) {
+        return "<dependency><groupId>test</groupId><artifactId>" + name + "</artifactId><version>1.0</version>"
+                + (scope != null ? "<scope>" + scope + "</scope>" : "") + "</dependency>";
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
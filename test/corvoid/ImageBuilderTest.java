@@ -0,0 +1,163 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImageBuilderTest {
+
+    @Test
+    public void testLayersAreCachedAndReproducible() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-image-test");
+        try {
+            Path lib = tempDir.resolve("lib.jar");
+            Files.writeString(lib, "jar contents");
+            Path classes = tempDir.resolve("classes");
+            Files.createDirectories(classes.resolve("a"));
+            Files.writeString(classes.resolve("a/Main.class"), "version 1");
+            String longName = "app/classes/" + "x/".repeat(130) + "Deep.class";
+            Path deep = tempDir.resolve("Deep.class");
+            Files.writeString(deep, "deep");
+
+            Path layout = tempDir.resolve("image");
+            Path tarball = tempDir.resolve("image.tar");
+            Instant timestamp = Instant.parse("2024-01-02T03:04:05Z");
+            List<ImageBuilder.BuiltLayer> first = build(layout, timestamp, lib, classes, longName, deep, tarball);
+            assertFalse(first.get(0).cached());
+            assertFalse(first.get(1).cached());
+            byte[] firstTarball = Files.readAllBytes(tarball);
+
+            Map<String, String> files = untar(Files.readAllBytes(layout.resolve("blobs/sha256/" + first.get(1).digest().substring(7))), true);
+            assertEquals(List.of("app/", "app/classes/", "app/classes/a/", "app/classes/a/Main.class"),
+                    List.copyOf(files.keySet()).subList(0, 4));
+            assertEquals("version 1", files.get("app/classes/a/Main.class"));
+            assertEquals("deep", files.get(longName));
+
+            List<ImageBuilder.BuiltLayer> second = build(layout, timestamp, lib, classes, longName, deep, tarball);
+            assertTrue(second.get(0).cached());
+            assertTrue(second.get(1).cached());
+            assertArrayEquals(firstTarball, Files.readAllBytes(tarball));
+
+            Files.writeString(classes.resolve("a/Main.class"), "version 2");
+            List<ImageBuilder.BuiltLayer> third = build(layout, timestamp, lib, classes, longName, deep, tarball);
+            assertTrue(third.get(0).cached());
+            assertFalse(third.get(1).cached());
+            assertNotEquals(first.get(1).digest(), third.get(1).digest());
+
+            Map<String, String> outer = untar(Files.readAllBytes(tarball), false);
+            assertTrue(outer.containsKey("oci-layout"));
+            assertTrue(outer.containsKey("blobs/sha256/" + third.get(1).digest().substring(7)));
+            assertFalse(outer.containsKey("blobs/sha256/" + first.get(1).digest().substring(7)));
+            assertFalse(Files.exists(layout.resolve("blobs/sha256/" + first.get(1).digest().substring(7))));
+
+            Map<?, ?> index = (Map<?, ?>) Json.read(new StringReader(outer.get("index.json")));
+            Map<?, ?> descriptor = (Map<?, ?>) ((List<?>) index.get("manifests")).get(0);
+            assertEquals("demo:1.0", ((Map<?, ?>) descriptor.get("annotations")).get("org.opencontainers.image.ref.name"));
+            Map<?, ?> manifest = (Map<?, ?>) Json.read(new StringReader(
+                    outer.get("blobs/sha256/" + ((String) descriptor.get("digest")).substring(7))));
+            Map<?, ?> config = (Map<?, ?>) Json.read(new StringReader(
+                    outer.get("blobs/sha256/" + ((String) ((Map<?, ?>) manifest.get("config")).get("digest")).substring(7))));
+            assertEquals(List.of("java", "-cp", "/app/classes:/app/lib/lib.jar", "a.Main"),
+                    ((Map<?, ?>) config.get("config")).get("Entrypoint"));
+            assertEquals(List.of(first.get(0).diffId(), third.get(1).diffId()),
+                    ((Map<?, ?>) config.get("rootfs")).get("diff_ids"));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private static List<ImageBuilder.BuiltLayer> build(Path layout, Instant timestamp, Path lib, Path classes,
+                                                       String longName, Path deep, Path tarball) throws IOException {
+        ImageBuilder image = new ImageBuilder(layout, timestamp);
+        SortedMap<String, Path> dependencies = new TreeMap<>();
+        dependencies.put("app/lib/lib.jar", lib);
+        SortedMap<String, Path> classFiles = new TreeMap<>();
+        classFiles.put("app/classes/a/Main.class", classes.resolve("a/Main.class"));
+        classFiles.put(longName, deep);
+        image.addLayer("dependencies", dependencies);
+        image.addLayer("resources", new TreeMap<>());
+        image.addLayer("classes", classFiles);
+        return image.write(null, "demo:1.0", List.of("java", "-cp", "/app/classes:/app/lib/lib.jar", "a.Main"), tarball);
+    }
+
+    /**
+     * Reads a tar into a map of name to contents, following PAX path records.
+     */
+    private static Map<String, String> untar(byte[] data, boolean gzipped) throws IOException {
+        if (gzipped) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                data = in.readAllBytes();
+            }
+        }
+        Map<String, String> files = new LinkedHashMap<>();
+        String paxPath = null;
+        for (int pos = 0; data[pos] != 0; ) {
+            String name = field(data, pos, 100);
+            String prefix = field(data, pos + 345, 155);
+            long size = Long.parseLong(field(data, pos + 124, 12), 8);
+            char type = (char) data[pos + 156];
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(data, pos + 512, (int) size);
+            pos += 512 + (int) ((size + 511) / 512 * 512);
+            if (type == 'x') {
+                for (String record : body.toString(UTF_8).split("\n")) {
+                    if (record.contains(" path=")) {
+                        paxPath = record.substring(record.indexOf(" path=") + 6);
+                    }
+                }
+                continue;
+            }
+            String fullName = paxPath != null ? paxPath : prefix.isEmpty() ? name : prefix + "/" + name;
+            paxPath = null;
+            files.put(fullName, body.toString(UTF_8));
+        }
+        return files;
+    }
+
+    private static String field(byte[] data, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset, UTF_8);
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
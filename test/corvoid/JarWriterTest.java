@@ -0,0 +1,306 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JarWriterTest {
+
+    @Test
+    public void testMergesJarsAndDirectories() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-jar-test");
+        try {
+            Path classes = tempDir.resolve("classes");
+            Files.createDirectories(classes.resolve("a/b"));
+            Files.writeString(classes.resolve("a/b/C.class"), "project class");
+            Files.writeString(classes.resolve("shared.txt"), "from project");
+
+            String big = "repetitive content ".repeat(1000);
+            Path dependency = tempDir.resolve("dep.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(dependency))) {
+                zip.putNextEntry(new ZipEntry("dep/"));
+                zip.closeEntry();
+                zip.putNextEntry(new ZipEntry("dep/Big.txt"));
+                zip.write(big.getBytes(UTF_8));
+                zip.closeEntry();
+                ZipEntry stored = new ZipEntry("dep/stored.txt");
+                byte[] data = "stored".getBytes(UTF_8);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(data.length);
+                stored.setCrc(crc.getValue());
+                zip.putNextEntry(stored);
+                zip.write(data);
+                zip.closeEntry();
+                zip.putNextEntry(new ZipEntry("shared.txt"));
+                zip.write("from dependency".getBytes(UTF_8));
+                zip.closeEntry();
+            }
+
+            Path jar = tempDir.resolve("out.jar");
+            try (JarWriter writer = new JarWriter(jar)) {
+                writer.writeManifest("a.b.C");
+                writer.putDirContents(classes);
+                writer.putJarContents(dependency);
+            }
+
+            try (ZipFile out = new ZipFile(jar.toFile()); ZipFile in = new ZipFile(dependency.toFile())) {
+                assertEquals("Manifest-Version: 1.0\nMain-Class: a.b.C\n", read(out, "META-INF/MANIFEST.MF"));
+                assertEquals("project class", read(out, "a/b/C.class"));
+                assertEquals("from project", read(out, "shared.txt"));
+                assertEquals(big, read(out, "dep/Big.txt"));
+                assertEquals("stored", read(out, "dep/stored.txt"));
+                assertNotNull(out.getEntry("dep/"));
+
+                // dependency entries are copied without being recompressed
+                assertEquals(in.getEntry("dep/Big.txt").getCompressedSize(), out.getEntry("dep/Big.txt").getCompressedSize());
+                assertEquals(ZipEntry.STORED, out.getEntry("dep/stored.txt").getMethod());
+            }
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testTransformersMergeDuplicates() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-jar-test");
+        try {
+            Path one = tempDir.resolve("one.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(one))) {
+                putEntry(zip, "META-INF/services/java.sql.Driver", "# drivers\norg.one.Driver\n");
+                putEntry(zip, "META-INF/spring.factories", "a.Key=one.A,\\\n  one.B\n");
+                putEntry(zip, "META-INF/LICENSE", "Apache License");
+                putEntry(zip, "META-INF/ONE.SF", "signature");
+                putEntry(zip, "module-info.class", "module");
+            }
+            Path two = tempDir.resolve("two.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(two))) {
+                putEntry(zip, "META-INF/services/java.sql.Driver", "org.two.Driver\norg.one.Driver");
+                putEntry(zip, "META-INF/spring.factories", "a.Key=two.A\nb.Key=two.B\n");
+                putEntry(zip, "META-INF/LICENSE", "Apache License");
+                putEntry(zip, "META-INF/NOTICE", "Two notice");
+            }
+
+            Path jar = tempDir.resolve("out.jar");
+            try (JarWriter writer = new JarWriter(jar)) {
+                EntryTransformer.defaults().forEach(writer::addTransformer);
+                writer.putJarContents(one);
+                writer.putJarContents(two);
+            }
+
+            try (ZipFile out = new ZipFile(jar.toFile())) {
+                assertEquals("org.one.Driver\norg.two.Driver\n", read(out, "META-INF/services/java.sql.Driver"));
+                assertEquals("=== one.jar ===\n\nApache License\n", read(out, "META-INF/LICENSE"));
+                assertEquals("=== two.jar ===\n\nTwo notice\n", read(out, "META-INF/NOTICE"));
+                assertNull(out.getEntry("META-INF/ONE.SF"));
+                assertNull(out.getEntry("module-info.class"));
+
+                Properties factories = new Properties();
+                factories.load(out.getInputStream(out.getEntry("META-INF/spring.factories")));
+                assertEquals("one.A,one.B,two.A", factories.getProperty("a.Key"));
+                assertEquals("two.B", factories.getProperty("b.Key"));
+            }
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testMergedPropertiesAreEscaped() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-jar-test");
+        try {
+            Path one = tempDir.resolve("one.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(one))) {
+                putEntry(zip, "META-INF/spring.factories", "a\\ Key=C:\\\\dir\\\\one,caf\u00e9.\u4e2d\n");
+            }
+            Path two = tempDir.resolve("two.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(two))) {
+                putEntry(zip, "META-INF/spring.factories", "a\\ Key=two\\tA\n");
+            }
+
+            Path jar = tempDir.resolve("out.jar");
+            try (JarWriter writer = new JarWriter(jar)) {
+                EntryTransformer.defaults().forEach(writer::addTransformer);
+                writer.putJarContents(one);
+                writer.putJarContents(two);
+            }
+
+            try (ZipFile out = new ZipFile(jar.toFile())) {
+                String content = read(out, "META-INF/spring.factories");
+                assertTrue(content.chars().allMatch(c -> c < 0x7f), content);
+                // loaded as ISO-8859-1, as Spring does
+                Properties factories = new Properties();
+                factories.load(out.getInputStream(out.getEntry("META-INF/spring.factories")));
+                assertEquals("C:\\dir\\one,caf\u00e9.\u4e2d,two\tA", factories.getProperty("a Key"));
+            }
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testResumeFromSegment() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-jar-test");
+        try {
+            Path dependency = tempDir.resolve("dep.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(dependency))) {
+                putEntry(zip, "dep/A.class", "dependency class");
+                putEntry(zip, "config.properties", "from dependency");
+            }
+            Path classes = tempDir.resolve("classes");
+            Files.createDirectories(classes);
+            Files.writeString(classes.resolve("Main.class"), "version 1");
+            Files.writeString(classes.resolve("config.properties"), "from project");
+
+            Path jar = tempDir.resolve("out.jar");
+            long end;
+            try (JarWriter writer = new JarWriter(jar)) {
+                writer.writeManifest("Main");
+                writer.putJarContents(dependency);
+                end = writer.position();
+                writer.startSegment();
+                writer.putDirContents(classes);
+            }
+            try (ZipFile out = new ZipFile(jar.toFile())) {
+                assertEquals("from project", read(out, "config.properties"));
+                assertEquals(4, out.size());
+            }
+
+            Files.writeString(classes.resolve("Main.class"), "version 2");
+            Files.delete(classes.resolve("config.properties"));
+            try (JarWriter writer = JarWriter.resume(jar, end)) {
+                writer.startSegment();
+                writer.putDirContents(classes);
+            }
+            try (ZipFile out = new ZipFile(jar.toFile())) {
+                assertEquals("version 2", read(out, "Main.class"));
+                assertEquals("dependency class", read(out, "dep/A.class"));
+                assertEquals("from dependency", read(out, "config.properties"));
+                assertEquals("Manifest-Version: 1.0\nMain-Class: Main\n", read(out, "META-INF/MANIFEST.MF"));
+                assertEquals(4, out.size());
+            }
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testReproducibleOutput() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-jar-test");
+        try {
+            Path classes = tempDir.resolve("classes");
+            Files.createDirectories(classes.resolve("b"));
+            Files.writeString(classes.resolve("b/B.class"), "b");
+            Files.writeString(classes.resolve("A.class"), "a");
+            Files.writeString(classes.resolve("c.txt"), "c");
+
+            Path first = tempDir.resolve("first.jar");
+            try (JarWriter writer = new JarWriter(first)) {
+                writer.writeManifest("A");
+                writer.putDirContents(classes);
+            }
+
+            Files.setLastModifiedTime(classes.resolve("A.class"), FileTime.from(Instant.parse("2001-02-03T04:05:06Z")));
+            Path second = tempDir.resolve("second.jar");
+            try (JarWriter writer = new JarWriter(second)) {
+                writer.writeManifest("A");
+                writer.putDirContents(classes);
+            }
+            assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+
+            try (ZipFile zip = new ZipFile(first.toFile())) {
+                List<String> names = new ArrayList<>();
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    names.add(entry.getName());
+                    assertEquals(LocalDateTime.of(1980, 2, 1, 0, 0), entry.getTimeLocal());
+                }
+                assertEquals(List.of("META-INF/MANIFEST.MF", "A.class", "b/B.class", "c.txt"), names);
+            }
+
+            Path stamped = tempDir.resolve("stamped.jar");
+            try (JarWriter writer = new JarWriter(stamped)) {
+                writer.setTimestamp(Instant.parse("2024-05-06T07:08:10Z"));
+                writer.putDirContents(classes);
+            }
+            try (ZipFile zip = new ZipFile(stamped.toFile())) {
+                assertEquals(LocalDateTime.of(2024, 5, 6, 7, 8, 10), zip.getEntry("A.class").getTimeLocal());
+            }
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testZip64EntryCount() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-jar-test");
+        try {
+            Path first = tempDir.resolve("first.jar");
+            try (JarWriter writer = new JarWriter(first)) {
+                for (int i = 0; i < 70000; i++) {
+                    writer.put("f/" + i, new ByteArrayInputStream(Integer.toString(i).getBytes(UTF_8)));
+                }
+            }
+            Path second = tempDir.resolve("second.jar");
+            try (JarWriter writer = new JarWriter(second)) {
+                writer.putJarContents(first);
+            }
+            try (ZipFile zip = new ZipFile(second.toFile())) {
+                assertEquals(70000, zip.size());
+                assertEquals("69999", read(zip, "f/69999"));
+            }
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private static void putEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(UTF_8));
+        zip.closeEntry();
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        return new String(zip.getInputStream(zip.getEntry(name)).readAllBytes(), UTF_8);
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
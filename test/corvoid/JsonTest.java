@@ -0,0 +1,140 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonTest {
+    private static final String DOCUMENT = """
+            {"name": "caf\\u00e9 \\"quoted\\"\\n", "count": 42, "negative": -7, "ratio": 0.5, "big": 1e3,
+             "flags": [true, false, null], "nested": {"empty": {}, "list": []}}
+            """;
+
+    record Version(String version, long timestampUnixWithMS) {}
+
+    record Component(String namespace, String name, String description, Version latestVersionInfo,
+                     List<String> tags, Map<String, Integer> counts, boolean deprecated) {}
+
+    record Response(List<Component> components, int totalResultCount) {}
+
+    @Test
+    public void testReadTree() throws Exception {
+        Map<?, ?> json = (Map<?, ?>) Json.read(new StringReader(DOCUMENT));
+        assertEquals("café \"quoted\"\n", json.get("name"));
+        assertEquals(42L, json.get("count"));
+        assertEquals(-7L, json.get("negative"));
+        assertEquals(0.5, json.get("ratio"));
+        assertEquals(1000.0, json.get("big"));
+        assertEquals(java.util.Arrays.asList(true, false, null), json.get("flags"));
+        assertEquals(Map.of("empty", Map.of(), "list", List.of()), json.get("nested"));
+        assertEquals(List.of("name", "count", "negative", "ratio", "big", "flags", "nested"), List.copyOf(json.keySet()));
+
+        assertEquals(Long.MIN_VALUE, Json.read(new StringReader("-9223372036854775808")));
+        assertEquals(9223372036854775808.0, Json.read(new StringReader("9223372036854775808")));
+    }
+
+    @Test
+    public void testWriteRoundTrip() throws Exception {
+        Object json = Json.read(new StringReader(DOCUMENT));
+        StringBuilder sb = new StringBuilder();
+        Json.write(sb, json);
+        assertEquals("{\"name\":\"café \\\"quoted\\\"\\n\",\"count\":42,\"negative\":-7,\"ratio\":0.5,\"big\":1000.0,"
+                + "\"flags\":[true,false,null],\"nested\":{\"empty\":{},\"list\":[]}}", sb.toString());
+        assertEquals(json, Json.read(new StringReader(sb.toString())));
+
+        sb.setLength(0);
+        Json.write(sb, "\u0001\t");
+        assertEquals("\"\\u0001\\t\"", sb.toString());
+    }
+
+    @Test
+    public void testTokensSpanningBufferBoundaries() throws Exception {
+        String text = "{\"key\": \"" + "x".repeat(100) + "\\u00e9\\\\\", \"n\": 1234567890123, \"d\": -12.5e-1}";
+        Json.Parser parser = new Json.Parser(new StringReader(text), 7);
+        Map<?, ?> json = (Map<?, ?>) parser.readValue();
+        parser.end();
+        assertEquals("x".repeat(100) + "é\\", json.get("key"));
+        assertEquals(1234567890123L, json.get("n"));
+        assertEquals(-1.25, json.get("d"));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        Json.Parser parser = new Json.Parser(new StringReader(DOCUMENT));
+        parser.beginObject();
+        assertEquals("name", parser.nextName());
+        parser.skipValue();
+        assertEquals("count", parser.nextName());
+        assertEquals(Json.Token.NUMBER, parser.peek());
+        assertEquals(42, parser.nextLong());
+        assertEquals("negative", parser.nextName());
+        assertEquals("-7", parser.nextString());
+        assertEquals("ratio", parser.nextName());
+        assertThrows(IOException.class, parser::nextLong);
+        parser.nextName();
+        assertEquals(1000.0, parser.nextDouble());
+        assertEquals("flags", parser.nextName());
+        parser.beginArray();
+        assertTrue(parser.nextBoolean());
+        assertFalse(parser.nextBoolean());
+        parser.nextNull();
+        assertFalse(parser.hasNext());
+        parser.endArray();
+        assertEquals("nested", parser.nextName());
+        parser.skipValue();
+        assertFalse(parser.hasNext());
+        parser.endObject();
+        parser.end();
+
+        StringBuilder sb = new StringBuilder();
+        new Json.Generator(sb).beginObject()
+                .name("a").beginArray().value(1).value("two").value(true).nullValue().endArray()
+                .name("b").beginObject().endObject()
+                .name("c").value(Map.of("d", List.of(2.5)))
+                .endObject();
+        assertEquals("{\"a\":[1,\"two\",true,null],\"b\":{},\"c\":{\"d\":[2.5]}}", sb.toString());
+    }
+
+    @Test
+    public void testRecordBinding() throws Exception {
+        String text = """
+                {"components": [
+                  {"namespace": "org.example", "name": "example", "unknown": {"deep": [1, {"x": null}]},
+                   "latestVersionInfo": {"version": "1.0", "timestampUnixWithMS": 1700000000000},
+                   "tags": ["a", "b"], "counts": {"x": 1}, "deprecated": true},
+                  {"namespace": "org.example", "name": "other", "description": null}
+                ], "totalResultCount": 2}
+                """;
+        Response response = Json.read(new StringReader(text), Response.class);
+        assertEquals(2, response.totalResultCount());
+        assertEquals(new Component("org.example", "example", null, new Version("1.0", 1700000000000L),
+                List.of("a", "b"), Map.of("x", 1), true), response.components().get(0));
+        // missing fields get null, false or zero
+        assertEquals(new Component("org.example", "other", null, null, null, null, false), response.components().get(1));
+
+        // records are written with their components in declaration order
+        StringBuilder sb = new StringBuilder();
+        Json.write(sb, new Version("2.0", 5));
+        assertEquals("{\"version\":\"2.0\",\"timestampUnixWithMS\":5}", sb.toString());
+        assertEquals(response, Json.read(new StringReader(write(response)), Response.class));
+    }
+
+    @Test
+    public void testMalformed() {
+        for (String text : List.of("", "[1,]", "{\"a\":1,}", "{\"a\" 1}", "[1 2]", "\"unterminated", "tru", "[1] 2",
+                "{\"a\":\"\\q\"}", "-", "[")) {
+            assertThrows(IOException.class, () -> Json.read(new StringReader(text)), text);
+        }
+    }
+
+    private static String write(Object value) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Json.write(sb, value);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class NestedLauncherTest {
+
+    public static class Greeter {
+        @Override
+        public String toString() {
+            return "hello";
+        }
+    }
+
+    @Test
+    public void testLoadsFromNestedJars() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-nested-test");
+        try {
+            Path one = tempDir.resolve("one.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(one))) {
+                putEntry(zip, "META-INF/services/a.Service", "one.Impl\n");
+                putEntry(zip, "one.txt", "from one");
+                String greeter = Greeter.class.getName().replace('.', '/') + ".class";
+                zip.putNextEntry(new ZipEntry(greeter));
+                try (InputStream in = Greeter.class.getResourceAsStream("/" + greeter)) {
+                    in.transferTo(zip);
+                }
+                zip.closeEntry();
+            }
+            Path two = tempDir.resolve("two.jar");
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(two))) {
+                putEntry(zip, "META-INF/services/a.Service", "two.Impl\n");
+            }
+            Path classes = tempDir.resolve("classes");
+            Files.createDirectories(classes);
+            Files.writeString(classes.resolve("one.txt"), "from project");
+
+            Path jar = tempDir.resolve("nested.jar");
+            try (JarWriter writer = new JarWriter(jar)) {
+                writer.putDirContents(classes);
+                writer.putStored(NestedLauncher.LIB + "one.jar", one);
+                writer.putStored(NestedLauncher.LIB + "two.jar", two);
+            }
+
+            NestedLauncher loader = new NestedLauncher(jar, ClassLoader.getPlatformClassLoader());
+            assertEquals("from project", read(loader.getResource("one.txt")));
+            assertNull(loader.getResource("lib/one.jar"));
+
+            List<String> services = new ArrayList<>();
+            for (URL url : Collections.list(loader.getResources("META-INF/services/a.Service"))) {
+                services.add(read(url));
+            }
+            assertEquals(List.of("one.Impl\n", "two.Impl\n"), services);
+
+            Class<?> greeter = loader.loadClass(Greeter.class.getName());
+            assertEquals(loader, greeter.getClassLoader());
+            assertEquals("hello", greeter.getConstructor().newInstance().toString());
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private static String read(URL url) throws IOException {
+        try (InputStream in = url.openStream()) {
+            return new String(in.readAllBytes(), UTF_8);
+        }
+    }
+
+    private static void putEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(UTF_8));
+        zip.closeEntry();
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
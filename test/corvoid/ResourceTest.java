@@ -7,7 +7,16 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
 
+import corvoid.pom.Model;
+import corvoid.pom.Resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ResourceTest {
@@ -61,6 +70,100 @@ public class ResourceTest {
         }
     }
 
+    @Test
+    public void testFilteringAndStaleOutputs() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-resource-test");
+        try {
+            Path pom = tempDir.resolve("pom.xml");
+            Files.writeString(pom,
+                    "<project>\n" +
+                    "    <groupId>test</groupId>\n" +
+                    "    <artifactId>test-filtering</artifactId>\n" +
+                    "    <version>1.2</version>\n" +
+                    "    <properties>\n" +
+                    "        <greeting>hello</greeting>\n" +
+                    "    </properties>\n" +
+                    "    <build>\n" +
+                    "        <resources>\n" +
+                    "            <resource>\n" +
+                    "                <directory>res</directory>\n" +
+                    "                <filtering>true</filtering>\n" +
+                    "            </resource>\n" +
+                    "        </resources>\n" +
+                    "    </build>\n" +
+                    "</project>");
+
+            Path resDir = tempDir.resolve("res");
+            Files.createDirectories(resDir);
+            Files.writeString(resDir.resolve("app.properties"),
+                    "version=${project.version}\ngreeting=${greeting}\nother=${not.defined}\n");
+            Files.writeString(resDir.resolve("old.txt"), "to be removed");
+
+            Corvoid corvoid = new Corvoid(tempDir);
+            corvoid.command(new String[]{"compile"});
+
+            Path classes = tempDir.resolve("target/classes");
+            assertEquals("version=1.2\ngreeting=hello\nother=${not.defined}\n",
+                    Files.readString(classes.resolve("app.properties")));
+            assertTrue(Files.exists(classes.resolve("old.txt")));
+
+            Thread.sleep(1000); // Ensure timestamp change
+            Files.delete(resDir.resolve("old.txt"));
+            Files.writeString(resDir.resolve("new.txt"), "added");
+            corvoid.command(new String[]{"compile"});
+
+            assertFalse(Files.exists(classes.resolve("old.txt")), "stale resource should be deleted");
+            assertTrue(Files.exists(classes.resolve("new.txt")), "new resource should be copied");
+
+            // a deletion on its own is enough to trigger the sync
+            Thread.sleep(1000);
+            Files.delete(resDir.resolve("new.txt"));
+            corvoid.command(new String[]{"compile"});
+            assertFalse(Files.exists(classes.resolve("new.txt")), "stale resource should be deleted");
+            assertTrue(Files.exists(classes.resolve("app.properties")));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testUnchangedResourcesAreNotRewritten() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-resource-test");
+        try {
+            Path src = tempDir.resolve("res");
+            Path out = tempDir.resolve("out");
+            Files.createDirectories(src);
+            Files.write(src.resolve("model.bin"), new byte[(int) ResourceCopier.LINK_THRESHOLD]);
+            Files.writeString(src.resolve("small.txt"), "small");
+
+            ResourceCopier copier = new ResourceCopier(tempDir, new Model(), null);
+            copier.sync(List.of(resourceFor("res")), out);
+            assertEquals("small", Files.readString(out.resolve("small.txt")));
+            assertEquals(Files.getLastModifiedTime(src.resolve("small.txt")).toMillis(),
+                    Files.getLastModifiedTime(out.resolve("small.txt")).toMillis());
+            assertTrue(Files.isSameFile(src.resolve("model.bin"), out.resolve("model.bin")), "large files should be linked");
+
+            // an output that matches its source is left alone
+            Files.writeString(out.resolve("small.txt"), "SMALL");
+            Files.setLastModifiedTime(out.resolve("small.txt"), Files.getLastModifiedTime(src.resolve("small.txt")));
+            copier.sync(List.of(resourceFor("res")), out);
+            assertEquals("SMALL", Files.readString(out.resolve("small.txt")));
+
+            Files.delete(src.resolve("model.bin"));
+            copier.sync(List.of(resourceFor("res")), out);
+            assertFalse(Files.exists(out.resolve("model.bin")));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private Resource resourceFor(String directory) throws Exception {
+        XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(
+                new StringReader("<resource><directory>" + directory + "</directory></resource>"));
+        xml.nextTag();
+        return new Resource(xml);
+    }
+
     private void deleteDirectory(Path directory) throws IOException {
         if (!Files.exists(directory)) return;
         Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
@@ -0,0 +1,121 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchTest {
+
+    @Test
+    public void testLocalIndex() throws Exception {
+        Path repository = Files.createTempDirectory("corvoid-search-test");
+        try {
+            addPom(repository, "com.fasterxml.jackson.core", "jackson-databind", "2.9.0", "General data-binding functionality");
+            addPom(repository, "com.fasterxml.jackson.core", "jackson-databind", "2.10.0", "General data-binding functionality");
+            addPom(repository, "com.fasterxml.jackson.core", "jackson-databind", "2.11.0-rc1", null);
+            addPom(repository, "com.fasterxml.jackson.core", "jackson-core", "2.10.0", "Core Jackson processing abstractions");
+            addPom(repository, "org.xerial", "sqlite-jdbc", "3.36.0", "SQLite JDBC library");
+            addPom(repository, "junit", "junit", "4.13.2", "JUnit is a unit testing framework for Java");
+            Path metadata = repository.resolve("org/jsoup/jsoup/maven-metadata-central.xml");
+            Files.createDirectories(metadata.getParent());
+            Files.writeString(metadata, "<metadata><versioning><versions><version>1.15.1</version>"
+                    + "<version>1.16.1</version></versions></versioning></metadata>");
+
+            SearchIndex index = SearchIndex.open(repository, Long.MAX_VALUE, false);
+            assertEquals(5, index.artifacts().size());
+
+            // exact and prefix matches on artifactId come first
+            List<SearchIndex.Artifact> results = index.search("jackson-databind", 10);
+            assertEquals("jackson-databind", results.get(0).artifactId());
+            assertEquals("2.10.0", results.get(0).version());
+            assertEquals("General data-binding functionality", results.get(0).description());
+            assertEquals(List.of("jackson-core", "jackson-databind"), artifactIds(index.search("jackson", 10)));
+
+            // misspelt queries still match through shared trigrams
+            assertEquals("jackson-databind", index.search("jackson databnd", 10).get(0).artifactId());
+            assertEquals("sqlite-jdbc", index.search("sqllite", 10).get(0).artifactId());
+
+            // artifacts known only from metadata use its latest version
+            SearchIndex.Artifact jsoup = index.search("jsoup", 10).get(0);
+            assertEquals("org.jsoup", jsoup.groupId());
+            assertEquals("1.16.1", jsoup.version());
+            // reading the metadata doesn't leave a version index beside it
+            try (var files = Files.list(metadata.getParent())) {
+                assertEquals(List.of(metadata), files.toList());
+            }
+
+            // words shorter than a trigram are matched directly
+            assertEquals("junit", index.search("ju", 10).get(0).artifactId());
+            assertEquals(List.of(), index.search("zzzqqq", 10));
+
+            // the saved index gives the same answers
+            assertTrue(Files.exists(repository.resolve(SearchIndex.FILE)));
+            SearchIndex loaded = SearchIndex.load(repository.resolve(SearchIndex.FILE));
+            assertEquals(index.artifacts(), loaded.artifacts());
+            assertEquals(artifactIds(index.search("jackson databnd", 10)), artifactIds(loaded.search("jackson databnd", 10)));
+
+            // an old index is kept while the repository's directories are unchanged...
+            Path saved = repository.resolve(SearchIndex.FILE);
+            Files.setLastModifiedTime(saved, FileTime.fromMillis(0));
+            addPom(repository, "junit", "junit", "4.13.2", "Changed in place");
+            assertEquals("JUnit is a unit testing framework for Java",
+                    SearchIndex.open(repository, 1000, false).search("junit", 1).get(0).description());
+            assertTrue(Files.getLastModifiedTime(saved).toMillis() > 0);
+
+            // ...and rebuilt once an artifact is added
+            Thread.sleep(1000); // Ensure timestamp change
+            addPom(repository, "org.xerial", "snappy-java", "1.1.10", null);
+            Files.setLastModifiedTime(saved, FileTime.fromMillis(0));
+            SearchIndex rebuilt = SearchIndex.open(repository, 1000, false);
+            assertEquals(6, rebuilt.artifacts().size());
+            assertEquals("Changed in place", rebuilt.search("junit", 1).get(0).description());
+        } finally {
+            deleteDirectory(repository);
+        }
+    }
+
+    private static void addPom(Path repository, String groupId, String artifactId, String version,
+                               String description) throws IOException {
+        Path pom = repository.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve(version)
+                .resolve(artifactId + "-" + version + ".pom");
+        Files.createDirectories(pom.getParent());
+        Files.writeString(pom, "<project><groupId>" + groupId + "</groupId><artifactId>" + artifactId
+                + "</artifactId><version>" + version + "</version>"
+                + (description != null ? "<description>\n  " + description + "\n</description>" : "")
+                + "</project>");
+    }
+
+    private static List<String> artifactIds(List<SearchIndex.Artifact> artifacts) {
+        List<String> ids = new ArrayList<>();
+        for (SearchIndex.Artifact artifact : artifacts) {
+            ids.add(artifact.artifactId());
+        }
+        return ids;
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,82 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardedTestRunTest {
+
+    @Test
+    public void testBalanceUsesTimings() {
+        Map<String, Long> timings = Map.of("A", 900L, "B", 500L, "C", 400L, "D", 100L);
+        List<ShardedTestRun.Shard> shards = ShardedTestRun.balance(List.of("A", "B", "C", "D", "E"), timings, 2);
+        assertEquals(2, shards.size());
+        // E is untimed so it's assumed to take the average of the others (475)
+        assertEquals(List.of("A", "C"), shards.get(0).classes());
+        assertEquals(List.of("B", "E", "D"), shards.get(1).classes());
+        assertEquals(1300, shards.get(0).estimatedMillis());
+        assertEquals(1075, shards.get(1).estimatedMillis());
+
+        assertEquals(1, ShardedTestRun.balance(List.of("A"), timings, 4).size());
+        assertEquals(3, ShardedTestRun.balance(List.of("X", "Y", "Z"), Map.of(), 8).size());
+    }
+
+    @Test
+    public void testReadReports() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-shard-test");
+        try {
+            assertFalse(ShardedTestRun.readReports(tempDir, new HashMap<>(), new ShardedTestRun.Totals()));
+
+            Files.writeString(tempDir.resolve("TEST-junit-jupiter.xml"), """
+                    <?xml version="1.0" encoding="UTF-8"?>
+                    <testsuite name="JUnit Jupiter" tests="4" skipped="1" failures="1" errors="0">
+                      <testcase name="one()" classname="a.ATest" time="1.25"/>
+                      <testcase name="two()" classname="a.ATest" time="0.5">
+                        <failure message="expected 3"/>
+                      </testcase>
+                      <testcase name="inner()" classname="a.ATest$Inner" time="0.25"/>
+                      <testcase name="later()" classname="b.BTest" time="0">
+                        <skipped/>
+                      </testcase>
+                    </testsuite>
+                    """);
+            Map<String, Long> millis = new HashMap<>();
+            ShardedTestRun.Totals totals = new ShardedTestRun.Totals();
+            assertTrue(ShardedTestRun.readReports(tempDir, millis, totals));
+            assertEquals(Map.of("a.ATest", 2000L, "b.BTest", 0L), millis);
+            assertEquals(4, totals.tests);
+            assertEquals(1, totals.failures);
+            assertEquals(1, totals.skipped);
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
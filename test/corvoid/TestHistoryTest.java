@@ -0,0 +1,85 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestHistoryTest {
+
+    @Test
+    public void testReadResults() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-history-test");
+        try {
+            Path results = tempDir.resolve("results.json");
+            Files.writeString(results, """
+                    {"started":"2024-01-02T03:04:05Z","millis":900,"tests":[
+                    {"class":"a.FooTest","name":"one()","status":"passed","millis":100},
+                    {"class":"a.FooTest$Nested","name":"two()","status":"failed","millis":50,"message":"x","trace":"y"},
+                    {"class":"a.BarTest","name":"three()","status":"skipped","millis":0},
+                    {"class":"a.BarTest","name":"four()","status":"error","millis":20}]}
+                    """);
+            TestHistory.Run run = TestHistory.read(results);
+            assertEquals(900, run.millis());
+            assertEquals(4, run.tests());
+            assertEquals(2, run.failed());
+            assertEquals(1, run.skipped());
+            assertEquals(Map.of("a.FooTest", 150L, "a.BarTest", 20L), run.classMillis());
+
+            TestHistory.Run other = new TestHistory.Run("2024-01-02T03:04:04Z", 500, 1, 0, 0, Map.of("a.BazTest", 7L));
+            TestHistory.Run combined = TestHistory.combine(List.of(run, other), 1000);
+            assertEquals("2024-01-02T03:04:04Z", combined.started());
+            assertEquals(1000, combined.millis());
+            assertEquals(5, combined.tests());
+            assertEquals(Map.of("a.FooTest", 150L, "a.BarTest", 20L, "a.BazTest", 7L), combined.classMillis());
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testHistoryIsCapped() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-history-test");
+        try {
+            Path file = tempDir.resolve("target/test-history.json");
+            TestHistory history = new TestHistory(file);
+            for (int i = 0; i < TestHistory.MAX_RUNS + 5; i++) {
+                history.add(new TestHistory.Run("run" + i, i, 1, 0, 0, Map.of("a.FooTest", (long) i)));
+            }
+            List<?> runs;
+            try (InputStream in = Files.newInputStream(file)) {
+                runs = (List<?>) Json.read(in);
+            }
+            assertEquals(TestHistory.MAX_RUNS, runs.size());
+            assertEquals("run5", ((Map<?, ?>) runs.get(0)).get("started"));
+            assertEquals("run" + (TestHistory.MAX_RUNS + 4), ((Map<?, ?>) runs.get(runs.size() - 1)).get("started"));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestImpactTest {
+
+    @Test
+    public void testReferences() throws Exception {
+        try (InputStream in = TestImpactTest.class.getResourceAsStream("TestImpactTest.class")) {
+            Set<String> references = TestImpact.references(in);
+            assertTrue(references.contains("corvoid/TestImpact"));
+            assertTrue(references.contains("corvoid/TestImpact$Snapshot"));
+            assertTrue(references.contains("java/nio/file/Path"));
+        }
+    }
+
+    @Test
+    public void testAffectedTests() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-impact-test");
+        try {
+            Path classes = tempDir.resolve("classes");
+            Path testClasses = tempDir.resolve("test-classes");
+            copyClass(ShardedTestRun.class, classes);
+            copyClass(ShardedTestRun.Shard.class, classes);
+            copyClass(ShardedTestRun.Totals.class, classes);
+            copyClass(Version.class, classes);
+            copyClass(ShardedTestRunTest.class, testClasses);
+            copyClass(VersionTest.class, testClasses);
+            List<Path> dirs = List.of(testClasses, classes);
+            List<String> tests = List.of("corvoid.ShardedTestRunTest", "corvoid.VersionTest");
+
+            TestImpact impact = new TestImpact(tempDir.resolve("target/test-impact.json"));
+            assertNull(impact.affected(TestImpact.scan(dirs, List.of()), tests));
+            impact.save(TestImpact.scan(dirs, List.of()));
+            assertEquals(List.of(), impact.affected(TestImpact.scan(dirs, List.of()), tests));
+
+            // a nested class is reached through its outer class
+            Files.write(classes.resolve("corvoid/ShardedTestRun$Totals.class"), new byte[]{0}, StandardOpenOption.APPEND);
+            assertEquals(List.of("corvoid.ShardedTestRunTest"), impact.affected(TestImpact.scan(dirs, List.of()), tests));
+
+            Files.delete(classes.resolve("corvoid/Version.class"));
+            assertEquals(tests, impact.affected(TestImpact.scan(dirs, List.of()), tests));
+
+            Files.writeString(classes.resolve("config.properties"), "a=b");
+            assertNull(impact.affected(TestImpact.scan(dirs, List.of()), tests));
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private static void copyClass(Class<?> c, Path dir) throws IOException {
+        String name = c.getName().replace('.', '/') + ".class";
+        Path target = dir.resolve(name);
+        Files.createDirectories(target.getParent());
+        try (InputStream in = c.getResourceAsStream("/" + name)) {
+            Files.copy(in, target);
+        }
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,132 @@
+package corvoid;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VersionIndexTest {
+    private static final String METADATA = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <metadata>
+              <groupId>org.example</groupId>
+              <artifactId>example</artifactId>
+              <versioning>
+                <latest>3.0.0-M1</latest>
+                <release>3.0.0-M1</release>
+                <versions>
+                  <version>1.10</version>
+                  <version>1.9</version>
+                  <version>2.0.0-beta1</version>
+                  <version>2.0.0</version>
+                  <version>2.1.0</version>
+                  <version>3.0.0-M1</version>
+                  <version>1.9</version>
+                </versions>
+              </versioning>
+            </metadata>
+            """;
+
+    @Test
+    public void testParse() throws Exception {
+        VersionIndex index = VersionIndex.parse(new ByteArrayInputStream(METADATA.getBytes(UTF_8)));
+        assertEquals(List.of(
+                new VersionIndex.Entry("1.9", true),
+                new VersionIndex.Entry("1.10", true),
+                new VersionIndex.Entry("2.0.0-beta1", false),
+                new VersionIndex.Entry("2.0.0", true),
+                new VersionIndex.Entry("2.1.0", true),
+                new VersionIndex.Entry("3.0.0-M1", false)), index.versions());
+        assertEquals("3.0.0-M1", index.release());
+        assertEquals("2.1.0", index.latestStable());
+        assertEquals("1.10", index.latestStable(1));
+        assertEquals("2.1.0", index.latestStable(2));
+        assertNull(index.latestStable(3));
+    }
+
+    @Test
+    public void testSavedIndexIsRebuiltWhenMetadataChanges() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-version-index-test");
+        try {
+            Path metadata = tempDir.resolve("maven-metadata-central.xml");
+            Files.writeString(metadata, METADATA);
+            assertEquals("2.1.0", VersionIndex.load(metadata).latestStable());
+            Path indexFile = tempDir.resolve("maven-metadata-central.index.json");
+            assertTrue(Files.exists(indexFile));
+
+            // the saved index is used while the metadata is unchanged
+            VersionIndex saved = VersionIndex.load(metadata);
+            assertEquals(6, saved.versions().size());
+            assertEquals("1.10", saved.latestStable(1));
+
+            FileTime modified = Files.getLastModifiedTime(metadata);
+            Files.writeString(metadata, METADATA.replace("<version>2.1.0</version>", "<version>2.2.0</version>"));
+            Files.setLastModifiedTime(metadata, FileTime.fromMillis(modified.toMillis() + 1000));
+            assertEquals("2.2.0", VersionIndex.load(metadata).latestStable());
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    public void testConcurrentRebuildsAndFailedSaves() throws Exception {
+        Path tempDir = Files.createTempDirectory("corvoid-version-index-test");
+        try {
+            Path metadata = tempDir.resolve("maven-metadata-central.xml");
+            Files.writeString(metadata, METADATA);
+            List<Future<VersionIndex>> loads = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                for (int i = 0; i < 32; i++) {
+                    loads.add(executor.submit(() -> VersionIndex.load(metadata)));
+                }
+                for (Future<VersionIndex> load : loads) {
+                    assertEquals("2.1.0", load.get().latestStable());
+                }
+            } finally {
+                executor.shutdown();
+            }
+            try (var files = Files.list(tempDir)) {
+                assertEquals(2, files.count(), "no temporary files are left behind");
+            }
+
+            // an index that can't be saved is still returned
+            Path indexFile = tempDir.resolve("maven-metadata-central.index.json");
+            Files.delete(indexFile);
+            Files.createDirectories(indexFile.resolve("blocked"));
+            assertEquals("2.1.0", VersionIndex.load(metadata).latestStable());
+        } finally {
+            deleteDirectory(tempDir);
+        }
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}